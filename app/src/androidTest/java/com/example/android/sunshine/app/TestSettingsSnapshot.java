@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+import java.util.Locale;
+
+/*
+    Checks that the settings snapshot follows preference changes, and compares binding the
+    settings of 14 forecast rows through it with reading SharedPreferences for every call.
+ */
+public class TestSettingsSnapshot extends AndroidTestCase {
+    public static final String LOG_TAG = TestSettingsSnapshot.class.getSimpleName();
+
+    private static final int ROW_COUNT = 14;
+    private static final int BENCHMARK_ROUNDS = 500;
+
+    private SharedPreferences mPrefs;
+    private String mSavedUnits;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mSavedUnits = mPrefs.getString(mContext.getString(R.string.pref_units_key), null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        SharedPreferences.Editor editor = mPrefs.edit();
+        if (mSavedUnits == null) {
+            editor.remove(mContext.getString(R.string.pref_units_key));
+        } else {
+            editor.putString(mContext.getString(R.string.pref_units_key), mSavedUnits);
+        }
+        editor.commit();
+        super.tearDown();
+    }
+
+    public void testSnapshotFollowsUnits() {
+        setUnits(R.string.pref_units_imperial);
+        assertFalse("Still metric after switching to imperial", Utility.isMetric(mContext));
+        setUnits(R.string.pref_units_metric);
+        assertTrue("Not metric after switching back", Utility.isMetric(mContext));
+    }
+
+    public void testSnapshotMatchesPreferences() {
+        SettingsSnapshot snapshot = SettingsSnapshot.get(mContext);
+        assertSame("A snapshot was read again without a change", snapshot,
+                SettingsSnapshot.get(mContext));
+        assertEquals(getPreferredLocationFromPrefs(mContext), snapshot.getLocation());
+        assertEquals(isMetricFromPrefs(mContext), snapshot.isMetric());
+        assertEquals(usingLocalGraphicsFromPrefs(mContext), snapshot.isUsingLocalGraphics());
+        assertEquals(getArtUrlFromPrefs(mContext, 800), Utility.getArtUrlForWeatherCondition(mContext, 800));
+    }
+
+    public void testBindingThroughput() {
+        // Warm both paths up, the first call reads the preferences file
+        bindRowsFromPrefs();
+        bindRowsFromSnapshot();
+
+        long start = SystemClock.elapsedRealtimeNanos();
+        int prefsLength = 0;
+        for (int round = 0; round < BENCHMARK_ROUNDS; round++) {
+            prefsLength += bindRowsFromPrefs();
+        }
+        long prefsNanos = SystemClock.elapsedRealtimeNanos() - start;
+
+        start = SystemClock.elapsedRealtimeNanos();
+        int snapshotLength = 0;
+        for (int round = 0; round < BENCHMARK_ROUNDS; round++) {
+            snapshotLength += bindRowsFromSnapshot();
+        }
+        long snapshotNanos = SystemClock.elapsedRealtimeNanos() - start;
+        assertEquals("Both paths have to produce the same rows", prefsLength, snapshotLength);
+
+        Log.i(LOG_TAG, "Settings of " + ROW_COUNT + " rows: " + prefsNanos / BENCHMARK_ROUNDS / 1000
+                + " us from SharedPreferences, " + snapshotNanos / BENCHMARK_ROUNDS / 1000
+                + " us from the snapshot");
+    }
+
+    // What ForecastAdapter reads for a row: the art, and both temperatures
+    private int bindRowsFromPrefs() {
+        int length = 0;
+        for (int row = 0; row < ROW_COUNT; row++) {
+            int weatherId = 800 + row % 5;
+            if (!usingLocalGraphicsFromPrefs(mContext)) {
+                length += getArtUrlFromPrefs(mContext, weatherId).length();
+            }
+            length += formatTemperatureFromPrefs(mContext, 20 + row).length();
+            length += formatTemperatureFromPrefs(mContext, 10 + row).length();
+        }
+        return length;
+    }
+
+    private int bindRowsFromSnapshot() {
+        int length = 0;
+        for (int row = 0; row < ROW_COUNT; row++) {
+            int weatherId = 800 + row % 5;
+            if (!Utility.usingLocalGraphics(mContext)) {
+                length += Utility.getArtUrlForWeatherCondition(mContext, weatherId).length();
+            }
+            length += Utility.formatTemperature(mContext, 20 + row).length();
+            length += Utility.formatTemperature(mContext, 10 + row).length();
+        }
+        return length;
+    }
+
+    private void setUnits(int unitsId) {
+        final String units = mContext.getString(unitsId);
+        mPrefs.edit().putString(mContext.getString(R.string.pref_units_key), units).commit();
+        // The listener runs on the main thread
+        new PollingCheck() {
+            @Override
+            protected boolean check() {
+                return SettingsSnapshot.get(mContext).isMetric()
+                        == units.equals(mContext.getString(R.string.pref_units_metric));
+            }
+        }.run();
+    }
+
+    // How Utility read the settings before the snapshot
+
+    private static String getPreferredLocationFromPrefs(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        return prefs.getString(context.getString(R.string.pref_location_key),
+                context.getString(R.string.pref_location_default));
+    }
+
+    private static boolean isMetricFromPrefs(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        return prefs.getString(context.getString(R.string.pref_units_key),
+                context.getString(R.string.pref_units_metric))
+                .equals(context.getString(R.string.pref_units_metric));
+    }
+
+    private static boolean usingLocalGraphicsFromPrefs(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String sunshineArtPack = context.getString(R.string.pref_art_pack_sunshine);
+        return prefs.getString(context.getString(R.string.pref_art_pack_key),
+                sunshineArtPack).equals(sunshineArtPack);
+    }
+
+    private static String getArtUrlFromPrefs(Context context, int weatherId) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String formatArtUrl = prefs.getString(context.getString(R.string.pref_art_pack_key),
+                context.getString(R.string.pref_art_pack_sunshine));
+        return String.format(Locale.US, formatArtUrl, WeatherConditionTable.getArtName(weatherId));
+    }
+
+    private static String formatTemperatureFromPrefs(Context context, double temperature) {
+        if (!isMetricFromPrefs(context)) {
+            temperature = (temperature * 1.8) + 32;
+        }
+        return String.format(context.getString(R.string.format_temperature), temperature);
+    }
+}
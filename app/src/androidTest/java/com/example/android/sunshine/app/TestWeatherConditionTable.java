@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.util.Locale;
+
+/*
+    Checks the condition tables against the range checks Utility used before them, for every
+    id from -1 to 1000, and times both.
+ */
+public class TestWeatherConditionTable extends AndroidTestCase {
+    public static final String LOG_TAG = TestWeatherConditionTable.class.getSimpleName();
+
+    private static final int FIRST_ID = -1;
+    private static final int LAST_ID = 1000;
+    private static final int BENCHMARK_ROUNDS = 200;
+
+    // What each branch of the old range checks returned, in the order of the branches
+    private static final int[] ICONS = {
+            R.drawable.ic_storm, R.drawable.ic_light_rain, R.drawable.ic_rain, R.drawable.ic_snow,
+            R.drawable.ic_rain, R.drawable.ic_snow, R.drawable.ic_fog, R.drawable.ic_storm,
+            R.drawable.ic_clear, R.drawable.ic_light_clouds, R.drawable.ic_cloudy
+    };
+    private static final int[] BW_ICONS = {
+            R.drawable.ic_storm_bw, R.drawable.ic_light_rain_bw, R.drawable.ic_rain_bw,
+            R.drawable.ic_snow_bw, R.drawable.ic_rain_bw, R.drawable.ic_snow_bw, R.drawable.ic_fog_bw,
+            R.drawable.ic_storm_bw, R.drawable.ic_clear_bw, R.drawable.ic_light_clouds_bw,
+            R.drawable.ic_cloudy_bw
+    };
+    private static final int[] ARTS = {
+            R.drawable.art_storm, R.drawable.art_light_rain, R.drawable.art_rain, R.drawable.art_snow,
+            R.drawable.art_rain, R.drawable.art_snow, R.drawable.art_fog, R.drawable.art_storm,
+            R.drawable.art_clear, R.drawable.art_light_clouds, R.drawable.art_clouds
+    };
+    private static final String[] ART_NAMES = {
+            "storm", "light_rain", "rain", "snow", "rain", "snow", "fog", "storm", "clear",
+            "light_clouds", "clouds"
+    };
+    private static final String[] IMAGE_URLS = {
+            "http://upload.wikimedia.org/wikipedia/commons/2/28/Thunderstorm_in_Annemasse,_France.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/a/a0/Rain_on_leaf_504605006.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/6/6c/Rain-on-Thassos.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/b/b8/Fresh_snow.JPG",
+            "http://upload.wikimedia.org/wikipedia/commons/6/6c/Rain-on-Thassos.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/b/b8/Fresh_snow.JPG",
+            "http://upload.wikimedia.org/wikipedia/commons/e/e6/Westminster_fog_-_London_-_UK.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/d/dc/Raised_dust_ahead_of_a_severe_thunderstorm_1.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/7/7e/A_few_trees_and_the_sun_(6009964513).jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/e/e7/Cloudy_Blue_Sky_(5031259890).jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/5/54/Cloudy_hills_in_Elis,_Greece_2.jpg"
+    };
+    // The ids the old switch had a case condition_<id> for, besides the 2xx and 3xx ranges
+    private static final int[] STRING_IDS = {
+            500, 501, 502, 503, 504, 511, 520, 531, 600, 601, 602, 611, 612, 615, 616, 620, 621,
+            622, 701, 711, 721, 731, 741, 751, 761, 762, 771, 781, 800, 801, 802, 803, 804, 900,
+            901, 902, 903, 904, 905, 906, 951, 952, 953, 954, 955, 956, 957, 958, 959, 960, 961, 962
+    };
+
+    public void testIconsMatchRangeChecks() {
+        for (int weatherId = FIRST_ID; weatherId <= LAST_ID; weatherId++) {
+            int branch = getBranch(weatherId);
+            assertEquals("Icon of " + weatherId, branch == -1 ? -1 : ICONS[branch],
+                    Utility.getIconResourceForWeatherCondition(weatherId));
+            assertEquals("B/W icon of " + weatherId, branch == -1 ? -1 : BW_ICONS[branch],
+                    Utility.getBWIconResourceForWeatherCondition(weatherId));
+        }
+    }
+
+    public void testArtMatchesRangeChecks() {
+        String formatArtUrl = mContext.getString(R.string.pref_art_pack_sunshine);
+        for (int weatherId = FIRST_ID; weatherId <= LAST_ID; weatherId++) {
+            int branch = getBranch(weatherId);
+            assertEquals("Art of " + weatherId, branch == -1 ? -1 : ARTS[branch],
+                    Utility.getArtResourceForWeatherCondition(weatherId));
+            assertEquals("Image of " + weatherId, branch == -1 ? null : IMAGE_URLS[branch],
+                    Utility.getImageUrlForWeatherCondition(weatherId));
+            assertEquals("Art name of " + weatherId, branch == -1 ? null : ART_NAMES[branch],
+                    WeatherConditionTable.getArtName(weatherId));
+            if (Utility.usingLocalGraphics(mContext)) {
+                assertEquals("Art URL of " + weatherId, branch == -1 ? null
+                                : String.format(Locale.US, formatArtUrl, ART_NAMES[branch]),
+                        Utility.getArtUrlForWeatherCondition(mContext, weatherId));
+            }
+        }
+    }
+
+    public void testStringsMatchSwitch() {
+        for (int weatherId = FIRST_ID; weatherId <= LAST_ID; weatherId++) {
+            assertEquals("Description of " + weatherId, getSwitchString(weatherId),
+                    Utility.getStringForWeatherCondition(mContext, weatherId));
+        }
+    }
+
+    public void testLookupThroughput() {
+        long start = SystemClock.elapsedRealtimeNanos();
+        int sum = 0;
+        for (int round = 0; round < BENCHMARK_ROUNDS; round++) {
+            for (int weatherId = FIRST_ID; weatherId <= LAST_ID; weatherId++) {
+                int branch = getBranch(weatherId);
+                sum += branch == -1 ? -1 : ICONS[branch];
+                sum += branch == -1 ? -1 : ARTS[branch];
+            }
+        }
+        long rangeCheckNanos = SystemClock.elapsedRealtimeNanos() - start;
+
+        start = SystemClock.elapsedRealtimeNanos();
+        int tableSum = 0;
+        for (int round = 0; round < BENCHMARK_ROUNDS; round++) {
+            for (int weatherId = FIRST_ID; weatherId <= LAST_ID; weatherId++) {
+                tableSum += WeatherConditionTable.getIcon(weatherId);
+                tableSum += WeatherConditionTable.getArt(weatherId);
+            }
+        }
+        long tableNanos = SystemClock.elapsedRealtimeNanos() - start;
+        assertEquals(sum, tableSum);
+
+        int lookups = BENCHMARK_ROUNDS * (LAST_ID - FIRST_ID + 1) * 2;
+        Log.i(LOG_TAG, "Range checks: " + rangeCheckNanos / lookups + " ns per lookup, table: "
+                + tableNanos / lookups + " ns per lookup");
+    }
+
+    // The branch of the range checks the old methods all shared that the id falls in, or -1
+    private static int getBranch(int weatherId) {
+        if (weatherId >= 200 && weatherId <= 232) {
+            return 0;
+        } else if (weatherId >= 300 && weatherId <= 321) {
+            return 1;
+        } else if (weatherId >= 500 && weatherId <= 504) {
+            return 2;
+        } else if (weatherId == 511) {
+            return 3;
+        } else if (weatherId >= 520 && weatherId <= 531) {
+            return 4;
+        } else if (weatherId >= 600 && weatherId <= 622) {
+            return 5;
+        } else if (weatherId >= 701 && weatherId <= 761) {
+            return 6;
+        } else if (weatherId == 761 || weatherId == 781) {
+            return 7;
+        } else if (weatherId == 800) {
+            return 8;
+        } else if (weatherId == 801) {
+            return 9;
+        } else if (weatherId >= 802 && weatherId <= 804) {
+            return 10;
+        }
+        return -1;
+    }
+
+    private String getSwitchString(int weatherId) {
+        if (weatherId >= 200 && weatherId <= 232) {
+            return mContext.getString(R.string.condition_2xx);
+        } else if (weatherId >= 300 && weatherId <= 321) {
+            return mContext.getString(R.string.condition_3xx);
+        }
+        for (int stringId : STRING_IDS) {
+            if (stringId == weatherId) {
+                return mContext.getString(mContext.getResources().getIdentifier(
+                        "condition_" + weatherId, "string", mContext.getPackageName()));
+            }
+        }
+        return mContext.getString(R.string.condition_unknown, weatherId);
+    }
+}
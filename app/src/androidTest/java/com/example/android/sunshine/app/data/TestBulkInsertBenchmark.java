@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Compares the compiled statements in WeatherProvider.bulkInsert with the ContentValues loops
+    they replaced, on a synthetic forecast of 10k rows: the plain insert, and the diff that the
+    sync writes through, once with every row unchanged and once with every other row changed.
+ */
+public class TestBulkInsertBenchmark extends AndroidTestCase {
+    public static final String LOG_TAG = TestBulkInsertBenchmark.class.getSimpleName();
+
+    private static final int ROW_COUNT = 10000;
+    private static final long MILLISECONDS_IN_A_DAY = 1000 * 60 * 60 * 24;
+
+    private long mLocationRowId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        mLocationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    public void testBulkInsertThroughput() {
+        // db.insert for every row, with a new Time for every date, as bulkInsert used to
+        ContentValues[] values = createForecastValues();
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+        long start = SystemClock.elapsedRealtime();
+        int insertCount = 0;
+        db.beginTransaction();
+        try {
+            for (ContentValues value : values) {
+                value.put(WeatherEntry.COLUMN_DATE,
+                        WeatherContract.normalizeDate(value.getAsLong(WeatherEntry.COLUMN_DATE)));
+                if (db.insert(WeatherEntry.TABLE_NAME, null, value) != -1) {
+                    insertCount++;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        long insertMillis = Math.max(1, SystemClock.elapsedRealtime() - start);
+        db.close();
+        assertEquals(ROW_COUNT, insertCount);
+        assertEquals(ROW_COUNT, countWeatherRows());
+
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+
+        values = createForecastValues();
+        start = SystemClock.elapsedRealtime();
+        insertCount = mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values);
+        long statementMillis = Math.max(1, SystemClock.elapsedRealtime() - start);
+        assertEquals(ROW_COUNT, insertCount);
+        assertEquals(ROW_COUNT, countWeatherRows());
+
+        Log.i(LOG_TAG, "Inserting " + ROW_COUNT + " rows: db.insert " + insertMillis + " ms ("
+                + ROW_COUNT * 1000L / insertMillis + " rows/s), compiled statement "
+                + statementMillis + " ms (" + ROW_COUNT * 1000L / statementMillis + " rows/s)");
+    }
+
+    public void testDiffBulkInsertThroughput() {
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, createForecastValues(0));
+
+        // A query, then db.insert or db.update through ContentValues for every row, as the diff
+        // used to; the stored highs are one degree up afterwards
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getWritableDatabase();
+        long start = SystemClock.elapsedRealtime();
+        int writtenCount = upsertWithContentValues(db, createForecastValues(0));
+        long unchangedQueryMillis = Math.max(1, SystemClock.elapsedRealtime() - start);
+        assertEquals(0, writtenCount);
+
+        start = SystemClock.elapsedRealtime();
+        writtenCount = upsertWithContentValues(db, createForecastValues(1));
+        long changedQueryMillis = Math.max(1, SystemClock.elapsedRealtime() - start);
+        db.close();
+        assertEquals(ROW_COUNT / 2, writtenCount);
+
+        start = SystemClock.elapsedRealtime();
+        writtenCount = mContext.getContentResolver().bulkInsert(WeatherEntry.buildWeatherDiffUri(),
+                createForecastValues(1));
+        long unchangedStatementMillis = Math.max(1, SystemClock.elapsedRealtime() - start);
+        assertEquals(0, writtenCount);
+
+        start = SystemClock.elapsedRealtime();
+        writtenCount = mContext.getContentResolver().bulkInsert(WeatherEntry.buildWeatherDiffUri(),
+                createForecastValues(2));
+        long changedStatementMillis = Math.max(1, SystemClock.elapsedRealtime() - start);
+        assertEquals(ROW_COUNT / 2, writtenCount);
+        assertEquals(ROW_COUNT, countWeatherRows());
+
+        Log.i(LOG_TAG, "Diffing " + ROW_COUNT + " rows, all unchanged: query " + unchangedQueryMillis
+                + " ms (" + ROW_COUNT * 1000L / unchangedQueryMillis + " rows/s), compiled statements "
+                + unchangedStatementMillis + " ms (" + ROW_COUNT * 1000L / unchangedStatementMillis
+                + " rows/s); half changed: query " + changedQueryMillis + " ms ("
+                + ROW_COUNT * 1000L / changedQueryMillis + " rows/s), compiled statements "
+                + changedStatementMillis + " ms (" + ROW_COUNT * 1000L / changedStatementMillis + " rows/s)");
+    }
+
+    public void testBulkInsertMatchesInsert() {
+        ContentValues[] values = createForecastValues();
+        ContentValues[] expected = new ContentValues[values.length];
+        for (int i = 0; i < values.length; i++) {
+            expected[i] = new ContentValues(values[i]);
+            expected[i].put(WeatherEntry.COLUMN_DATE,
+                    WeatherContract.normalizeDate(values[i].getAsLong(WeatherEntry.COLUMN_DATE)));
+        }
+        // A row missing a column has to be rejected the same way db.insert rejects it
+        values[3].remove(WeatherEntry.COLUMN_SHORT_DESC);
+
+        assertEquals(ROW_COUNT - 1, mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values));
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI, null, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals(ROW_COUNT - 1, cursor.getCount());
+        cursor.moveToFirst();
+        for (int i = 0; i < ROW_COUNT; i++) {
+            if (i == 3) {
+                continue;
+            }
+            validateCurrentRecord("Error validating WeatherEntry " + i, cursor, expected[i]);
+            cursor.moveToNext();
+        }
+        cursor.close();
+    }
+
+    // Like TestUtilities.validateCurrentRecord, but numbers are compared as numbers
+    private static void validateCurrentRecord(String error, Cursor cursor, ContentValues expectedValues) {
+        for (String column : expectedValues.keySet()) {
+            int idx = cursor.getColumnIndex(column);
+            assertFalse("Column '" + column + "' not found. " + error, idx == -1);
+            Object expected = expectedValues.get(column);
+            if (expected instanceof Number) {
+                assertEquals(column + ". " + error, ((Number) expected).doubleValue(), cursor.getDouble(idx), 0);
+            } else {
+                assertEquals(column + ". " + error, expected.toString(), cursor.getString(idx));
+            }
+        }
+    }
+
+    private static int upsertWithContentValues(SQLiteDatabase db, ContentValues[] values) {
+        int writtenCount = 0;
+        db.beginTransaction();
+        try {
+            for (ContentValues value : values) {
+                value.put(WeatherEntry.COLUMN_DATE,
+                        WeatherContract.normalizeDate(value.getAsLong(WeatherEntry.COLUMN_DATE)));
+                String[] projection = new String[value.size() + 1];
+                projection[0] = WeatherEntry._ID;
+                int i = 1;
+                for (String column : value.keySet()) {
+                    projection[i++] = column;
+                }
+                Cursor cursor = db.query(WeatherEntry.TABLE_NAME, projection,
+                        WeatherEntry.COLUMN_DATE + " = ? AND " + WeatherEntry.COLUMN_LOC_KEY + " = ?",
+                        new String[] {value.getAsString(WeatherEntry.COLUMN_DATE),
+                                value.getAsString(WeatherEntry.COLUMN_LOC_KEY)},
+                        null, null, null);
+                try {
+                    if (!cursor.moveToFirst()) {
+                        if (db.insert(WeatherEntry.TABLE_NAME, null, value) != -1) {
+                            writtenCount++;
+                        }
+                    } else if (!matchesCurrentRow(cursor, value)) {
+                        db.update(WeatherEntry.TABLE_NAME, value, WeatherEntry._ID + " = ?",
+                                new String[] {Long.toString(cursor.getLong(0))});
+                        writtenCount++;
+                    }
+                } finally {
+                    cursor.close();
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return writtenCount;
+    }
+
+    private static boolean matchesCurrentRow(Cursor cursor, ContentValues values) {
+        for (String column : values.keySet()) {
+            int idx = cursor.getColumnIndex(column);
+            Object value = values.get(column);
+            if (value instanceof Number) {
+                if (((Number) value).doubleValue() != cursor.getDouble(idx)) {
+                    return false;
+                }
+            } else if (!value.toString().equals(cursor.getString(idx))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private ContentValues[] createForecastValues() {
+        return createForecastValues(0);
+    }
+
+    // With the high of every other day raised by the given degrees
+    private ContentValues[] createForecastValues(int highChange) {
+        ContentValues[] values = new ContentValues[ROW_COUNT];
+        // Not normalized, so the insert has to do it
+        long date = TestUtilities.TEST_DATE + MILLISECONDS_IN_A_DAY / 3;
+        for (int i = 0; i < ROW_COUNT; i++, date += MILLISECONDS_IN_A_DAY) {
+            ContentValues weatherValues = new ContentValues();
+            weatherValues.put(WeatherEntry.COLUMN_LOC_KEY, mLocationRowId);
+            weatherValues.put(WeatherEntry.COLUMN_DATE, date);
+            weatherValues.put(WeatherEntry.COLUMN_DEGREES, 1.1 + i % 360);
+            weatherValues.put(WeatherEntry.COLUMN_HUMIDITY, 1.2 + 0.01 * (i % 100));
+            weatherValues.put(WeatherEntry.COLUMN_PRESSURE, 1013.3 - 0.01 * (i % 100));
+            weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, 75 + i % 10 + (i % 2 == 0 ? highChange : 0));
+            weatherValues.put(WeatherEntry.COLUMN_MIN_TEMP, 65 - i % 10);
+            weatherValues.put(WeatherEntry.COLUMN_SHORT_DESC, "Asteroids");
+            weatherValues.put(WeatherEntry.COLUMN_WIND_SPEED, 5.5 + 0.2 * (i % 20));
+            weatherValues.put(WeatherEntry.COLUMN_WEATHER_ID, 321);
+            values[i] = weatherValues;
+        }
+        return values;
+    }
+
+    private int countWeatherRows() {
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI, null, null, null, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.Intent;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+import java.util.Random;
+import java.util.TimeZone;
+
+public class TestDateNormalizer extends AndroidTestCase {
+    public static final String LOG_TAG = TestDateNormalizer.class.getSimpleName();
+
+    // Zones with DST at different hours, half hour shifts, DST at midnight and no DST at all
+    private static final String[] TIME_ZONES = {
+            "America/Los_Angeles",
+            "Europe/London",
+            "Australia/Lord_Howe",
+            "America/Sao_Paulo",
+            "America/Havana",
+            "Asia/Kolkata",
+            "Pacific/Chatham",
+            "UTC"
+    };
+
+    // 2014 through 2016
+    private static final long START_MILLIS = 1388534400000L;
+    private static final long END_MILLIS = 1483228800000L;
+    private static final long STEP_MILLIS = 30 * DateUtils.MINUTE_IN_MILLIS;
+
+    private static final int WARMUP_ITERATIONS = 20000;
+    private static final int BENCHMARK_ITERATIONS = 200000;
+
+    private TimeZone mDefaultTimeZone;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDefaultTimeZone = TimeZone.getDefault();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        TimeZone.setDefault(mDefaultTimeZone);
+        DateNormalizer.onTimeZoneChanged();
+        super.tearDown();
+    }
+
+    public void testMatchesTimeAcrossDstTransitions() {
+        Random random = new Random(42);
+        for (String id : TIME_ZONES) {
+            useTimeZone(id);
+            int transitions = 0;
+            int lastOffset = TimeZone.getDefault().getOffset(START_MILLIS);
+            for (long millis = START_MILLIS; millis < END_MILLIS; millis += STEP_MILLIS) {
+                // Every half hour, and somewhere random in between
+                assertSameAsTime(id, millis);
+                assertSameAsTime(id, millis + random.nextInt((int) STEP_MILLIS));
+
+                int offset = TimeZone.getDefault().getOffset(millis);
+                if (offset != lastOffset) {
+                    transitions++;
+                    lastOffset = offset;
+                    // Around the transition, minute by minute
+                    for (long around = millis - DateUtils.DAY_IN_MILLIS;
+                         around < millis + DateUtils.DAY_IN_MILLIS;
+                         around += DateUtils.MINUTE_IN_MILLIS) {
+                        assertSameAsTime(id, around);
+                    }
+                }
+            }
+            Log.d(LOG_TAG, id + ": checked " + transitions + " offset transitions");
+        }
+    }
+
+    public void testPicksUpNewTimeZone() {
+        useTimeZone("America/Los_Angeles");
+        long losAngeles = DateNormalizer.normalize(TestUtilities.TEST_DATE);
+
+        TimeZone.setDefault(TimeZone.getTimeZone("Asia/Kolkata"));
+        new TimeZoneChangedReceiver().onReceive(mContext, new Intent(Intent.ACTION_TIMEZONE_CHANGED));
+        long kolkata = DateNormalizer.normalize(TestUtilities.TEST_DATE);
+
+        assertFalse(losAngeles == kolkata);
+        assertEquals(DateNormalizer.normalizeWithTime(TestUtilities.TEST_DATE), kolkata);
+    }
+
+    public void testBenchmark() {
+        useTimeZone("America/Los_Angeles");
+        long[] dates = new long[1024];
+        Random random = new Random(7);
+        for (int i = 0; i < dates.length; i++) {
+            dates[i] = START_MILLIS + (long) (random.nextDouble() * (END_MILLIS - START_MILLIS));
+        }
+
+        // Keep the results live so the loops can't be optimized away
+        long sink = 0;
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            sink += DateNormalizer.normalize(dates[i & 1023]);
+            sink += DateNormalizer.normalizeWithTime(dates[i & 1023]);
+        }
+
+        Debug.startAllocCounting();
+        Debug.resetThreadAllocCount();
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+            sink += DateNormalizer.normalize(dates[i & 1023]);
+        }
+        long arithmeticNanos = SystemClock.elapsedRealtimeNanos() - start;
+        int arithmeticAllocations = Debug.getThreadAllocCount();
+
+        Debug.resetThreadAllocCount();
+        start = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+            sink += DateNormalizer.normalizeWithTime(dates[i & 1023]);
+        }
+        long timeNanos = SystemClock.elapsedRealtimeNanos() - start;
+        int timeAllocations = Debug.getThreadAllocCount();
+        Debug.stopAllocCounting();
+
+        Log.i(LOG_TAG, "normalize: arithmetic " + arithmeticNanos / BENCHMARK_ITERATIONS + " ns/op, "
+                + (float) arithmeticAllocations / BENCHMARK_ITERATIONS + " allocs/op; Time "
+                + timeNanos / BENCHMARK_ITERATIONS + " ns/op, "
+                + (float) timeAllocations / BENCHMARK_ITERATIONS + " allocs/op (" + sink + ")");
+    }
+
+    private static void useTimeZone(String id) {
+        TimeZone.setDefault(TimeZone.getTimeZone(id));
+        DateNormalizer.onTimeZoneChanged();
+    }
+
+    private static void assertSameAsTime(String timeZone, long millis) {
+        assertEquals("Error: Normalizing " + millis + " in " + timeZone,
+                DateNormalizer.normalizeWithTime(millis), DateNormalizer.normalize(millis));
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+    Upgrades populated databases of every old version to the current one, and checks that the
+    cached rows survive and the schema ends up the same as a freshly created one.  Version 1
+    databases, whose schema nothing records, start over instead.
+ */
+public class TestDbMigrations extends AndroidTestCase {
+
+    private static final String MIGRATED_DATABASE_NAME = "weather_migrated.db";
+    private static final String FRESH_DATABASE_NAME = "weather_fresh.db";
+
+    // The tables as version 2 created them.  Frozen: don't update these with the schema.
+    private static final String SQL_CREATE_LOCATION_TABLE_V2 = "CREATE TABLE location (" +
+            "_id INTEGER PRIMARY KEY," +
+            "location_setting TEXT UNIQUE NOT NULL, " +
+            "city_name TEXT NOT NULL, " +
+            "coord_lat REAL NOT NULL, " +
+            "coord_long REAL NOT NULL );";
+    private static final String SQL_CREATE_WEATHER_TABLE_V2 = "CREATE TABLE weather (" +
+            "_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+            "location_id INTEGER NOT NULL, " +
+            "date INTEGER NOT NULL, " +
+            "short_desc TEXT NOT NULL, " +
+            "weather_id INTEGER NOT NULL," +
+            "min REAL NOT NULL, " +
+            "max REAL NOT NULL, " +
+            "humidity REAL NOT NULL, " +
+            "pressure REAL NOT NULL, " +
+            "wind REAL NOT NULL, " +
+            "degrees REAL NOT NULL, " +
+            " FOREIGN KEY (location_id) REFERENCES location (_id), " +
+            " UNIQUE (date, location_id) ON CONFLICT REPLACE);";
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteTestDatabases();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteTestDatabases();
+        super.tearDown();
+    }
+
+    /*
+        Nothing records the version 1 schema, so there is no step from it: whatever tables a
+        version 1 database has are dropped and created again.  The version 2 tables stand in for
+        them here.
+     */
+    public void testUpgradeFromVersion1StartsOver() {
+        SQLiteDatabase db = mContext.openOrCreateDatabase(MIGRATED_DATABASE_NAME,
+                Context.MODE_PRIVATE, null);
+        db.execSQL(SQL_CREATE_LOCATION_TABLE_V2);
+        db.execSQL(SQL_CREATE_WEATHER_TABLE_V2);
+        insertForecast(db);
+        db.setVersion(1);
+        db.close();
+
+        WeatherDbHelper helper = new WeatherDbHelper(mContext, MIGRATED_DATABASE_NAME);
+        db = helper.getReadableDatabase();
+
+        assertEquals("Error: A version 1 location survived the upgrade",
+                0, count(db, WeatherContract.LocationEntry.TABLE_NAME));
+        assertEquals("Error: A version 1 forecast survived the upgrade",
+                0, count(db, WeatherContract.WeatherEntry.TABLE_NAME));
+
+        verifySchema(helper, 1);
+    }
+
+    public void testUpgradeFromVersion2() {
+        SQLiteDatabase db = mContext.openOrCreateDatabase(MIGRATED_DATABASE_NAME,
+                Context.MODE_PRIVATE, null);
+        db.execSQL(SQL_CREATE_LOCATION_TABLE_V2);
+        db.execSQL(SQL_CREATE_WEATHER_TABLE_V2);
+        ContentValues[] values = insertForecast(db);
+        db.setVersion(2);
+        db.close();
+
+        WeatherDbHelper helper = new WeatherDbHelper(mContext, MIGRATED_DATABASE_NAME);
+        db = helper.getReadableDatabase();
+
+        Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME, null, null, null, null, null, null);
+        TestUtilities.validateCursor("Error: The location didn't survive the upgrade from version 2",
+                cursor, values[0]);
+        cursor = db.query(WeatherContract.WeatherEntry.TABLE_NAME, null, null, null, null, null, null);
+        TestUtilities.validateCursor("Error: The forecast didn't survive the upgrade from version 2",
+                cursor, values[1]);
+
+        verifySchema(helper, 2);
+    }
+
+    // Returns the location and weather values it inserted
+    private static ContentValues[] insertForecast(SQLiteDatabase db) {
+        ContentValues locationValues = TestUtilities.createNorthPoleLocationValues();
+        long locationRowId = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, locationValues);
+        assertTrue(locationRowId != -1);
+        ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
+        long weatherRowId = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, weatherValues);
+        assertTrue(weatherRowId != -1);
+        return new ContentValues[]{locationValues, weatherValues};
+    }
+
+    private static int count(SQLiteDatabase db, String table) {
+        Cursor cursor = db.query(table, null, null, null, null, null, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    // Closes the helper of the upgraded database
+    private void verifySchema(WeatherDbHelper helper, int fromVersion) {
+        SQLiteDatabase db = helper.getReadableDatabase();
+        Map<String, String> migratedSchema = readSchema(db);
+        int migratedVersion = db.getVersion();
+        helper.close();
+
+        helper = new WeatherDbHelper(mContext, FRESH_DATABASE_NAME);
+        Map<String, String> freshSchema = readSchema(helper.getReadableDatabase());
+        int headVersion = helper.getReadableDatabase().getVersion();
+        helper.close();
+
+        assertEquals(headVersion, migratedVersion);
+        assertEquals("Error: The upgrade from version " + fromVersion
+                + " doesn't end with the schema onCreate makes", freshSchema, migratedSchema);
+    }
+
+    // Every table and index by name, with the SQL that created it
+    private static Map<String, String> readSchema(SQLiteDatabase db) {
+        Map<String, String> schema = new HashMap<String, String>();
+        Cursor cursor = db.rawQuery("SELECT name, sql FROM sqlite_master WHERE type IN ('table', 'index')"
+                + " AND name NOT LIKE 'sqlite_%' AND name != 'android_metadata'", null);
+        while (cursor.moveToNext()) {
+            // Tables created by older versions don't have to match the whitespace of onCreate
+            String sql = cursor.isNull(1) ? "" : cursor.getString(1).replaceAll("\\s+", "");
+            schema.put(cursor.getString(0), sql);
+        }
+        cursor.close();
+        return schema;
+    }
+
+    private void deleteTestDatabases() {
+        mContext.deleteDatabase(MIGRATED_DATABASE_NAME);
+        mContext.deleteDatabase(FRESH_DATABASE_NAME);
+    }
+}
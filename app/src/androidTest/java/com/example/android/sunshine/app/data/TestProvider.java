@@ -24,12 +24,15 @@ import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
 import android.os.Build;
+import android.os.SystemClock;
 import android.test.AndroidTestCase;
 import android.util.Log;
 
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
+import java.util.Arrays;
+
 /*
     Note: This is not a complete set of tests of the Sunshine ContentProvider, but it does test
     that at least the basic functionality has been implemented correctly.
@@ -512,4 +515,73 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
+
+    public void testDiffBulkInsert() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+        assertTrue(locationRowId != -1);
+
+        // New rows are all written, and observers hear about it
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+        int writtenCount = mContext.getContentResolver().bulkInsert(WeatherEntry.buildWeatherDiffUri(),
+                createBulkInsertWeatherValues(locationRowId));
+        weatherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, writtenCount);
+        long[] rowIds = queryWeatherRowIds();
+
+        // The same rows again are skipped, without a notification
+        weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+        writtenCount = mContext.getContentResolver().bulkInsert(WeatherEntry.buildWeatherDiffUri(),
+                createBulkInsertWeatherValues(locationRowId));
+        SystemClock.sleep(1000);
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+        weatherObserver.mHT.quit();
+        assertEquals("Error: Unchanged rows should not be written", 0, writtenCount);
+        assertFalse("Error: Unchanged rows should not notify observers", weatherObserver.mContentChanged);
+
+        // Only the changed rows are written, in place
+        ContentValues[] changedValues = createBulkInsertWeatherValues(locationRowId);
+        changedValues[2].put(WeatherEntry.COLUMN_MAX_TEMP, 99);
+        changedValues[7].put(WeatherEntry.COLUMN_SHORT_DESC, "Meteors");
+        writtenCount = mContext.getContentResolver().bulkInsert(WeatherEntry.buildWeatherDiffUri(),
+                changedValues);
+        assertEquals(2, writtenCount);
+        assertTrue("Error: Updated rows should keep their _id",
+                Arrays.equals(rowIds, queryWeatherRowIds()));
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI,
+                null,
+                null,
+                null,
+                WeatherEntry.COLUMN_DATE + " ASC"
+        );
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.moveToFirst();
+        for ( int i = 0; i < BULK_INSERT_RECORDS_TO_INSERT; i++, cursor.moveToNext() ) {
+            TestUtilities.validateCurrentRecord("testDiffBulkInsert.  Error validating WeatherEntry " + i,
+                    cursor, changedValues[i]);
+        }
+        cursor.close();
+    }
+
+    private long[] queryWeatherRowIds() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry._ID},
+                null,
+                null,
+                WeatherEntry.COLUMN_DATE + " ASC"
+        );
+        long[] rowIds = new long[cursor.getCount()];
+        for (int i = 0; cursor.moveToNext(); i++) {
+            rowIds[i] = cursor.getLong(0);
+        }
+        cursor.close();
+        return rowIds;
+    }
 }
@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Runs EXPLAIN QUERY PLAN on the SQL behind every uri WeatherProvider.query answers, with the
+    projections the app actually asks for, and fails if any of them scans a whole table.
+ */
+public class TestQueryPlans extends AndroidTestCase {
+
+    // ForecastFragment
+    private static final String[] FORECAST_COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            LocationEntry.COLUMN_COORD_LAT,
+            LocationEntry.COLUMN_COORD_LONG
+    };
+
+    // DetailFragment
+    private static final String[] DETAIL_COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            LocationEntry.COLUMN_LOCATION_SETTING
+    };
+
+    // DetailWidgetRemoteViewsService
+    private static final String[] DETAIL_WIDGET_COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP
+    };
+
+    // TodayWidgetIntentService and the notification in SunshineSyncAdapter
+    private static final String[] TODAY_COLUMNS = {
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP
+    };
+
+    // WeatherMuzeiSource
+    private static final String[] MUZEI_COLUMNS = {
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC
+    };
+
+    private static final String DATE_ORDER = WeatherEntry.COLUMN_DATE + " ASC";
+
+    private SQLiteDatabase mDb;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDb = new WeatherDbHelper(mContext).getReadableDatabase();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.close();
+        super.tearDown();
+    }
+
+    public void testForecastListUsesCoveringIndex() {
+        Uri uri = WeatherEntry.buildWeatherLocationWithStartDate(TestUtilities.TEST_LOCATION,
+                TestUtilities.TEST_DATE);
+        for (String[] projection : new String[][] {FORECAST_COLUMNS, DETAIL_WIDGET_COLUMNS,
+                TODAY_COLUMNS, MUZEI_COLUMNS}) {
+            List<String> plan = explain(uri, projection, null, DATE_ORDER);
+            assertNoTableScan(plan);
+            assertUsesIndex(plan, "COVERING INDEX " + WeatherEntry.INDEX_LOCATION_DATE);
+            assertNoSort(plan);
+        }
+    }
+
+    public void testForecastWithoutStartDate() {
+        Uri uri = WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION);
+        List<String> plan = explain(uri, FORECAST_COLUMNS, null, DATE_ORDER);
+        assertNoTableScan(plan);
+        assertUsesIndex(plan, "COVERING INDEX " + WeatherEntry.INDEX_LOCATION_DATE);
+        assertNoSort(plan);
+    }
+
+    public void testSingleDay() {
+        Uri uri = WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION,
+                TestUtilities.TEST_DATE);
+        // Either the unique (date, location_id) index or the covering one finds the row
+        for (String[] projection : new String[][] {DETAIL_COLUMNS, TODAY_COLUMNS}) {
+            List<String> plan = explain(uri, projection, null, null);
+            assertNoTableScan(plan);
+            assertUsesIndex(plan, "INDEX");
+        }
+    }
+
+    public void testWeatherAndLocationTables() {
+        // The rows of the day, as ForecastSyncEngine checks them
+        assertNoTableScan(explain(WeatherEntry.CONTENT_URI, new String[] {WeatherEntry.COLUMN_LOC_KEY},
+                WeatherEntry.COLUMN_DATE + " = ?", null));
+        // The stored row of a day and location, as the diff bulkInsert looks it up
+        assertNoTableScan(explain(WeatherEntry.CONTENT_URI, null,
+                WeatherEntry.COLUMN_DATE + " = ? AND " + WeatherEntry.COLUMN_LOC_KEY + " = ?", null));
+        // The lookup of a location before the sync adds it
+        assertNoTableScan(explain(LocationEntry.CONTENT_URI, new String[] {LocationEntry._ID},
+                LocationEntry.COLUMN_LOCATION_SETTING + " = ?", null));
+    }
+
+    private List<String> explain(Uri uri, String[] projection, String selection, String sortOrder) {
+        String sql = WeatherProvider.buildQuery(uri, projection, selection, sortOrder);
+        // Unbound parameters are NULL, which doesn't change the plan
+        Cursor cursor = mDb.rawQuery("EXPLAIN QUERY PLAN " + sql, null);
+        List<String> plan = new ArrayList<String>();
+        int detailIndex = cursor.getColumnIndex("detail");
+        while (cursor.moveToNext()) {
+            plan.add(cursor.getString(detailIndex));
+        }
+        cursor.close();
+        assertFalse("Error: No query plan for " + sql, plan.isEmpty());
+        return plan;
+    }
+
+    private static void assertNoTableScan(List<String> plan) {
+        for (String step : plan) {
+            // A SCAN reads every row, even "SCAN TABLE weather USING COVERING INDEX"; only a
+            // SEARCH narrows them down through the index
+            assertFalse("Error: Full table scan in " + plan, step.startsWith("SCAN")
+                    && (step.contains(WeatherEntry.TABLE_NAME) || step.contains(LocationEntry.TABLE_NAME)));
+        }
+    }
+
+    private static void assertUsesIndex(List<String> plan, String index) {
+        for (String step : plan) {
+            if (step.contains(WeatherEntry.TABLE_NAME) && step.contains(index)) {
+                return;
+            }
+        }
+        fail("Error: The weather table isn't read through " + index + " in " + plan);
+    }
+
+    private static void assertNoSort(List<String> plan) {
+        for (String step : plan) {
+            assertFalse("Error: The rows are sorted after the fact in " + plan,
+                    step.contains("TEMP B-TREE"));
+        }
+    }
+}
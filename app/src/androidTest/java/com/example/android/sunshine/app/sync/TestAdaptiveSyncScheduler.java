@@ -0,0 +1,285 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.wear.WeatherPayload;
+
+import java.util.Arrays;
+import java.util.List;
+
+/*
+    Replays synthetic forecast histories against the scheduler on a simulated clock, the way
+    SunshineSyncAdapter feeds it, and counts the syncs against the fixed period it replaces.
+ */
+public class TestAdaptiveSyncScheduler extends AndroidTestCase {
+    private static final String LOG_TAG = TestAdaptiveSyncScheduler.class.getSimpleName();
+
+    private static final String TEST_PREFS = "test_sync_schedule";
+    private static final String TEST_LOCATION = "94043";
+    private static final long HOUR = 60 * 60;
+    private static final long DAY = 24 * HOUR;
+    private static final int SIMULATED_DAYS = 7;
+    private static final int FORECAST_DAYS = 14;
+    // What the fixed period syncs in a day
+    private static final int BASELINE_CALLS_PER_DAY =
+            (int) (DAY / AdaptiveSyncScheduler.BASE_INTERVAL_SECONDS);
+
+    private SharedPreferences mPrefs;
+
+    /**
+     * What the server answers at a time of the simulation.
+     */
+    private interface History {
+        boolean isServerDown(long seconds);
+
+        WeatherPayload getForecast(long seconds);
+    }
+
+    private static final class Run {
+        final int[] callsPerDay = new int[SIMULATED_DAYS];
+        int minIntervalSeconds = Integer.MAX_VALUE;
+        int maxIntervalSeconds;
+
+        int getCalls() {
+            int calls = 0;
+            for (int dayCalls : callsPerDay) {
+                calls += dayCalls;
+            }
+            return calls;
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = mContext.getSharedPreferences(TEST_PREFS, Context.MODE_PRIVATE);
+        mPrefs.edit().clear().commit();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mPrefs.edit().clear().commit();
+        super.tearDown();
+    }
+
+    public void testSteadyForecastSavesCalls() {
+        Run run = simulate(new History() {
+            @Override
+            public boolean isServerDown(long seconds) {
+                return false;
+            }
+
+            @Override
+            public WeatherPayload getForecast(long seconds) {
+                return createForecast(seconds, 800, 20);
+            }
+        });
+
+        logSaved("steady", run);
+        assertTrue("Error: " + run.getCalls() + " syncs for a forecast that never changes",
+                run.getCalls() <= BASELINE_CALLS_PER_DAY * SIMULATED_DAYS / 2);
+        assertEquals(AdaptiveSyncScheduler.MAX_INTERVAL_SECONDS, run.maxIntervalSeconds);
+    }
+
+    public void testMovingForecastSyncsMoreOften() {
+        Run run = simulate(new History() {
+            @Override
+            public boolean isServerDown(long seconds) {
+                return false;
+            }
+
+            @Override
+            public WeatherPayload getForecast(long seconds) {
+                if (seconds < 2 * DAY || seconds >= 3 * DAY) {
+                    return createForecast(seconds, 800, 20);
+                }
+                // On the third day the next days flip between sun and rain every two hours
+                boolean rain = (seconds / (2 * HOUR)) % 2 == 1;
+                return createForecast(seconds, rain ? 500 : 800, rain ? 16 : 20);
+            }
+        });
+
+        logSaved("moving", run);
+        assertEquals(AdaptiveSyncScheduler.MIN_INTERVAL_SECONDS, run.minIntervalSeconds);
+        assertTrue("Error: Only " + run.callsPerDay[2] + " syncs on the day the weather moved",
+                run.callsPerDay[2] > BASELINE_CALLS_PER_DAY);
+        // Calm again, the period grows back
+        assertTrue("Error: " + run.callsPerDay[SIMULATED_DAYS - 1] + " syncs on a calm day",
+                run.callsPerDay[SIMULATED_DAYS - 1] < BASELINE_CALLS_PER_DAY);
+        assertTrue(run.getCalls() < BASELINE_CALLS_PER_DAY * SIMULATED_DAYS);
+    }
+
+    public void testServerDownBacksOff() {
+        Run run = simulate(new History() {
+            @Override
+            public boolean isServerDown(long seconds) {
+                return seconds >= DAY && seconds < 4 * DAY;
+            }
+
+            @Override
+            public WeatherPayload getForecast(long seconds) {
+                return createForecast(seconds, 800, 20);
+            }
+        });
+
+        logSaved("outage", run);
+        int outageCalls = run.callsPerDay[1] + run.callsPerDay[2] + run.callsPerDay[3];
+        assertTrue("Error: " + outageCalls + " syncs while the server was down",
+                outageCalls <= 4);
+        assertEquals(AdaptiveSyncScheduler.MAX_BACKOFF_SECONDS, run.maxIntervalSeconds);
+
+        List<AdaptiveSyncScheduler.Decision> decisions =
+                new AdaptiveSyncScheduler(mPrefs).getDecisions();
+        AdaptiveSyncScheduler.Decision previous = null;
+        for (AdaptiveSyncScheduler.Decision decision : decisions) {
+            if (previous != null && decision.reason.startsWith("server down")) {
+                assertTrue("Error: The period didn't grow with the failures: " + decisions,
+                        decision.intervalSeconds > previous.intervalSeconds
+                                || decision.intervalSeconds == AdaptiveSyncScheduler.MAX_BACKOFF_SECONDS);
+            } else if (previous != null && previous.reason.startsWith("server down")) {
+                // The first answer after the outage ends the back-off
+                assertTrue(decision.intervalSeconds <= AdaptiveSyncScheduler.MAX_INTERVAL_SECONDS);
+            }
+            previous = decision;
+        }
+    }
+
+    public void testNewLocationStartsOver() {
+        AdaptiveSyncScheduler scheduler = new AdaptiveSyncScheduler(mPrefs);
+        WeatherPayload forecast = createForecast(0, 800, 20);
+        scheduler.onSyncFinished(0, TEST_LOCATION, SunshineSyncAdapter.LOCATION_STATUS_OK, forecast);
+        for (int i = 0; i < 10; i++) {
+            scheduler.onSyncFinished(0, TEST_LOCATION, SunshineSyncAdapter.LOCATION_STATUS_OK, null);
+        }
+        assertEquals(AdaptiveSyncScheduler.MAX_INTERVAL_SECONDS, scheduler.getScheduledInterval());
+
+        AdaptiveSyncScheduler.Decision decision = scheduler.onSyncFinished(0, "London, UK",
+                SunshineSyncAdapter.LOCATION_STATUS_OK, createForecast(0, 500, 10));
+        assertEquals(AdaptiveSyncScheduler.BASE_INTERVAL_SECONDS, decision.intervalSeconds);
+    }
+
+    public void testResetStartsOver() {
+        AdaptiveSyncScheduler scheduler = new AdaptiveSyncScheduler(mPrefs);
+        for (int i = 0; i < 3; i++) {
+            scheduler.onSyncFinished(i, TEST_LOCATION, SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN, null);
+        }
+        assertTrue(scheduler.getScheduledInterval() > AdaptiveSyncScheduler.BASE_INTERVAL_SECONDS);
+
+        scheduler.reset();
+        assertEquals(AdaptiveSyncScheduler.BASE_INTERVAL_SECONDS, scheduler.getScheduledInterval());
+        assertEquals(0, scheduler.getDecisions().size());
+
+        // Not even a back-off survives in the preferences
+        AdaptiveSyncScheduler reloaded = new AdaptiveSyncScheduler(mPrefs);
+        assertEquals(AdaptiveSyncScheduler.BASE_INTERVAL_SECONDS, reloaded.getScheduledInterval());
+        AdaptiveSyncScheduler.Decision decision = reloaded.onSyncFinished(3, TEST_LOCATION,
+                SunshineSyncAdapter.LOCATION_STATUS_OK, createForecast(0, 800, 20));
+        assertEquals("new location", decision.reason);
+        assertEquals(AdaptiveSyncScheduler.BASE_INTERVAL_SECONDS, decision.intervalSeconds);
+    }
+
+    public void testCountMovingDays() {
+        WeatherPayload previous = createForecast(0, 800, 20);
+        // The next day, same weather
+        assertEquals(0, AdaptiveSyncScheduler.countMovingDays(previous, createForecast(DAY, 800, 20)));
+        assertEquals(0, AdaptiveSyncScheduler.countMovingDays(previous,
+                createForecast(0, 800, 20 + AdaptiveSyncScheduler.TEMPERATURE_STEP - 1)));
+        assertEquals(AdaptiveSyncScheduler.WATCHED_DAYS, AdaptiveSyncScheduler.countMovingDays(
+                previous, createForecast(0, 800, 20 + AdaptiveSyncScheduler.TEMPERATURE_STEP)));
+        assertEquals(AdaptiveSyncScheduler.WATCHED_DAYS,
+                AdaptiveSyncScheduler.countMovingDays(previous, createForecast(0, 500, 20)));
+
+        // A change at the far end of the forecast doesn't count
+        int[] weatherIds = new int[FORECAST_DAYS];
+        int[] highs = new int[FORECAST_DAYS];
+        int[] lows = new int[FORECAST_DAYS];
+        Arrays.fill(weatherIds, 800);
+        Arrays.fill(highs, 20);
+        Arrays.fill(lows, 10);
+        weatherIds[FORECAST_DAYS - 1] = 500;
+        assertEquals(0, AdaptiveSyncScheduler.countMovingDays(previous,
+                new WeatherPayload(0, weatherIds, highs, lows)));
+    }
+
+    public void testDecisionLogIsKeptAndBounded() {
+        for (int i = 0; i < AdaptiveSyncScheduler.MAX_DECISIONS + 5; i++) {
+            new AdaptiveSyncScheduler(mPrefs).onSyncFinished(i, TEST_LOCATION,
+                    SunshineSyncAdapter.LOCATION_STATUS_OK, null);
+        }
+
+        List<AdaptiveSyncScheduler.Decision> decisions =
+                new AdaptiveSyncScheduler(mPrefs).getDecisions();
+        assertEquals(AdaptiveSyncScheduler.MAX_DECISIONS, decisions.size());
+        assertEquals(5, decisions.get(0).time);
+        assertEquals(AdaptiveSyncScheduler.MAX_DECISIONS + 4,
+                decisions.get(decisions.size() - 1).time);
+    }
+
+    /**
+     * Syncs whenever the scheduler says so, with a new scheduler every time as the sync adapter
+     * does.  The server sends the stored forecast again as long as it didn't change.
+     */
+    private Run simulate(History history) {
+        Run run = new Run();
+        WeatherPayload stored = null;
+        long seconds = 0;
+        while (seconds < SIMULATED_DAYS * DAY) {
+            run.callsPerDay[(int) (seconds / DAY)]++;
+            int status;
+            WeatherPayload written = null;
+            if (history.isServerDown(seconds)) {
+                status = SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+            } else {
+                status = SunshineSyncAdapter.LOCATION_STATUS_OK;
+                WeatherPayload forecast = history.getForecast(seconds);
+                if (!forecast.equals(stored)) {
+                    written = forecast;
+                    stored = forecast;
+                }
+            }
+            AdaptiveSyncScheduler.Decision decision = new AdaptiveSyncScheduler(mPrefs)
+                    .onSyncFinished(seconds * 1000, TEST_LOCATION, status, written);
+            run.minIntervalSeconds = Math.min(run.minIntervalSeconds, decision.intervalSeconds);
+            run.maxIntervalSeconds = Math.max(run.maxIntervalSeconds, decision.intervalSeconds);
+            seconds += decision.intervalSeconds;
+        }
+        return run;
+    }
+
+    private static void logSaved(String history, Run run) {
+        int baseline = BASELINE_CALLS_PER_DAY * SIMULATED_DAYS;
+        Log.d(LOG_TAG, history + ": " + run.getCalls() + " syncs instead of " + baseline + ", "
+                + (baseline - run.getCalls()) + " saved, per day " + Arrays.toString(run.callsPerDay));
+    }
+
+    /**
+     * @return the forecast from the day of the given time on, with the same weather every day.
+     */
+    private static WeatherPayload createForecast(long seconds, int weatherId, int high) {
+        int[] weatherIds = new int[FORECAST_DAYS];
+        int[] highs = new int[FORECAST_DAYS];
+        int[] lows = new int[FORECAST_DAYS];
+        Arrays.fill(weatherIds, weatherId);
+        Arrays.fill(highs, high);
+        Arrays.fill(lows, high - 10);
+        return new WeatherPayload((int) (seconds / DAY), weatherIds, highs, lows);
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.utils.StubHttpServer;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    Runs the forecast download against a server that stalls, resets connections and answers
+    with bursts of 5xx, and checks that it gives up in time, retries what may succeed and stops
+    calling an endpoint that keeps failing.
+ */
+public class TestFetchFaults extends AndroidTestCase {
+
+    private static final String TEST_LOCATION = "94043";
+    private static final String TEST_PATH = "/data/2.5/forecast/daily?";
+    private static final int TIMEOUT_MILLIS = 500;
+    private static final long STALL_MILLIS = 10000;
+    // Short waits between retries, so the tests don't sleep for seconds
+    private static final long BACKOFF_MILLIS = 20;
+
+    private ForecastValidatorCache mValidatorCache;
+    private StubHttpServer mServer;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mValidatorCache = new ForecastValidatorCache(mContext);
+        mValidatorCache.clear();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (mServer != null) {
+            mServer.shutdown();
+        }
+        mValidatorCache.clear();
+        super.tearDown();
+    }
+
+    public void testStallTimesOut() throws Throwable {
+        startServer(StubHttpServer.Response.stall(STALL_MILLIS));
+        ForecastFetcher fetcher = createFetcher(1, new CircuitBreaker(
+                CircuitBreaker.FAILURE_THRESHOLD, CircuitBreaker.OPEN_MILLIS));
+
+        long start = SystemClock.elapsedRealtime();
+        try {
+            fetch(fetcher);
+            fail("Error: A stalled server answered");
+        } catch (SocketTimeoutException e) {
+            // expected
+        }
+        long elapsed = SystemClock.elapsedRealtime() - start;
+        assertTrue("Error: Waited " + elapsed + " ms for a stalled server", elapsed < STALL_MILLIS / 2);
+    }
+
+    public void testRetriesThroughResetsAndServerErrors() throws Throwable {
+        startServer(StubHttpServer.Response.reset(),
+                new StubHttpServer.Response(HttpURLConnection.HTTP_UNAVAILABLE, "Busy"),
+                new StubHttpServer.Response(HttpURLConnection.HTTP_BAD_GATEWAY, "Busy"),
+                forecast());
+        ForecastFetcher fetcher = createFetcher(4, new CircuitBreaker(
+                CircuitBreaker.FAILURE_THRESHOLD, CircuitBreaker.OPEN_MILLIS));
+
+        assertEquals(ForecastFetcher.STATUS_OK, fetch(fetcher).getStatus());
+        assertEquals(4, mServer.getRequestCount());
+    }
+
+    public void testGivesUpAfterMaxAttempts() throws Throwable {
+        startServer(new StubHttpServer.Response(HttpURLConnection.HTTP_UNAVAILABLE, "Busy"));
+        ForecastFetcher fetcher = createFetcher(3, new CircuitBreaker(
+                CircuitBreaker.FAILURE_THRESHOLD, CircuitBreaker.OPEN_MILLIS));
+
+        try {
+            fetch(fetcher);
+            fail("Error: The server never answered with a forecast");
+        } catch (ForecastFetcher.HttpStatusException e) {
+            assertEquals(HttpURLConnection.HTTP_UNAVAILABLE, e.code);
+        }
+        assertEquals(3, mServer.getRequestCount());
+    }
+
+    public void testClientErrorIsNotRetried() throws Throwable {
+        startServer(new StubHttpServer.Response(HttpURLConnection.HTTP_UNAUTHORIZED, "Bad key"));
+        CircuitBreaker breaker = new CircuitBreaker(1, CircuitBreaker.OPEN_MILLIS);
+        ForecastFetcher fetcher = createFetcher(3, breaker);
+
+        try {
+            fetch(fetcher);
+            fail("Error: The request was refused");
+        } catch (ForecastFetcher.HttpStatusException e) {
+            assertFalse(e.isTransient());
+        }
+        assertEquals(1, mServer.getRequestCount());
+        // The server answered, it isn't down
+        assertEquals(CircuitBreaker.STATE_CLOSED, breaker.getState());
+    }
+
+    public void testCircuitBreakerStopsCalls() throws Throwable {
+        final AtomicInteger healthy = new AtomicInteger();
+        mServer = new StubHttpServer(new StubHttpServer.Dispatcher() {
+            @Override
+            public StubHttpServer.Response dispatch(StubHttpServer.Request request) {
+                return healthy.get() != 0 ? forecast()
+                        : new StubHttpServer.Response(HttpURLConnection.HTTP_INTERNAL_ERROR, "Down");
+            }
+        });
+        long openMillis = 500;
+        CircuitBreaker breaker = new CircuitBreaker(3, openMillis);
+        ForecastFetcher fetcher = createFetcher(1, breaker);
+
+        int refused = 0;
+        for (int i = 0; i < 10; i++) {
+            try {
+                fetch(fetcher);
+                fail("Error: The server is down");
+            } catch (CircuitBreaker.OpenException e) {
+                refused++;
+            } catch (ForecastFetcher.HttpStatusException e) {
+                // reached the server
+            }
+        }
+        assertEquals("Error: The breaker should open after 3 failures", 3, mServer.getRequestCount());
+        assertEquals(7, refused);
+        assertEquals(CircuitBreaker.STATE_OPEN, breaker.getState());
+
+        // Once the breaker lets a request through again, the server is back
+        healthy.set(1);
+        SystemClock.sleep(openMillis + 100);
+        assertEquals(ForecastFetcher.STATUS_OK, fetch(fetcher).getStatus());
+        assertEquals(CircuitBreaker.STATE_CLOSED, breaker.getState());
+    }
+
+    public void testHalfOpenFailureOpensAgain() throws Throwable {
+        startServer(new StubHttpServer.Response(HttpURLConnection.HTTP_UNAVAILABLE, "Busy"));
+        long openMillis = 300;
+        CircuitBreaker breaker = new CircuitBreaker(1, openMillis);
+        ForecastFetcher fetcher = createFetcher(1, breaker);
+
+        fetchAndFail(fetcher);
+        SystemClock.sleep(openMillis + 100);
+        // The one trial request fails as well
+        fetchAndFail(fetcher);
+        assertEquals(CircuitBreaker.STATE_OPEN, breaker.getState());
+        assertEquals(2, mServer.getRequestCount());
+        assertFalse(breaker.allowRequest());
+    }
+
+    public void testBackoffIsJitteredAndBounded() {
+        long base = 100;
+        long max = 1000;
+        FetchPolicy policy = new FetchPolicy(TIMEOUT_MILLIS, TIMEOUT_MILLIS, 10, base, max,
+                new Random(42));
+        for (int retry = 1; retry < 10; retry++) {
+            long bound = Math.min(max, base << (retry - 1));
+            long[] backoffs = new long[20];
+            for (int i = 0; i < backoffs.length; i++) {
+                backoffs[i] = policy.getBackoffMillis(retry);
+                assertTrue("Error: Waited " + backoffs[i] + " ms, more than " + bound,
+                        backoffs[i] >= 0 && backoffs[i] <= bound);
+            }
+            Arrays.sort(backoffs);
+            assertTrue("Error: The waits aren't jittered", backoffs[0] != backoffs[backoffs.length - 1]);
+        }
+    }
+
+    /**
+     * Starts a server that serves the given answers in turn, and keeps serving the last one.
+     */
+    private void startServer(StubHttpServer.Response... responses) throws IOException {
+        final List<StubHttpServer.Response> script = Arrays.asList(responses);
+        final AtomicInteger next = new AtomicInteger();
+        mServer = new StubHttpServer(new StubHttpServer.Dispatcher() {
+            @Override
+            public StubHttpServer.Response dispatch(StubHttpServer.Request request) {
+                return script.get(Math.min(next.getAndIncrement(), script.size() - 1));
+            }
+        });
+    }
+
+    private ForecastFetcher createFetcher(int maxAttempts, CircuitBreaker breaker) {
+        FetchPolicy policy = new FetchPolicy(TIMEOUT_MILLIS, TIMEOUT_MILLIS, maxAttempts,
+                BACKOFF_MILLIS, BACKOFF_MILLIS * 4, new Random(7));
+        return new ForecastFetcher(mServer.getUrl(TEST_PATH), mValidatorCache, null, policy, breaker);
+    }
+
+    private ForecastFetcher.Result fetch(ForecastFetcher fetcher) throws Exception {
+        return fetcher.fetch(TEST_LOCATION, TestForecastJsonParser.TEST_JULIAN_START_DAY, false);
+    }
+
+    private void fetchAndFail(ForecastFetcher fetcher) throws Exception {
+        try {
+            fetch(fetcher);
+            fail("Error: The server is down");
+        } catch (ForecastFetcher.HttpStatusException e) {
+            // expected
+        }
+    }
+
+    private static StubHttpServer.Response forecast() {
+        return new StubHttpServer.Response(HttpURLConnection.HTTP_OK,
+                TestForecastJsonParser.TEST_FORECAST_JSON);
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.utils.StubHttpServer;
+
+import java.net.HttpURLConnection;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    Runs whole syncs through ForecastSyncEngine against a stub server, and counts the bodies the
+    server sent, the rows the provider wrote and the notifications weather observers got.
+ */
+public class TestForecastFetcher extends AndroidTestCase {
+
+    private static final String TEST_LOCATION = "94043";
+    private static final String TEST_PATH = "/data/2.5/forecast/daily?";
+    private static final String TEST_ETAG = "\"c0ffee\"";
+    private static final int SYNC_COUNT = 5;
+
+    private ForecastValidatorCache mValidatorCache;
+    private StubHttpServer mServer;
+    // Forecasts the server sent in full, each of which the sync has to parse
+    private final AtomicInteger mBodies = new AtomicInteger();
+    // Syncs that wrote at least one row
+    private int mWrites;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        mValidatorCache = new ForecastValidatorCache(mContext);
+        mValidatorCache.clear();
+        mBodies.set(0);
+        mWrites = 0;
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (mServer != null) {
+            mServer.shutdown();
+        }
+        mValidatorCache.clear();
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    public void testNotModifiedSkipsParseAndWrite() throws Throwable {
+        mServer = new StubHttpServer(new StubHttpServer.Dispatcher() {
+            @Override
+            public StubHttpServer.Response dispatch(StubHttpServer.Request request) {
+                if (TEST_ETAG.equals(request.getHeader("If-None-Match"))) {
+                    return new StubHttpServer.Response(HttpURLConnection.HTTP_NOT_MODIFIED, (String) null);
+                }
+                mBodies.incrementAndGet();
+                return new StubHttpServer.Response(HttpURLConnection.HTTP_OK,
+                        TestForecastJsonParser.TEST_FORECAST_JSON)
+                        .setHeader("ETag", TEST_ETAG);
+            }
+        });
+
+        TestForecastSyncEngine.NotificationCounter notifications =
+                TestForecastSyncEngine.NotificationCounter.register(mContext);
+        for (int i = 0; i < SYNC_COUNT; i++) {
+            sync();
+        }
+        assertEquals(SYNC_COUNT, mServer.getRequestCount());
+        assertEquals("Error: Only the first sync should download the forecast", 1, mBodies.get());
+        assertEquals("Error: Avoided writes", SYNC_COUNT - 1, SYNC_COUNT - mWrites);
+        assertEquals("Error: Avoided notifications", SYNC_COUNT - 1, SYNC_COUNT - notifications.unregister());
+    }
+
+    public void testSamePayloadSkipsWrite() throws Throwable {
+        // This server ignores the validators altogether
+        mServer = new StubHttpServer(new StubHttpServer.Dispatcher() {
+            @Override
+            public StubHttpServer.Response dispatch(StubHttpServer.Request request) {
+                mBodies.incrementAndGet();
+                return new StubHttpServer.Response(HttpURLConnection.HTTP_OK,
+                        TestForecastJsonParser.TEST_FORECAST_JSON);
+            }
+        });
+
+        TestForecastSyncEngine.NotificationCounter notifications =
+                TestForecastSyncEngine.NotificationCounter.register(mContext);
+        for (int i = 0; i < SYNC_COUNT; i++) {
+            sync();
+        }
+        assertEquals(SYNC_COUNT, mBodies.get());
+        assertEquals("Error: Avoided writes", SYNC_COUNT - 1, SYNC_COUNT - mWrites);
+        assertEquals("Error: Avoided notifications", SYNC_COUNT - 1, SYNC_COUNT - notifications.unregister());
+    }
+
+    public void testMissingForecastIgnoresValidators() throws Throwable {
+        mServer = new StubHttpServer(new StubHttpServer.Dispatcher() {
+            @Override
+            public StubHttpServer.Response dispatch(StubHttpServer.Request request) {
+                mBodies.incrementAndGet();
+                return new StubHttpServer.Response(HttpURLConnection.HTTP_OK,
+                        TestForecastJsonParser.TEST_FORECAST_JSON)
+                        .setHeader("ETag", TEST_ETAG);
+            }
+        });
+
+        sync();
+        // The database lost the forecast, it has to be downloaded and written again
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        sync();
+        assertEquals(2, mBodies.get());
+        assertEquals(2, mWrites);
+        assertEquals(3, countWeatherRows());
+    }
+
+    private void sync() {
+        ForecastSyncEngine engine = new ForecastSyncEngine(mContext,
+                new ForecastFetcher(mServer.getUrl(TEST_PATH), mValidatorCache), mValidatorCache);
+        ForecastSyncEngine.Outcome outcome = engine.sync(TEST_LOCATION,
+                TestForecastJsonParser.TEST_JULIAN_START_DAY);
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, outcome.getLocationStatus(TEST_LOCATION));
+        if (outcome.getRowCount() > 0) {
+            assertEquals(3, outcome.getRowCount());
+            assertTrue(outcome.isWritten(TEST_LOCATION));
+            mWrites++;
+        }
+    }
+
+    private int countWeatherRows() {
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI, null, null, null, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.StringReader;
+import java.net.HttpURLConnection;
+import java.util.Vector;
+
+public class TestForecastJsonParser extends AndroidTestCase {
+
+    static final int TEST_JULIAN_START_DAY = 2457012;  // December 20th, 2014
+
+    // Trimmed down copy of a real OWM daily forecast response, members in the order OWM sends them
+    static final String TEST_FORECAST_JSON = "{\"city\":{\"id\":5375480,\"name\":\"Mountain View\"," +
+            "\"coord\":{\"lon\":-122.083847,\"lat\":37.386051},\"country\":\"US\",\"population\":0}," +
+            "\"cod\":\"200\",\"message\":0.0172,\"cnt\":3,\"list\":[" +
+            "{\"dt\":1419105600,\"temp\":{\"day\":13.2,\"min\":6.81,\"max\":13.2,\"night\":6.81," +
+            "\"eve\":10.34,\"morn\":13.2},\"pressure\":999.17,\"humidity\":81," +
+            "\"weather\":[{\"id\":800,\"main\":\"Clear\",\"description\":\"sky is clear\",\"icon\":\"01d\"}]," +
+            "\"speed\":1.21,\"deg\":319,\"clouds\":0}," +
+            "{\"dt\":1419192000,\"temp\":{\"day\":14.07,\"min\":5.5,\"max\":15.06,\"night\":8.64," +
+            "\"eve\":12.1,\"morn\":5.5},\"pressure\":1001.34,\"humidity\":79," +
+            "\"weather\":[{\"id\":501,\"main\":\"Rain\",\"description\":\"moderate rain\",\"icon\":\"10d\"}," +
+            "{\"id\":803,\"main\":\"Clouds\",\"description\":\"broken clouds\",\"icon\":\"04d\"}]," +
+            "\"speed\":2.64,\"deg\":156,\"clouds\":68,\"rain\":5.1}," +
+            "{\"dt\":1419278400,\"temp\":{\"day\":\"11.5\",\"min\":9,\"max\":12},\"pressure\":1012," +
+            "\"humidity\":100,\"weather\":[{\"id\":\"741\",\"main\":\"Fog\"}],\"speed\":0,\"deg\":0}]}";
+
+    public void testRowsMatchJSONObjectParser() throws Throwable {
+        ForecastJsonParser parser = parse(TEST_FORECAST_JSON);
+
+        assertEquals(HttpURLConnection.HTTP_OK, parser.getErrorCode());
+        assertEquals("Mountain View", parser.getCityName());
+        assertEquals(37.386051, parser.getCityLatitude(), 0);
+        assertEquals(-122.083847, parser.getCityLongitude(), 0);
+
+        Vector<ContentValues> expected = parseWithJSONObject(TEST_FORECAST_JSON);
+        Vector<ContentValues> actual = parser.getWeatherValues();
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals("Error: Row " + i + " differs from the JSONObject parser",
+                    expected.get(i), actual.get(i));
+        }
+    }
+
+    public void testErrorCodeStopsParsing() throws Throwable {
+        ForecastJsonParser parser = parse("{\"cod\":\"404\",\"message\":\"Error: Not found city\"}");
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND, parser.getErrorCode());
+        assertEquals(0, parser.getWeatherValues().size());
+
+        // An error code wins even when it is sent after a list
+        parser = parse("{\"list\":[],\"cod\":500}");
+        assertEquals(HttpURLConnection.HTTP_INTERNAL_ERROR, parser.getErrorCode());
+    }
+
+    public void testInvalidResponses() throws Throwable {
+        String[] invalidResponses = new String[] {
+                "<html>Bad gateway</html>",
+                "{\"cod\":\"200\",\"list\":[]}",
+                "{\"city\":{\"name\":\"x\",\"coord\":{\"lat\":1,\"lon\":2}}}",
+                TEST_FORECAST_JSON.replace("\"humidity\":81,", ""),
+                TEST_FORECAST_JSON.replace("\"weather\":[{\"id\":\"741\",\"main\":\"Fog\"}]", "\"weather\":[]"),
+        };
+        for (String response : invalidResponses) {
+            try {
+                parse(response);
+                fail("Error: Expected a JSONException for " + response);
+            } catch (JSONException e) {
+                // expected, the sync adapter turns this into LOCATION_STATUS_SERVER_INVALID
+            }
+        }
+    }
+
+    private static ForecastJsonParser parse(String json) throws Exception {
+        ForecastJsonParser parser = new ForecastJsonParser(TEST_JULIAN_START_DAY);
+        parser.parse(new StringReader(json));
+        return parser;
+    }
+
+    // The JSONObject based parsing the sync adapter used before switching to ForecastJsonParser
+    private static Vector<ContentValues> parseWithJSONObject(String forecastJsonStr) throws JSONException {
+        JSONArray weatherArray = new JSONObject(forecastJsonStr).getJSONArray("list");
+        Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
+        Time dayTime = new Time();
+        for (int i = 0; i < weatherArray.length(); i++) {
+            JSONObject dayForecast = weatherArray.getJSONObject(i);
+            JSONObject weatherObject = dayForecast.getJSONArray("weather").getJSONObject(0);
+            JSONObject temperatureObject = dayForecast.getJSONObject("temp");
+
+            ContentValues weatherValues = new ContentValues();
+            weatherValues.put(WeatherEntry.COLUMN_DATE, dayTime.setJulianDay(TEST_JULIAN_START_DAY + i));
+            weatherValues.put(WeatherEntry.COLUMN_HUMIDITY, dayForecast.getInt("humidity"));
+            weatherValues.put(WeatherEntry.COLUMN_PRESSURE, dayForecast.getDouble("pressure"));
+            weatherValues.put(WeatherEntry.COLUMN_WIND_SPEED, dayForecast.getDouble("speed"));
+            weatherValues.put(WeatherEntry.COLUMN_DEGREES, dayForecast.getDouble("deg"));
+            weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, temperatureObject.getDouble("max"));
+            weatherValues.put(WeatherEntry.COLUMN_MIN_TEMP, temperatureObject.getDouble("min"));
+            weatherValues.put(WeatherEntry.COLUMN_SHORT_DESC, weatherObject.getString("main"));
+            weatherValues.put(WeatherEntry.COLUMN_WEATHER_ID, weatherObject.getInt("id"));
+            cVVector.add(weatherValues);
+        }
+        return cVVector;
+    }
+}
@@ -0,0 +1,373 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+import com.example.android.sunshine.app.utils.StubHttpServer;
+
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestForecastSyncEngine extends AndroidTestCase {
+    public static final String LOG_TAG = TestForecastSyncEngine.class.getSimpleName();
+
+    private static final String TEST_PATH = "/data/2.5/forecast/daily?";
+    private static final int LOCATION_COUNT = 50;
+    // Roughly what a request to OWM costs on a good connection
+    private static final long RESPONSE_LATENCY_MS = 25;
+
+    private StubHttpServer mServer;
+    private ForecastValidatorCache mValidatorCache;
+    private int mJulianStartDay;
+    // The location query the server sends a different forecast for, if any
+    private volatile String mChangedLocation;
+    // The error answers of the server, by location query
+    private final Map<String, Integer> mErrorCodes = new ConcurrentHashMap<String, Integer>();
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        deleteAllRecords();
+        mValidatorCache = new ForecastValidatorCache(mContext);
+        mValidatorCache.clear();
+        mServer = new StubHttpServer(new StubHttpServer.Dispatcher() {
+            @Override
+            public StubHttpServer.Response dispatch(StubHttpServer.Request request) throws Exception {
+                Thread.sleep(RESPONSE_LATENCY_MS);
+                for (Map.Entry<String, Integer> error : mErrorCodes.entrySet()) {
+                    if (request.path.contains("q=" + error.getKey() + "&")) {
+                        return new StubHttpServer.Response(error.getValue(),
+                                "{\"cod\":" + error.getValue() + "}");
+                    }
+                }
+                String json = TestForecastJsonParser.TEST_FORECAST_JSON;
+                if (mChangedLocation != null && request.path.contains("q=" + mChangedLocation + "&")) {
+                    // A warmer third day
+                    json = json.replace("\"max\":12}", "\"max\":14}");
+                }
+                return new StubHttpServer.Response(HttpURLConnection.HTTP_OK, json);
+            }
+        });
+
+        Time dayTime = new Time();
+        dayTime.setToNow();
+        mJulianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+
+        for (int i = 0; i < LOCATION_COUNT; i++) {
+            ContentValues locationValues = new ContentValues();
+            locationValues.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting(i));
+            locationValues.put(LocationEntry.COLUMN_CITY_NAME, "City " + i);
+            locationValues.put(LocationEntry.COLUMN_COORD_LAT, i);
+            locationValues.put(LocationEntry.COLUMN_COORD_LONG, -i);
+            mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, locationValues);
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.shutdown();
+        mValidatorCache.clear();
+        deleteAllRecords();
+        super.tearDown();
+    }
+
+    public void testSyncsEveryLocationWithOneNotification() throws Throwable {
+        insertPastRows();
+        NotificationCounter notifications = NotificationCounter.register(mContext);
+
+        ForecastSyncEngine.Outcome outcome = newEngine().sync(locationSetting(0), mJulianStartDay);
+
+        for (int i = 0; i < LOCATION_COUNT; i++) {
+            assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, outcome.getLocationStatus(locationSetting(i)));
+            assertTrue(outcome.isWritten(locationSetting(i)));
+        }
+        assertEquals("Error: The days before the forecast should be deleted",
+                LOCATION_COUNT * 3, countWeatherRows());
+        assertEquals("Error: The whole run should notify weather observers once",
+                1, notifications.unregister());
+    }
+
+    public void testDayRolloverNotifiesOnce() throws Throwable {
+        newEngine().sync(locationSetting(0), mJulianStartDay);
+        // The same forecast again, but the day before it is still stored
+        mValidatorCache.clear();
+        insertPastRows();
+        NotificationCounter notifications = NotificationCounter.register(mContext);
+
+        ForecastSyncEngine.Outcome outcome = newEngine().sync(locationSetting(0), mJulianStartDay);
+
+        assertEquals(0, outcome.getRowCount());
+        assertEquals(LOCATION_COUNT * 3, countWeatherRows());
+        assertEquals("Error: Deleting the past days should notify weather observers once",
+                1, notifications.unregister());
+    }
+
+    public void testNewLocationIsAddedWithItsForecast() throws Throwable {
+        NotificationCounter notifications = NotificationCounter.register(mContext);
+
+        ForecastSyncEngine.Outcome outcome = newEngine().sync("new location", mJulianStartDay);
+
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, outcome.getLocationStatus("new location"));
+        assertTrue(outcome.isWritten("new location"));
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation("new location"), null, null, null, null);
+        assertEquals(3, cursor.getCount());
+        cursor.close();
+        assertEquals("Error: Adding a location should not notify on its own",
+                1, notifications.unregister());
+    }
+
+    public void testUnchangedForecastIsNotWritten() throws Throwable {
+        ForecastSyncEngine.Outcome outcome = newEngine().sync(locationSetting(0), mJulianStartDay);
+        assertEquals(LOCATION_COUNT * 3, outcome.getRowCount());
+        assertEquals(0, outcome.getSkippedCount());
+
+        // Forget the validators so every forecast is downloaded and compared row by row
+        mValidatorCache.clear();
+        outcome = newEngine().sync(locationSetting(0), mJulianStartDay);
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, outcome.getLocationStatus(locationSetting(0)));
+        assertEquals(0, outcome.getRowCount());
+        assertEquals(LOCATION_COUNT * 3, outcome.getSkippedCount());
+        assertFalse("Error: Nothing changed, so nothing downstream should be updated",
+                outcome.isWritten(locationSetting(0)));
+    }
+
+    public void testOnlyTheChangedLocationIsWritten() throws Throwable {
+        newEngine().sync(locationSetting(0), mJulianStartDay);
+
+        // Only a location other than the preferred one gets a new forecast
+        mChangedLocation = locationSetting(1);
+        mValidatorCache.clear();
+        ForecastSyncEngine.Outcome outcome = newEngine().sync(locationSetting(0), mJulianStartDay);
+
+        assertEquals(1, outcome.getRowCount());
+        assertTrue(outcome.isWritten(locationSetting(1)));
+        assertFalse("Error: The preferred location didn't change, so nothing downstream should be updated",
+                outcome.isWritten(locationSetting(0)));
+        for (int i = 2; i < LOCATION_COUNT; i++) {
+            assertFalse(outcome.isWritten(locationSetting(i)));
+        }
+    }
+
+    public void testErrorAnswersMapToLocationStatus() throws Throwable {
+        mErrorCodes.put(locationSetting(1), HttpURLConnection.HTTP_NOT_FOUND);
+        mErrorCodes.put(locationSetting(2), HttpURLConnection.HTTP_UNAUTHORIZED);
+        mErrorCodes.put(locationSetting(3), HttpURLConnection.HTTP_BAD_REQUEST);
+
+        ForecastSyncEngine.Outcome outcome = newEngine().sync(locationSetting(0), mJulianStartDay);
+
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, outcome.getLocationStatus(locationSetting(0)));
+        assertEquals("Error: An unknown city is an invalid location",
+                SunshineSyncAdapter.LOCATION_STATUS_INVALID, outcome.getLocationStatus(locationSetting(1)));
+        assertEquals("Error: A rejected request doesn't mean the server is down",
+                SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID,
+                outcome.getLocationStatus(locationSetting(2)));
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID,
+                outcome.getLocationStatus(locationSetting(3)));
+        assertFalse(outcome.isWritten(locationSetting(1)));
+
+        // Only errors that may go away are the server being down
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN, ForecastSyncEngine.getLocationStatus(
+                new ForecastFetcher.HttpStatusException(HttpURLConnection.HTTP_UNAVAILABLE)));
+        // Too many requests
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN, ForecastSyncEngine.getLocationStatus(
+                new ForecastFetcher.HttpStatusException(429)));
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN, ForecastSyncEngine.getLocationStatus(
+                new SocketTimeoutException()));
+    }
+
+    public void testBenchmarkAgainstSingleLocationPath() throws Throwable {
+        HeapSampler heap = HeapSampler.startSampling();
+        long start = SystemClock.elapsedRealtime();
+        newEngine().sync(locationSetting(0), mJulianStartDay);
+        long engineMillis = SystemClock.elapsedRealtime() - start;
+        long engineHeap = heap.stop();
+        assertEquals(LOCATION_COUNT * 3, countWeatherRows());
+
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mValidatorCache.clear();
+
+        // What onPerformSync used to do, once per location
+        ForecastFetcher fetcher = new ForecastFetcher(mServer.getUrl(TEST_PATH), mValidatorCache);
+        heap = HeapSampler.startSampling();
+        start = SystemClock.elapsedRealtime();
+        for (int i = 0; i < LOCATION_COUNT; i++) {
+            ForecastJsonParser parser = fetcher.fetch(locationSetting(i), mJulianStartDay, false).getParser();
+            ContentValues[] rows = parser.getWeatherValues().toArray(new ContentValues[0]);
+            for (ContentValues row : rows) {
+                row.put(WeatherEntry.COLUMN_LOC_KEY, locationId(locationSetting(i)));
+            }
+            mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, rows);
+            mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, WeatherEntry.COLUMN_DATE + " <= ?",
+                    new String[] {Long.toString(new Time().setJulianDay(mJulianStartDay - 1))});
+        }
+        long singleMillis = SystemClock.elapsedRealtime() - start;
+        long singleHeap = heap.stop();
+        assertEquals(LOCATION_COUNT * 3, countWeatherRows());
+
+        Log.i(LOG_TAG, "Syncing " + LOCATION_COUNT + " locations: engine " + engineMillis + " ms, peak heap "
+                + engineHeap / 1024 + " KiB; single location path " + singleMillis + " ms, peak heap "
+                + singleHeap / 1024 + " KiB");
+    }
+
+    // Three days before the forecast of every location, as a sync of three days ago left them
+    private void insertPastRows() {
+        Time dayTime = new Time();
+        ContentValues[] rows = new ContentValues[LOCATION_COUNT * 3];
+        for (int i = 0; i < LOCATION_COUNT; i++) {
+            long locationId = locationId(locationSetting(i));
+            for (int day = 1; day <= 3; day++) {
+                ContentValues weatherValues = new ContentValues();
+                weatherValues.put(WeatherEntry.COLUMN_LOC_KEY, locationId);
+                weatherValues.put(WeatherEntry.COLUMN_DATE, dayTime.setJulianDay(mJulianStartDay - day));
+                weatherValues.put(WeatherEntry.COLUMN_DEGREES, 1.1);
+                weatherValues.put(WeatherEntry.COLUMN_HUMIDITY, 1.2);
+                weatherValues.put(WeatherEntry.COLUMN_PRESSURE, 1.3);
+                weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, 75);
+                weatherValues.put(WeatherEntry.COLUMN_MIN_TEMP, 65);
+                weatherValues.put(WeatherEntry.COLUMN_SHORT_DESC, "Asteroids");
+                weatherValues.put(WeatherEntry.COLUMN_WIND_SPEED, 5.5);
+                weatherValues.put(WeatherEntry.COLUMN_WEATHER_ID, 321);
+                rows[i * 3 + day - 1] = weatherValues;
+            }
+        }
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, rows);
+    }
+
+    private ForecastSyncEngine newEngine() {
+        return new ForecastSyncEngine(mContext,
+                new ForecastFetcher(mServer.getUrl(TEST_PATH), mValidatorCache), mValidatorCache);
+    }
+
+    private long locationId(String locationSetting) {
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                new String[] {LocationEntry._ID}, LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[] {locationSetting}, null);
+        assertTrue(cursor.moveToFirst());
+        long id = cursor.getLong(0);
+        cursor.close();
+        return id;
+    }
+
+    private int countWeatherRows() {
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI, null, null, null, null);
+        int count = cursor.getCount();
+        cursor.close();
+        return count;
+    }
+
+    private void deleteAllRecords() {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private static String locationSetting(int i) {
+        return "location" + i;
+    }
+
+    /**
+     * Counts the notifications of weather observers until it's unregistered.
+     */
+    static class NotificationCounter extends ContentObserver {
+        private final Context mContext;
+        private final HandlerThread mThread;
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        private NotificationCounter(Context context, HandlerThread thread) {
+            super(new Handler(thread.getLooper()));
+            mContext = context;
+            mThread = thread;
+        }
+
+        static NotificationCounter register(Context context) {
+            HandlerThread thread = new HandlerThread("WeatherObserver");
+            thread.start();
+            NotificationCounter counter = new NotificationCounter(context, thread);
+            context.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, counter);
+            return counter;
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            mCount.incrementAndGet();
+        }
+
+        /**
+         * @return the number of notifications, after giving the provider time to deliver
+         * anything it might have sent on top of the first one.
+         */
+        int unregister() {
+            SystemClock.sleep(1000);
+            mContext.getContentResolver().unregisterContentObserver(this);
+            mThread.quit();
+            return mCount.get();
+        }
+    }
+
+    /**
+     * Polls the used heap from a background thread and keeps the highest value seen.
+     */
+    static class HeapSampler extends Thread {
+        private volatile boolean mRunning = true;
+        private long mBaseline;
+        private long mPeak;
+
+        static HeapSampler startSampling() {
+            Runtime.getRuntime().gc();
+            HeapSampler sampler = new HeapSampler();
+            sampler.mBaseline = usedHeap();
+            sampler.start();
+            return sampler;
+        }
+
+        @Override
+        public void run() {
+            while (mRunning) {
+                mPeak = Math.max(mPeak, usedHeap());
+                SystemClock.sleep(2);
+            }
+        }
+
+        /**
+         * @return the peak heap growth over the baseline taken at start, in bytes.
+         */
+        long stop() throws InterruptedException {
+            mRunning = false;
+            join();
+            return Math.max(0, mPeak - mBaseline);
+        }
+
+        private static long usedHeap() {
+            Runtime runtime = Runtime.getRuntime();
+            return runtime.totalMemory() - runtime.freeMemory();
+        }
+    }
+}
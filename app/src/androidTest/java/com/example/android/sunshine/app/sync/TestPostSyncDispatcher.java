@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TestPostSyncDispatcher extends AndroidTestCase {
+
+    private static final long CONSUMER_MILLIS = 500;
+    private static final int CONSUMER_COUNT = PostSyncDispatcher.MAX_PARALLEL_CONSUMERS;
+
+    public void testConsumersRunInParallel() {
+        final AtomicInteger calls = new AtomicInteger();
+        List<PostSyncDispatcher.Consumer> consumers = new ArrayList<PostSyncDispatcher.Consumer>();
+        for (int i = 0; i < CONSUMER_COUNT; i++) {
+            consumers.add(new SleepingConsumer("consumer" + i, CONSUMER_MILLIS, calls));
+        }
+        SyncTrace trace = new SyncTrace();
+
+        long start = SystemClock.elapsedRealtime();
+        new PostSyncDispatcher().dispatch(null, consumers, trace);
+        long elapsed = SystemClock.elapsedRealtime() - start;
+
+        assertEquals(CONSUMER_COUNT, calls.get());
+        assertTrue("Error: The consumers took " + elapsed + " ms, they ran one after another",
+                elapsed < CONSUMER_MILLIS * 2);
+        for (int i = 0; i < CONSUMER_COUNT; i++) {
+            SyncTrace.Span span = trace.getSpan("consumer" + i);
+            assertNotNull("Error: No span for consumer" + i, span);
+            assertTrue(span.succeeded);
+            assertTrue("Error: The span is shorter than the consumer", span.millis >= CONSUMER_MILLIS);
+        }
+    }
+
+    public void testFailureDoesNotStopOthers() {
+        final AtomicInteger calls = new AtomicInteger();
+        List<PostSyncDispatcher.Consumer> consumers = new ArrayList<PostSyncDispatcher.Consumer>();
+        consumers.add(new PostSyncDispatcher.Consumer() {
+            @Override
+            public String getName() {
+                return "failing";
+            }
+
+            @Override
+            public void consume(PostSyncSnapshot snapshot) {
+                throw new IllegalStateException("Expected by the test");
+            }
+        });
+        consumers.add(new SleepingConsumer("sleeping", 0, calls));
+        SyncTrace trace = new SyncTrace();
+
+        new PostSyncDispatcher().dispatch(null, consumers, trace);
+
+        assertEquals(1, calls.get());
+        assertFalse(trace.getSpan("failing").succeeded);
+        assertTrue(trace.getSpan("sleeping").succeeded);
+    }
+
+    public void testTimeoutReturnsEarly() {
+        final AtomicInteger calls = new AtomicInteger();
+        List<PostSyncDispatcher.Consumer> consumers = new ArrayList<PostSyncDispatcher.Consumer>();
+        consumers.add(new SleepingConsumer("slow", CONSUMER_MILLIS * 10, calls));
+
+        long start = SystemClock.elapsedRealtime();
+        new PostSyncDispatcher(1, CONSUMER_MILLIS).dispatch(null, consumers, new SyncTrace());
+        long elapsed = SystemClock.elapsedRealtime() - start;
+
+        assertTrue("Error: Waited " + elapsed + " ms for a consumer past the timeout",
+                elapsed < CONSUMER_MILLIS * 5);
+    }
+
+    private static class SleepingConsumer implements PostSyncDispatcher.Consumer {
+        private final String mName;
+        private final long mMillis;
+        private final AtomicInteger mCalls;
+
+        SleepingConsumer(String name, long millis, AtomicInteger calls) {
+            mName = name;
+            mMillis = millis;
+            mCalls = calls;
+        }
+
+        @Override
+        public String getName() {
+            return mName;
+        }
+
+        @Override
+        public void consume(PostSyncSnapshot snapshot) throws Exception {
+            Thread.sleep(mMillis);
+            mCalls.incrementAndGet();
+        }
+    }
+}
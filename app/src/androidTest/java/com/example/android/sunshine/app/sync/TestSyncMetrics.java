@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+import android.util.AtomicFile;
+
+import org.json.JSONObject;
+
+import java.io.File;
+
+public class TestSyncMetrics extends AndroidTestCase {
+
+    private AtomicFile mFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFile = new AtomicFile(new File(mContext.getCacheDir(), "test_sync_metrics.json"));
+        mFile.delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mFile.delete();
+        super.tearDown();
+    }
+
+    public void testHistogramBuckets() {
+        assertEquals(0, SyncMetrics.Histogram.getBucket(0));
+        assertEquals(0, SyncMetrics.Histogram.getBucket(1));
+        assertEquals(1, SyncMetrics.Histogram.getBucket(2));
+        assertEquals(2, SyncMetrics.Histogram.getBucket(3));
+        assertEquals(SyncMetrics.BUCKET_BOUNDS_MILLIS.length,
+                SyncMetrics.Histogram.getBucket(Long.MAX_VALUE));
+
+        SyncMetrics.Histogram histogram = new SyncMetrics.Histogram();
+        for (int i = 0; i < 9; i++) {
+            histogram.add(15, true);
+        }
+        histogram.add(400, false);
+        assertEquals(10, histogram.count);
+        assertEquals(1, histogram.failures);
+        assertEquals(535, histogram.sumMillis);
+        assertEquals(400, histogram.maxMillis);
+        assertEquals(20, histogram.getPercentileMillis(50));
+        assertEquals(20, histogram.getPercentileMillis(90));
+        assertEquals(400, histogram.getPercentileMillis(100));
+    }
+
+    public void testTraceFeedsHistograms() {
+        SyncMetrics metrics = new SyncMetrics(true, null);
+        SyncTrace trace = metrics.newTrace();
+        trace.record(SyncMetrics.STAGE_CONNECT, 30, true);
+        trace.record(SyncMetrics.STAGE_CONNECT, 70, false);
+
+        SyncMetrics.Histogram histogram = metrics.getHistogram(SyncMetrics.STAGE_CONNECT);
+        assertNotNull(histogram);
+        assertEquals(2, histogram.count);
+        assertEquals(1, histogram.failures);
+        assertEquals(2, trace.getSpans().size());
+    }
+
+    public void testRingBufferKeepsLatestRuns() throws Throwable {
+        SyncMetrics metrics = new SyncMetrics(true, mFile);
+        for (int i = 0; i < SyncMetrics.MAX_RUNS + 5; i++) {
+            SyncTrace trace = metrics.newTrace();
+            trace.record(SyncMetrics.STAGE_TOTAL, i, true);
+            metrics.addRun(i, trace);
+        }
+        assertEquals(SyncMetrics.MAX_RUNS, metrics.getRunCount());
+
+        // A new process reads what the last one saved
+        SyncMetrics reloaded = new SyncMetrics(true, mFile);
+        assertEquals(SyncMetrics.MAX_RUNS, reloaded.getRunCount());
+        assertEquals(SyncMetrics.MAX_RUNS + 5, reloaded.getHistogram(SyncMetrics.STAGE_TOTAL).count);
+
+        JSONObject json = new JSONObject(reloaded.toJson());
+        assertEquals(5, json.getJSONArray("runs").getJSONObject(0).getLong("startedAt"));
+        assertTrue(json.getJSONObject("stages").has(SyncMetrics.STAGE_TOTAL));
+    }
+
+    public void testDisabledRecordsNothing() throws Throwable {
+        SyncMetrics metrics = new SyncMetrics(false, mFile);
+        SyncTrace trace = metrics.newTrace();
+        trace.record(SyncMetrics.STAGE_TOTAL, 10, true);
+        metrics.addSample(SyncMetrics.STAGE_WEAR_PUBLISH, 10, true);
+        metrics.addRun(0, trace);
+
+        assertFalse(metrics.isEnabled());
+        assertNull(metrics.getHistogram(SyncMetrics.STAGE_TOTAL));
+        assertNull(metrics.getHistogram(SyncMetrics.STAGE_WEAR_PUBLISH));
+        assertEquals(0, metrics.getRunCount());
+        assertFalse(mFile.getBaseFile().exists());
+        // Not even the run's own trace keeps the span
+        assertSame(SyncTrace.NONE, trace);
+        assertEquals(0, trace.getSpans().size());
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+
+public class TestWearIconAssetCache extends AndroidTestCase {
+
+    private File mDirectory;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mDirectory = new File(mContext.getFilesDir(), "wear_icons");
+        deleteDirectory();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        deleteDirectory();
+        super.tearDown();
+    }
+
+    public void testIconsSurviveANewCache() {
+        int resourceId = Utility.getIconResourceForWeatherCondition(800);
+        WearIconAssetCache cache = new WearIconAssetCache(mContext);
+        byte[] png = cache.getPng(resourceId);
+        assertNotNull("Error: The clear icon wasn't encoded", png);
+        assertSame("Error: The icon wasn't kept in memory", png, cache.getPng(resourceId));
+
+        Bitmap bitmap = BitmapFactory.decodeByteArray(png, 0, png.length);
+        Bitmap original = BitmapFactory.decodeResource(mContext.getResources(), resourceId);
+        assertEquals(original.getWidth(), bitmap.getWidth());
+        assertEquals(original.getHeight(), bitmap.getHeight());
+
+        // Another process would start with an empty memory cache and read the file
+        byte[] persisted = new WearIconAssetCache(mContext).getPng(resourceId);
+        assertTrue("Error: The persisted icon differs from the encoded one",
+                Arrays.equals(png, persisted));
+    }
+
+    public void testIconsOfOldVersionsAreDeleted() throws Exception {
+        assertTrue(mDirectory.mkdirs());
+        File stale = new File(mDirectory, "ic_clear_0.png");
+        FileOutputStream out = new FileOutputStream(stale);
+        out.write(new byte[] {1, 2, 3});
+        out.close();
+
+        byte[] png = new WearIconAssetCache(mContext).getPng(R.drawable.ic_clear);
+        assertNotNull(png);
+        assertFalse("Error: The icon of an old version wasn't deleted", stale.exists());
+    }
+
+    private void deleteDirectory() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+}
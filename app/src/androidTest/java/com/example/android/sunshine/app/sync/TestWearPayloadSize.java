@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.wear.WearProtocol;
+import com.example.android.sunshine.app.wear.WeatherPayload;
+import com.google.android.gms.wearable.DataMap;
+
+/*
+    Compares what goes to the watch today, a DataMap with one day and two PNG assets, with the
+    packed payload of a whole forecast.
+ */
+public class TestWearPayloadSize extends AndroidTestCase {
+    public static final String LOG_TAG = TestWearPayloadSize.class.getSimpleName();
+
+    private static final int DAYS = 14;
+    private static final int ITERATIONS = 10000;
+
+    public void testPayloadIsSmallerThanDataMapAndAssets() {
+        int[] weatherIds = new int[DAYS];
+        int[] highs = new int[DAYS];
+        int[] lows = new int[DAYS];
+        for (int i = 0; i < DAYS; i++) {
+            weatherIds[i] = i % 2 == 0 ? 800 : 501;
+            highs[i] = 20 + i;
+            lows[i] = 10 - i;
+        }
+        WeatherPayload payload = new WeatherPayload(17045, weatherIds, highs, lows);
+
+        DataMap dataMap = new DataMap();
+        dataMap.putInt(WearProtocol.WEATHER_ID, weatherIds[0]);
+        dataMap.putInt(WearProtocol.MAX_TMP, highs[0]);
+        dataMap.putInt(WearProtocol.MIN_TMP, lows[0]);
+        WearIconAssetCache iconCache = new WearIconAssetCache(mContext);
+        int assetBytes = iconCache.getPng(Utility.getIconResourceForWeatherCondition(weatherIds[0])).length
+                + iconCache.getPng(Utility.getBWIconResourceForWeatherCondition(weatherIds[0])).length;
+
+        long start = SystemClock.elapsedRealtimeNanos();
+        int dataMapBytes = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            dataMapBytes = DataMap.fromByteArray(dataMap.toByteArray()).toByteArray().length;
+        }
+        long dataMapNanos = SystemClock.elapsedRealtimeNanos() - start;
+
+        start = SystemClock.elapsedRealtimeNanos();
+        int payloadBytes = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            payloadBytes = WeatherPayload.decode(payload.encode()).encode().length;
+        }
+        long payloadNanos = SystemClock.elapsedRealtimeNanos() - start;
+
+        Log.i(LOG_TAG, "Today: DataMap of 1 day " + dataMapBytes + " bytes + assets " + assetBytes
+                + " bytes, " + dataMapNanos / ITERATIONS + " ns per round trip; payload of " + DAYS
+                + " days " + payloadBytes + " bytes, " + payloadNanos / ITERATIONS
+                + " ns per round trip");
+        assertTrue("Error: The payload of " + DAYS + " days isn't smaller than the DataMap of one",
+                payloadBytes < dataMapBytes + assetBytes);
+    }
+}
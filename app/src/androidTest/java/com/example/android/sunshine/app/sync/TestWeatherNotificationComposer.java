@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.app.NotificationManager;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.os.SystemClock;
+import android.preference.PreferenceManager;
+import android.support.v4.app.NotificationCompat;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.utils.PollingCheck;
+import com.example.android.sunshine.app.utils.StubHttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.net.HttpURLConnection;
+
+/*
+    Serves the art pack from a server that takes seconds to answer, and checks that posting the
+    notification doesn't wait for it.
+ */
+public class TestWeatherNotificationComposer extends AndroidTestCase {
+
+    private static final int TEST_NOTIFICATION_ID = 4004;
+    private static final long ART_DELAY_MILLIS = 3000;
+    // Far below the delay of the art, far above decoding the local art
+    private static final long MAX_POST_MILLIS = 1000;
+
+    private StubHttpServer mServer;
+    private SharedPreferences mPrefs;
+    private String mSavedArtPack;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mSavedArtPack = mPrefs.getString(mContext.getString(R.string.pref_art_pack_key), null);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (mServer != null) {
+            mServer.shutdown();
+        }
+        SharedPreferences.Editor editor = mPrefs.edit();
+        if (mSavedArtPack == null) {
+            editor.remove(mContext.getString(R.string.pref_art_pack_key));
+        } else {
+            editor.putString(mContext.getString(R.string.pref_art_pack_key), mSavedArtPack);
+        }
+        editor.commit();
+        ((NotificationManager) mContext.getSystemService(Context.NOTIFICATION_SERVICE))
+                .cancel(TEST_NOTIFICATION_ID);
+        super.tearDown();
+    }
+
+    public void testPostDoesNotWaitForArtPack() throws Throwable {
+        final byte[] art = createPng();
+        mServer = new StubHttpServer(new StubHttpServer.Dispatcher() {
+            @Override
+            public StubHttpServer.Response dispatch(StubHttpServer.Request request) throws Exception {
+                Thread.sleep(ART_DELAY_MILLIS);
+                return new StubHttpServer.Response(HttpURLConnection.HTTP_OK, art)
+                        .setHeader("Content-Type", "image/png");
+            }
+        });
+        // A new URL every run, so that the art isn't in Glide's cache yet
+        useArtPack(mServer.getUrl("/art_%s.png?run=" + SystemClock.elapsedRealtimeNanos()));
+
+        final WeatherNotificationComposer composer = WeatherNotificationComposer.getInstance(mContext);
+        final int upgradeCount = composer.getUpgradeCount();
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(mContext)
+                .setSmallIcon(Utility.getIconResourceForWeatherCondition(800))
+                .setContentTitle(mContext.getString(R.string.app_name))
+                .setContentText("Clear");
+
+        long start = SystemClock.elapsedRealtime();
+        composer.post(TEST_NOTIFICATION_ID, builder, 800, 64, 64);
+        long postMillis = SystemClock.elapsedRealtime() - start;
+        assertTrue("Error: Posting took " + postMillis + " ms, it waited for the art pack",
+                postMillis < MAX_POST_MILLIS);
+
+        new PollingCheck(ART_DELAY_MILLIS * 3) {
+            @Override
+            protected boolean check() {
+                return composer.getUpgradeCount() > upgradeCount;
+            }
+        }.run();
+        assertEquals("Error: The art should have been downloaded once", 1, mServer.getRequestCount());
+    }
+
+    private void useArtPack(final String format) {
+        mPrefs.edit().putString(mContext.getString(R.string.pref_art_pack_key), format).commit();
+        // The settings snapshot is replaced on the main thread
+        new PollingCheck() {
+            @Override
+            protected boolean check() {
+                return !Utility.usingLocalGraphics(mContext)
+                        && Utility.getArtUrlForWeatherCondition(mContext, 800).startsWith(
+                        format.substring(0, format.indexOf('%')));
+            }
+        }.run();
+    }
+
+    private static byte[] createPng() {
+        Bitmap bitmap = Bitmap.createBitmap(128, 128, Bitmap.Config.ARGB_8888);
+        bitmap.eraseColor(Color.YELLOW);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+        bitmap.recycle();
+        return out.toByteArray();
+    }
+}
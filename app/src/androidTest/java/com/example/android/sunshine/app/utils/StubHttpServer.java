@@ -0,0 +1,229 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.utils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Minimal HTTP/1.1 server bound to the loopback interface, so the network code can be tested
+ * against canned answers without reaching OpenWeatherMap.  Every connection is handled on its
+ * own thread and closed after one response.
+ *
+ * Besides answers, a dispatcher can return the faults of a failing server: see
+ * {@link Response#reset} and {@link Response#stall}.
+ */
+public class StubHttpServer {
+
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    public interface Dispatcher {
+        Response dispatch(Request request) throws Exception;
+    }
+
+    public static class Request {
+        public final String method;
+        public final String path;
+        // Header names are lower case
+        public final Map<String, String> headers;
+
+        Request(String method, String path, Map<String, String> headers) {
+            this.method = method;
+            this.path = path;
+            this.headers = headers;
+        }
+
+        public String getHeader(String name) {
+            return headers.get(name.toLowerCase(Locale.US));
+        }
+    }
+
+    public static class Response {
+        final int code;
+        final Map<String, String> headers = new LinkedHashMap<String, String>();
+        final byte[] body;
+        // Faults served instead of the answer
+        boolean reset;
+        long stallMillis;
+
+        public Response(int code, String body) {
+            this(code, body == null ? new byte[0] : body.getBytes(Charset.forName("UTF-8")));
+        }
+
+        public Response(int code, byte[] body) {
+            this.code = code;
+            this.body = body;
+        }
+
+        public Response setHeader(String name, String value) {
+            headers.put(name, value);
+            return this;
+        }
+
+        /**
+         * @return a fault that drops the connection with a TCP reset instead of answering.
+         */
+        public static Response reset() {
+            Response response = new Response(0, new byte[0]);
+            response.reset = true;
+            return response;
+        }
+
+        /**
+         * @return a fault that keeps the connection open without answering for the given time,
+         * or until the server shuts down, and then closes it.
+         */
+        public static Response stall(long millis) {
+            Response response = new Response(0, new byte[0]);
+            response.stallMillis = millis;
+            return response;
+        }
+    }
+
+    private final ServerSocket mServerSocket;
+    private final Dispatcher mDispatcher;
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+    private final Thread mAcceptThread;
+
+    public StubHttpServer(Dispatcher dispatcher) throws IOException {
+        mDispatcher = dispatcher;
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        mAcceptThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                acceptConnections();
+            }
+        }, "StubHttpServer");
+        mAcceptThread.start();
+    }
+
+    /**
+     * @return an absolute http URL for the given path on this server.
+     */
+    public String getUrl(String path) {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort() + path;
+    }
+
+    public int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    public void shutdown() {
+        try {
+            mServerSocket.close();
+        } catch (IOException e) {
+            // closing anyway
+        }
+        mExecutor.shutdownNow();
+        try {
+            mAcceptThread.join(TimeUnit.SECONDS.toMillis(5));
+            mExecutor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void acceptConnections() {
+        while (!mServerSocket.isClosed()) {
+            final Socket socket;
+            try {
+                socket = mServerSocket.accept();
+            } catch (IOException e) {
+                return;
+            }
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    serve(socket);
+                }
+            });
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            BufferedReader in = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), ISO_8859_1));
+            String requestLine = in.readLine();
+            if (requestLine == null) {
+                return;
+            }
+            String[] parts = requestLine.split(" ");
+            Map<String, String> headers = new HashMap<String, String>();
+            String line;
+            while ((line = in.readLine()) != null && line.length() > 0) {
+                int colon = line.indexOf(':');
+                if (colon > 0) {
+                    headers.put(line.substring(0, colon).trim().toLowerCase(Locale.US),
+                            line.substring(colon + 1).trim());
+                }
+            }
+            mRequestCount.incrementAndGet();
+
+            Response response = mDispatcher.dispatch(new Request(parts[0], parts[1], headers));
+            if (response == null) {
+                return;
+            }
+            if (response.reset) {
+                // Closing with a zero linger time sends a reset instead of a FIN
+                socket.setSoLinger(true, 0);
+                return;
+            }
+            if (response.stallMillis > 0) {
+                Thread.sleep(response.stallMillis);
+                return;
+            }
+
+            StringBuilder head = new StringBuilder();
+            head.append("HTTP/1.1 ").append(response.code).append(" Stub\r\n");
+            for (Map.Entry<String, String> header : response.headers.entrySet()) {
+                head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+            }
+            head.append("Content-Length: ").append(response.body.length).append("\r\n");
+            head.append("Connection: close\r\n\r\n");
+
+            OutputStream out = socket.getOutputStream();
+            out.write(head.toString().getBytes(ISO_8859_1));
+            out.write(response.body);
+            out.flush();
+        } catch (InterruptedException e) {
+            // The server is shutting down
+        } catch (Exception e) {
+            // The client went away, nothing to report
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // closing anyway
+            }
+        }
+    }
+}
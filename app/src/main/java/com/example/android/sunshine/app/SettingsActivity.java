@@ -27,6 +27,7 @@ import android.preference.PreferenceManager;
 
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+import com.example.android.sunshine.app.sync.SyncMetrics;
 
 /**
  * A {@link PreferenceActivity} that presents a set of application settings.
@@ -50,6 +51,32 @@ public class SettingsActivity extends PreferenceActivity
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_location_key)));
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_units_key)));
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_art_pack_key)));
+
+        if (BuildConfig.DEBUG) {
+            addSyncMetricsPreference();
+        }
+    }
+
+    /**
+     * Adds an entry that shares the sync timings as JSON, see {@link SyncMetrics}.
+     */
+    private void addSyncMetricsPreference() {
+        Preference preference = new Preference(this);
+        preference.setTitle(R.string.pref_sync_metrics_label);
+        preference.setSummary(R.string.pref_sync_metrics_summary);
+        preference.setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
+            @Override
+            public boolean onPreferenceClick(Preference preference) {
+                Intent shareIntent = new Intent(Intent.ACTION_SEND)
+                        .setType("text/plain")
+                        .putExtra(Intent.EXTRA_TEXT,
+                                SyncMetrics.getInstance(SettingsActivity.this).toJson());
+                startActivity(Intent.createChooser(shareIntent,
+                        getString(R.string.pref_sync_metrics_label)));
+                return true;
+            }
+        });
+        getPreferenceScreen().addPreference(preference);
     }
 
     // Registers a shared preference change listener that gets notified when preferences change
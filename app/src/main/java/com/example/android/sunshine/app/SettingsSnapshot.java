@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+/**
+ * The settings that list rows, widget rows and temperatures are formatted with, read once.
+ *
+ * A snapshot never changes.  A new one is read when one of its preferences changes and replaces
+ * the current one in a volatile field, so {@link #get} takes no lock and looks nothing up.
+ * SharedPreferences notifies its listeners on the main thread; a write from another thread is
+ * seen once that notification ran.
+ */
+public final class SettingsSnapshot {
+
+    private static volatile SettingsSnapshot sCurrent;
+    // Held here, SharedPreferences only keeps weak references to its listeners
+    private static SharedPreferences.OnSharedPreferenceChangeListener sListener;
+
+    private final String mLocation;
+    private final boolean mMetric;
+    private final String mArtPackFormat;
+    private final boolean mUsingLocalGraphics;
+
+    private SettingsSnapshot(Context context, SharedPreferences prefs) {
+        mLocation = prefs.getString(context.getString(R.string.pref_location_key),
+                context.getString(R.string.pref_location_default));
+        String metric = context.getString(R.string.pref_units_metric);
+        mMetric = prefs.getString(context.getString(R.string.pref_units_key), metric).equals(metric);
+        String sunshineArtPack = context.getString(R.string.pref_art_pack_sunshine);
+        mArtPackFormat = prefs.getString(context.getString(R.string.pref_art_pack_key), sunshineArtPack);
+        mUsingLocalGraphics = mArtPackFormat.equals(sunshineArtPack);
+    }
+
+    /**
+     * @return the current settings; reads them the first time only.
+     */
+    public static SettingsSnapshot get(Context context) {
+        SettingsSnapshot snapshot = sCurrent;
+        if (snapshot != null) {
+            return snapshot;
+        }
+        synchronized (SettingsSnapshot.class) {
+            if (sCurrent == null) {
+                startListening(context.getApplicationContext());
+            }
+            return sCurrent;
+        }
+    }
+
+    private static void startListening(final Context context) {
+        final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        final String locationKey = context.getString(R.string.pref_location_key);
+        final String unitsKey = context.getString(R.string.pref_units_key);
+        final String artPackKey = context.getString(R.string.pref_art_pack_key);
+        sListener = new SharedPreferences.OnSharedPreferenceChangeListener() {
+            @Override
+            public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+                // The sync adapter writes its status and notification time here too
+                if (locationKey.equals(key) || unitsKey.equals(key) || artPackKey.equals(key)) {
+                    sCurrent = new SettingsSnapshot(context, sharedPreferences);
+                }
+            }
+        };
+        prefs.registerOnSharedPreferenceChangeListener(sListener);
+        // Read after registering, so that no change between the two is missed
+        sCurrent = new SettingsSnapshot(context, prefs);
+    }
+
+    public String getLocation() {
+        return mLocation;
+    }
+
+    public boolean isMetric() {
+        return mMetric;
+    }
+
+    /**
+     * @return the URL format of the art pack, with one %s for the art name.
+     */
+    public String getArtPackFormat() {
+        return mArtPackFormat;
+    }
+
+    public boolean isUsingLocalGraphics() {
+        return mUsingLocalGraphics;
+    }
+}
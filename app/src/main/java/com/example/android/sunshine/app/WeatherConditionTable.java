@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import com.example.android.sunshine.app.wear.WeatherConditions;
+
+/**
+ * The icons, art and descriptions of OpenWeatherMap weather ids, looked up in arrays that are
+ * filled once instead of range checks on every call.
+ *
+ * The graphics depend on the condition of the id, see {@link WeatherConditions}, which the
+ * watch face groups ids by as well.  The descriptions have a table of their own, indexed by id,
+ * since most ids have one.
+ */
+public final class WeatherConditionTable {
+
+    // Indexed by the condition constants of WeatherConditions
+    private static final int[] ICONS = {
+            R.drawable.ic_storm, R.drawable.ic_light_rain, R.drawable.ic_rain, R.drawable.ic_snow,
+            R.drawable.ic_fog, R.drawable.ic_clear, R.drawable.ic_light_clouds, R.drawable.ic_cloudy
+    };
+    private static final int[] BW_ICONS = {
+            R.drawable.ic_storm_bw, R.drawable.ic_light_rain_bw, R.drawable.ic_rain_bw,
+            R.drawable.ic_snow_bw, R.drawable.ic_fog_bw, R.drawable.ic_clear_bw,
+            R.drawable.ic_light_clouds_bw, R.drawable.ic_cloudy_bw
+    };
+    private static final int[] ARTS = {
+            R.drawable.art_storm, R.drawable.art_light_rain, R.drawable.art_rain, R.drawable.art_snow,
+            R.drawable.art_fog, R.drawable.art_clear, R.drawable.art_light_clouds, R.drawable.art_clouds
+    };
+    // What the art packs name their images; "clouds" where the icons say "cloudy"
+    private static final String[] ART_NAMES = {
+            "storm", "light_rain", "rain", "snow", "fog", "clear", "light_clouds", "clouds"
+    };
+    private static final String[] IMAGE_URLS = {
+            "http://upload.wikimedia.org/wikipedia/commons/2/28/Thunderstorm_in_Annemasse,_France.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/a/a0/Rain_on_leaf_504605006.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/6/6c/Rain-on-Thassos.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/b/b8/Fresh_snow.JPG",
+            "http://upload.wikimedia.org/wikipedia/commons/e/e6/Westminster_fog_-_London_-_UK.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/7/7e/A_few_trees_and_the_sun_(6009964513).jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/e/e7/Cloudy_Blue_Sky_(5031259890).jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/5/54/Cloudy_hills_in_Elis,_Greece_2.jpg"
+    };
+    // The storm image of 781 isn't the one of the thunderstorms
+    private static final String TORNADO_IMAGE_URL =
+            "http://upload.wikimedia.org/wikipedia/commons/d/dc/Raised_dust_ahead_of_a_severe_thunderstorm_1.jpg";
+
+    private static final int MIN_STRING_ID = 200;
+    private static final int MAX_STRING_ID = 962;
+    // The description of every id from MIN_STRING_ID on, 0 for none
+    private static final int[] STRINGS = new int[MAX_STRING_ID - MIN_STRING_ID + 1];
+    static {
+        // Based on weather code data found at:
+        // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
+        for (int weatherId = 200; weatherId <= 232; weatherId++) {
+            putString(weatherId, R.string.condition_2xx);
+        }
+        for (int weatherId = 300; weatherId <= 321; weatherId++) {
+            putString(weatherId, R.string.condition_3xx);
+        }
+        putString(500, R.string.condition_500);
+        putString(501, R.string.condition_501);
+        putString(502, R.string.condition_502);
+        putString(503, R.string.condition_503);
+        putString(504, R.string.condition_504);
+        putString(511, R.string.condition_511);
+        putString(520, R.string.condition_520);
+        putString(531, R.string.condition_531);
+        putString(600, R.string.condition_600);
+        putString(601, R.string.condition_601);
+        putString(602, R.string.condition_602);
+        putString(611, R.string.condition_611);
+        putString(612, R.string.condition_612);
+        putString(615, R.string.condition_615);
+        putString(616, R.string.condition_616);
+        putString(620, R.string.condition_620);
+        putString(621, R.string.condition_621);
+        putString(622, R.string.condition_622);
+        putString(701, R.string.condition_701);
+        putString(711, R.string.condition_711);
+        putString(721, R.string.condition_721);
+        putString(731, R.string.condition_731);
+        putString(741, R.string.condition_741);
+        putString(751, R.string.condition_751);
+        putString(761, R.string.condition_761);
+        putString(762, R.string.condition_762);
+        putString(771, R.string.condition_771);
+        putString(781, R.string.condition_781);
+        putString(800, R.string.condition_800);
+        putString(801, R.string.condition_801);
+        putString(802, R.string.condition_802);
+        putString(803, R.string.condition_803);
+        putString(804, R.string.condition_804);
+        putString(900, R.string.condition_900);
+        putString(901, R.string.condition_901);
+        putString(902, R.string.condition_902);
+        putString(903, R.string.condition_903);
+        putString(904, R.string.condition_904);
+        putString(905, R.string.condition_905);
+        putString(906, R.string.condition_906);
+        putString(951, R.string.condition_951);
+        putString(952, R.string.condition_952);
+        putString(953, R.string.condition_953);
+        putString(954, R.string.condition_954);
+        putString(955, R.string.condition_955);
+        putString(956, R.string.condition_956);
+        putString(957, R.string.condition_957);
+        putString(958, R.string.condition_958);
+        putString(959, R.string.condition_959);
+        putString(960, R.string.condition_960);
+        putString(961, R.string.condition_961);
+        putString(962, R.string.condition_962);
+    }
+
+    private WeatherConditionTable() {
+    }
+
+    private static void putString(int weatherId, int stringId) {
+        STRINGS[weatherId - MIN_STRING_ID] = stringId;
+    }
+
+    /**
+     * @return resource id of the icon, or -1 if the id is unknown.
+     */
+    public static int getIcon(int weatherId) {
+        int condition = WeatherConditions.getConditionIndex(weatherId);
+        return condition == -1 ? -1 : ICONS[condition];
+    }
+
+    /**
+     * @return resource id of the black and white icon, or -1 if the id is unknown.
+     */
+    public static int getBWIcon(int weatherId) {
+        int condition = WeatherConditions.getConditionIndex(weatherId);
+        return condition == -1 ? -1 : BW_ICONS[condition];
+    }
+
+    /**
+     * @return resource id of the art, or -1 if the id is unknown.
+     */
+    public static int getArt(int weatherId) {
+        int condition = WeatherConditions.getConditionIndex(weatherId);
+        return condition == -1 ? -1 : ARTS[condition];
+    }
+
+    /**
+     * @return the name an art pack gives the image of the id, or null if the id is unknown.
+     */
+    public static String getArtName(int weatherId) {
+        int condition = WeatherConditions.getConditionIndex(weatherId);
+        return condition == -1 ? null : ART_NAMES[condition];
+    }
+
+    /**
+     * @return the URL of a photo for the id, or null if the id is unknown.
+     */
+    public static String getImageUrl(int weatherId) {
+        if (weatherId == 781) {
+            return TORNADO_IMAGE_URL;
+        }
+        int condition = WeatherConditions.getConditionIndex(weatherId);
+        return condition == -1 ? null : IMAGE_URLS[condition];
+    }
+
+    /**
+     * @return resource id of the description, or 0 if there is none for the id.
+     */
+    public static int getString(int weatherId) {
+        if (weatherId < MIN_STRING_ID || weatherId > MAX_STRING_ID) {
+            return 0;
+        }
+        return STRINGS[weatherId - MIN_STRING_ID];
+    }
+}
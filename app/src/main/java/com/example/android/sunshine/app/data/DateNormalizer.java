@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.text.format.DateUtils;
+import android.text.format.Time;
+
+import java.util.TimeZone;
+
+/**
+ * Normalizes dates to the start of their local day, the way {@link WeatherContract#normalizeDate}
+ * always has, with arithmetic on the UTC offset instead of a new {@link Time} for every call.
+ *
+ * The default time zone is looked up once and kept until {@link #onTimeZoneChanged()};
+ * TimeZone.getDefault() returns a new copy on every call.
+ */
+public final class DateNormalizer {
+
+    // DST shifts are at most two hours; no transition within this distance of midnight means
+    // local midnight exists exactly once.
+    private static final long TRANSITION_MARGIN = 3 * DateUtils.HOUR_IN_MILLIS;
+
+    private static volatile TimeZone sTimeZone;
+
+    private DateNormalizer() {
+    }
+
+    /**
+     * @return the start of the local day containing the given time, in milliseconds since the
+     * epoch.
+     */
+    public static long normalize(long millis) {
+        TimeZone timeZone = sTimeZone;
+        if (timeZone == null) {
+            timeZone = TimeZone.getDefault();
+            sTimeZone = timeZone;
+        }
+        return normalize(millis, timeZone);
+    }
+
+    /**
+     * Forgets the cached time zone, see {@link TimeZoneChangedReceiver}.
+     */
+    public static void onTimeZoneChanged() {
+        sTimeZone = null;
+    }
+
+    // timeZone has to be the default one, which Time uses for the rare cases
+    static long normalize(long millis, TimeZone timeZone) {
+        int offset = timeZone.getOffset(millis);
+        long localMillis = millis + offset;
+        if (localMillis < 0) {
+            // Time rounds the julian day of these towards zero, leave them to it
+            return normalizeWithTime(millis);
+        }
+        long localMidnight = localMillis - localMillis % DateUtils.DAY_IN_MILLIS;
+
+        // The offset at midnight isn't the one at millis on the day DST starts or ends
+        int midnightOffset = timeZone.getOffset(localMidnight - offset);
+        long midnight = localMidnight - midnightOffset;
+        if (timeZone.getOffset(midnight - TRANSITION_MARGIN) != midnightOffset
+                || timeZone.getOffset(midnight + TRANSITION_MARGIN) != midnightOffset) {
+            // Midnight is skipped or repeated on this day; rare enough to ask Time
+            return normalizeWithTime(millis);
+        }
+        return midnight;
+    }
+
+    // The original implementation, for the cases above.  Time uses the default time zone.
+    static long normalizeWithTime(long millis) {
+        Time time = new Time();
+        time.set(millis);
+        int julianDay = Time.getJulianDay(millis, time.gmtoff);
+        return time.setJulianDay(julianDay);
+    }
+}
@@ -19,7 +19,6 @@ import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
-import android.text.format.Time;
 
 /**
  * Defines table and column names for the weather database.
@@ -48,10 +47,7 @@ public class WeatherContract {
     // the database to the start of the the Julian day at UTC.
     public static long normalizeDate(long startDate) {
         // normalize the start date to the beginning of the (UTC) day
-        Time time = new Time();
-        time.set(startDate);
-        int julianDay = Time.getJulianDay(startDate, time.gmtoff);
-        return time.setJulianDay(julianDay);
+        return DateNormalizer.normalize(startDate);
     }
 
     /* Inner class that defines the table contents of the location table */
@@ -99,6 +95,9 @@ public class WeatherContract {
 
         public static final String TABLE_NAME = "weather";
 
+        // Index on (location_id, date) that also covers the columns of the forecast list
+        public static final String INDEX_LOCATION_DATE = "weather_location_date";
+
         // Column with the foreign key into the location table.
         public static final String COLUMN_LOC_KEY = "location_id";
         // Date, stored as long in milliseconds since the epoch
@@ -126,6 +125,32 @@ public class WeatherContract {
         // Degrees are meteorological degrees (e.g, 0 is north, 180 is south).  Stored as floats.
         public static final String COLUMN_DEGREES = "degrees";
 
+        // Query parameter that makes bulkInsert compare each row to the stored one for the same
+        // date and location, and only write the rows that changed.
+        public static final String PARAM_DIFF = "diff";
+
+        // ContentResolver.call method that stores the forecasts of a sync run in one transaction:
+        // it adds the locations that aren't tracked yet, writes the rows that changed like the
+        // diff bulkInsert, deletes the days that are over, and notifies observers once.
+        public static final String METHOD_SYNC = "sync";
+        // A Bundle with one Bundle per location setting, holding EXTRA_LOCATION_ID or
+        // EXTRA_LOCATION, and EXTRA_WEATHER
+        public static final String EXTRA_FORECASTS = "forecasts";
+        // The row ID of a tracked location
+        public static final String EXTRA_LOCATION_ID = "location_id";
+        // The ContentValues of a location to add
+        public static final String EXTRA_LOCATION = "location";
+        // An ArrayList of ContentValues with the weather rows of the location, without location_id
+        public static final String EXTRA_WEATHER = "weather";
+        // The rows up to this date are deleted
+        public static final String EXTRA_PAST_DATE = "past_date";
+        // In the result: the number of weather rows that were new or changed, and so were written
+        public static final String EXTRA_WRITTEN_COUNT = "written_count";
+        // In the result: a Bundle with the number of rows written per location setting
+        public static final String EXTRA_WRITTEN_COUNTS = "written_counts";
+        // In the result: how long deleting the days that are over took, in milliseconds
+        public static final String EXTRA_DELETE_MILLIS = "delete_millis";
+
         public static Uri buildWeatherUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
@@ -149,6 +174,19 @@ public class WeatherContract {
                     .appendPath(Long.toString(normalizeDate(date))).build();
         }
 
+        /*
+            bulkInsert on this uri returns the number of rows written; the rows that were already
+            stored with the same values are skipped, and observers are only notified when at
+            least one row was written.
+         */
+        public static Uri buildWeatherDiffUri() {
+            return CONTENT_URI.buildUpon().appendQueryParameter(PARAM_DIFF, "true").build();
+        }
+
+        public static boolean isDiffUri(Uri uri) {
+            return uri.getBooleanQueryParameter(PARAM_DIFF, false);
+        }
+
         public static String getLocationSettingFromUri(Uri uri) {
             return uri.getPathSegments().get(1);
         }
@@ -16,8 +16,10 @@
 package com.example.android.sunshine.app.data;
 
 import android.content.Context;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
 
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
@@ -26,14 +28,57 @@ import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
  * Manages a local database for weather data.
  */
 public class WeatherDbHelper extends SQLiteOpenHelper {
+    private static final String LOG_TAG = WeatherDbHelper.class.getSimpleName();
 
     // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    private static final int DATABASE_VERSION = 3;
 
     static final String DATABASE_NAME = "weather.db";
 
+    // Every forecast read looks up one location and walks its days in date order.  The
+    // forecast list, the widgets, Muzei and the notification only need these columns, so
+    // they are answered from the index alone.  The detail view reads a single row and gets
+    // the remaining columns from the table.
+    private static final String SQL_CREATE_WEATHER_LOCATION_DATE_INDEX = "CREATE INDEX " +
+            WeatherEntry.INDEX_LOCATION_DATE + " ON " + WeatherEntry.TABLE_NAME + " (" +
+            WeatherEntry.COLUMN_LOC_KEY + ", " +
+            WeatherEntry.COLUMN_DATE + ", " +
+            WeatherEntry.COLUMN_WEATHER_ID + ", " +
+            WeatherEntry.COLUMN_SHORT_DESC + ", " +
+            WeatherEntry.COLUMN_MAX_TEMP + ", " +
+            WeatherEntry.COLUMN_MIN_TEMP + ");";
+
+    /*
+        One step of the upgrade path: changes the schema of version n into the schema of
+        version n + 1 and keeps the rows.
+     */
+    interface Migration {
+        void migrate(SQLiteDatabase db);
+    }
+
+    // The oldest version whose schema is known.  Nothing records what version 1 created, so
+    // databases older than this start over.
+    private static final int OLDEST_MIGRATED_VERSION = 2;
+
+    // MIGRATIONS[n - OLDEST_MIGRATED_VERSION] upgrades version n, so there is one step per
+    // version below DATABASE_VERSION.  Never change a shipped step, add a new one.
+    private static final Migration[] MIGRATIONS = {
+            // 2 -> 3
+            new Migration() {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    db.execSQL(SQL_CREATE_WEATHER_LOCATION_DATE_INDEX);
+                }
+            }
+    };
+
     public WeatherDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME);
+    }
+
+    // For tests that need a database of their own
+    WeatherDbHelper(Context context, String name) {
+        super(context, name, null, DATABASE_VERSION);
     }
 
     @Override
@@ -81,16 +126,41 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
 
         sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_LOCATION_DATE_INDEX);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
+        // Keep the cached forecast, so the app has something to show before the next sync.
         // Note that this only fires if you change the version number for your database.
         // It does NOT depend on the version number for your application.
-        // If you want to update the schema without wiping data, commenting out the next 2 lines
-        // should be your top priority before modifying this method.
+        // If a step fails, this is still only a cache for online data: start over.
+        if (oldVersion < OLDEST_MIGRATED_VERSION) {
+            Log.i(LOG_TAG, "No upgrade path from version " + oldVersion + ", starting over");
+            recreate(sqLiteDatabase);
+            return;
+        }
+        try {
+            migrate(sqLiteDatabase, oldVersion, newVersion);
+        } catch (SQLException e) {
+            Log.e(LOG_TAG, "Error upgrading from version " + oldVersion + ", starting over", e);
+            recreate(sqLiteDatabase);
+        }
+    }
+
+    @Override
+    public void onDowngrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
+        // There are no steps back; this database is only a cache for online data.
+        recreate(sqLiteDatabase);
+    }
+
+    static void migrate(SQLiteDatabase db, int oldVersion, int newVersion) {
+        for (int version = oldVersion; version < newVersion; version++) {
+            MIGRATIONS[version - OLDEST_MIGRATED_VERSION].migrate(db);
+        }
+    }
+
+    private void recreate(SQLiteDatabase sqLiteDatabase) {
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
         onCreate(sqLiteDatabase);
@@ -20,11 +20,22 @@ import android.content.ContentProvider;
 import android.content.ContentValues;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
 
 public class WeatherProvider extends ContentProvider {
+    private static final String LOG_TAG = WeatherProvider.class.getSimpleName();
 
     // The URI Matcher used by this content provider.
     private static final UriMatcher sUriMatcher = buildUriMatcher();
@@ -68,44 +79,92 @@ public class WeatherProvider extends ContentProvider {
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
 
-    private Cursor getWeatherByLocationSetting(Uri uri, String[] projection, String sortOrder) {
+    //weather.date = ? AND weather.location_id = ?
+    private static final String sDateAndLocationIdSelection =
+            WeatherContract.WeatherEntry.TABLE_NAME +
+                    "." + WeatherContract.WeatherEntry.COLUMN_DATE + " = ? AND " +
+                    WeatherContract.WeatherEntry.TABLE_NAME +
+                    "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? ";
+
+    // Every column of a complete weather row, in the order of the insert statement below
+    private static final String[] sWeatherInsertColumns = {
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES
+    };
+    private static final int INSERT_INDEX_LOC_KEY = 0;
+    private static final int INSERT_INDEX_DATE = 1;
+    // The columns from here on are the forecast of the day, the ones before are its key
+    private static final int INSERT_INDEX_FIRST_VALUE = 2;
+
+    //INSERT INTO weather (location_id, date, ...) VALUES (?, ?, ...)
+    private static final String sWeatherInsertStatement;
+
+    //SELECT _id FROM weather WHERE weather.date = ? AND weather.location_id = ?
+    private static final String sWeatherSelectIdStatement =
+            "SELECT " + WeatherContract.WeatherEntry._ID +
+                    " FROM " + WeatherContract.WeatherEntry.TABLE_NAME +
+                    " WHERE " + sDateAndLocationIdSelection;
+
+    //UPDATE weather SET weather_id = ?, ... WHERE _id = ? AND NOT (weather_id IS ? AND ...)
+    private static final String sWeatherUpdateStatement;
+
+    static{
+        StringBuilder sql = new StringBuilder("INSERT INTO ")
+                .append(WeatherContract.WeatherEntry.TABLE_NAME).append(" (");
+        StringBuilder bindings = new StringBuilder();
+        for (int i = 0; i < sWeatherInsertColumns.length; i++) {
+            sql.append(i > 0 ? ", " : "").append(sWeatherInsertColumns[i]);
+            bindings.append(i > 0 ? ", ?" : "?");
+        }
+        sWeatherInsertStatement = sql.append(") VALUES (").append(bindings).append(")").toString();
+
+        // The update only matches the row if one of its values differs, so an unchanged row
+        // isn't written and doesn't count as changed
+        StringBuilder update = new StringBuilder("UPDATE ")
+                .append(WeatherContract.WeatherEntry.TABLE_NAME).append(" SET ");
+        StringBuilder unchanged = new StringBuilder();
+        for (int i = INSERT_INDEX_FIRST_VALUE; i < sWeatherInsertColumns.length; i++) {
+            update.append(i > INSERT_INDEX_FIRST_VALUE ? ", " : "")
+                    .append(sWeatherInsertColumns[i]).append(" = ?");
+            unchanged.append(i > INSERT_INDEX_FIRST_VALUE ? " AND " : "")
+                    .append(sWeatherInsertColumns[i]).append(" IS ?");
+        }
+        sWeatherUpdateStatement = update.append(" WHERE ").append(WeatherContract.WeatherEntry._ID)
+                .append(" = ? AND NOT (").append(unchanged).append(")").toString();
+    }
+
+    private static String[] getWeatherByLocationSettingSelectionArgs(Uri uri) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
 
-        String[] selectionArgs;
-        String selection;
-
         if (startDate == 0) {
-            selection = sLocationSettingSelection;
-            selectionArgs = new String[]{locationSetting};
+            return new String[]{locationSetting};
         } else {
-            selectionArgs = new String[]{locationSetting, Long.toString(startDate)};
-            selection = sLocationSettingWithStartDateSelection;
+            return new String[]{locationSetting, Long.toString(startDate)};
         }
+    }
 
-        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
-                projection,
-                selection,
-                selectionArgs,
-                null,
-                null,
-                sortOrder
-        );
+    private static String getWeatherByLocationSettingSelection(Uri uri) {
+        if (WeatherContract.WeatherEntry.getStartDateFromUri(uri) == 0) {
+            return sLocationSettingSelection;
+        } else {
+            return sLocationSettingWithStartDateSelection;
+        }
     }
 
-    private Cursor getWeatherByLocationSettingAndDate(
-            Uri uri, String[] projection, String sortOrder) {
+    private static String[] getWeatherByLocationSettingAndDateSelectionArgs(Uri uri) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long date = WeatherContract.WeatherEntry.getDateFromUri(uri);
 
-        return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
-                projection,
-                sLocationSettingAndDaySelection,
-                new String[]{locationSetting, Long.toString(date)},
-                null,
-                null,
-                sortOrder
-        );
+        return new String[]{locationSetting, Long.toString(date)};
     }
 
     /*
@@ -174,53 +233,57 @@ public class WeatherProvider extends ContentProvider {
                         String sortOrder) {
         // Here's the switch statement that, given a URI, will determine what kind of request it is,
         // and query the database accordingly.
-        Cursor retCursor;
         switch (sUriMatcher.match(uri)) {
             // "weather/*/*"
             case WEATHER_WITH_LOCATION_AND_DATE:
             {
-                retCursor = getWeatherByLocationSettingAndDate(uri, projection, sortOrder);
+                selectionArgs = getWeatherByLocationSettingAndDateSelectionArgs(uri);
                 break;
             }
             // "weather/*"
             case WEATHER_WITH_LOCATION: {
-                retCursor = getWeatherByLocationSetting(uri, projection, sortOrder);
+                selectionArgs = getWeatherByLocationSettingSelectionArgs(uri);
                 break;
             }
-            // "weather"
-            case WEATHER: {
-                retCursor = mOpenHelper.getReadableDatabase().query(
-                        WeatherContract.WeatherEntry.TABLE_NAME,
-                        projection,
-                        selection,
-                        selectionArgs,
-                        null,
-                        null,
-                        sortOrder
-                );
-                break;
-            }
-            // "location"
-            case LOCATION: {
-                retCursor = mOpenHelper.getReadableDatabase().query(
-                        WeatherContract.LocationEntry.TABLE_NAME,
-                        projection,
-                        selection,
-                        selectionArgs,
-                        null,
-                        null,
-                        sortOrder
-                );
+            // "weather" and "location" take the selection as given
+            case WEATHER:
+            case LOCATION:
                 break;
-            }
 
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
+        Cursor retCursor = mOpenHelper.getReadableDatabase().rawQuery(
+                buildQuery(uri, projection, selection, sortOrder), selectionArgs);
         retCursor.setNotificationUri(getContext().getContentResolver(), uri);
         return retCursor;
     }
 
+    /*
+        Returns the SQL that query() runs for the given uri, which is also what the tests check
+        the query plan of.  The selection arguments aren't part of it.
+     */
+    static String buildQuery(Uri uri, String[] projection, String selection, String sortOrder) {
+        switch (sUriMatcher.match(uri)) {
+            case WEATHER_WITH_LOCATION_AND_DATE:
+                return sWeatherByLocationSettingQueryBuilder.buildQuery(projection,
+                        sLocationSettingAndDaySelection, null, null, sortOrder, null);
+            case WEATHER_WITH_LOCATION:
+                return sWeatherByLocationSettingQueryBuilder.buildQuery(projection,
+                        getWeatherByLocationSettingSelection(uri), null, null, sortOrder, null);
+            case WEATHER:
+                return SQLiteQueryBuilder.buildQueryString(false,
+                        WeatherContract.WeatherEntry.TABLE_NAME, projection, selection,
+                        null, null, sortOrder, null);
+            case LOCATION:
+                return SQLiteQueryBuilder.buildQueryString(false,
+                        WeatherContract.LocationEntry.TABLE_NAME, projection, selection,
+                        null, null, sortOrder, null);
+            default:
+                throw new UnsupportedOperationException("Unknown uri: " + uri);
+        }
+    }
+
     /*
         Student: Add the ability to insert Locations to the implementation of this function.
      */
@@ -281,7 +344,7 @@ public class WeatherProvider extends ContentProvider {
         return rowsDeleted;
     }
 
-    private void normalizeDate(ContentValues values) {
+    private static void normalizeDate(ContentValues values) {
         // normalize the date value
         if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
             long dateValue = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
@@ -321,20 +384,15 @@ public class WeatherProvider extends ContentProvider {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case WEATHER:
-                db.beginTransaction();
-                int returnCount = 0;
-                try {
-                    for (ContentValues value : values) {
-                        normalizeDate(value);
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
-                        if (_id != -1) {
-                            returnCount++;
-                        }
+                if (WeatherContract.WeatherEntry.isDiffUri(uri)) {
+                    int writtenCount = upsertWeather(db, values);
+                    if (writtenCount != 0) {
+                        getContext().getContentResolver().notifyChange(
+                                WeatherContract.WeatherEntry.CONTENT_URI, null);
                     }
-                    db.setTransactionSuccessful();
-                } finally {
-                    db.endTransaction();
+                    return writtenCount;
                 }
+                int returnCount = insertWeather(db, values);
                 getContext().getContentResolver().notifyChange(uri, null);
                 return returnCount;
             default:
@@ -342,6 +400,322 @@ public class WeatherProvider extends ContentProvider {
         }
     }
 
+    /*
+        Inserts the weather rows in one transaction through a single compiled statement, which
+        is bound by column index for every complete row instead of building a new INSERT from
+        each ContentValues.  Rows that don't hold exactly the weather columns go through
+        db.insert as before.
+        Returns the number of rows inserted.
+     */
+    private int insertWeather(SQLiteDatabase db, ContentValues[] values) {
+        int returnCount = 0;
+        db.beginTransaction();
+        SQLiteStatement insert = db.compileStatement(sWeatherInsertStatement);
+        try {
+            for (ContentValues value : values) {
+                if (!isCompleteWeatherRow(value)) {
+                    normalizeDate(value);
+                    if (db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value) != -1) {
+                        returnCount++;
+                    }
+                    continue;
+                }
+                for (int i = 0; i < sWeatherInsertColumns.length; i++) {
+                    if (i == INSERT_INDEX_DATE) {
+                        Long date = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+                        if (date != null) {
+                            insert.bindLong(i + 1, WeatherContract.normalizeDate(date));
+                            continue;
+                        }
+                    }
+                    DatabaseUtils.bindObjectToProgram(insert, i + 1, value.get(sWeatherInsertColumns[i]));
+                }
+                try {
+                    if (insert.executeInsert() != -1) {
+                        returnCount++;
+                    }
+                } catch (SQLException e) {
+                    // Same as db.insert: report the bad row and go on with the others
+                    Log.e(LOG_TAG, "Error inserting " + value, e);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            insert.close();
+            db.endTransaction();
+        }
+        return returnCount;
+    }
+
+    private static boolean isCompleteWeatherRow(ContentValues value) {
+        if (value.size() != sWeatherInsertColumns.length) {
+            return false;
+        }
+        for (String column : sWeatherInsertColumns) {
+            if (!value.containsKey(column)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+        Writes the weather rows that are new or differ from the stored row for the same date and
+        location, in one transaction.  Unlike the plain insert, which replaces the stored row on
+        the unique (date, location_id) constraint, a changed row is updated in place so it keeps
+        its _id, and an unchanged row isn't touched at all.
+        Returns the number of rows written.
+     */
+    private int upsertWeather(SQLiteDatabase db, ContentValues[] values) {
+        int writtenCount = 0;
+        db.beginTransaction();
+        WeatherUpsert upsert = new WeatherUpsert(db);
+        try {
+            for (ContentValues value : values) {
+                if (upsert.write(value)) {
+                    writtenCount++;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            upsert.close();
+            db.endTransaction();
+        }
+        return writtenCount;
+    }
+
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (WeatherContract.WeatherEntry.METHOD_SYNC.equals(method)) {
+            return syncForecasts(extras);
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /*
+        Stores the forecasts of a sync run in one transaction: adds the locations that aren't in
+        the location table yet, writes the weather rows that are new or changed like the diff
+        bulkInsert, and deletes the days that are over.  Observers are notified once at the end,
+        and only if something changed.
+     */
+    private Bundle syncForecasts(Bundle extras) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        Bundle forecasts = extras.getBundle(WeatherContract.WeatherEntry.EXTRA_FORECASTS);
+        Bundle writtenCounts = new Bundle();
+        int writtenCount = 0;
+        int rowsDeleted;
+        long deleteMillis;
+        boolean locationAdded = false;
+        db.beginTransaction();
+        WeatherUpsert upsert = new WeatherUpsert(db);
+        try {
+            for (String locationSetting : forecasts.keySet()) {
+                Bundle forecast = forecasts.getBundle(locationSetting);
+                long locationId;
+                if (forecast.containsKey(WeatherContract.WeatherEntry.EXTRA_LOCATION_ID)) {
+                    locationId = forecast.getLong(WeatherContract.WeatherEntry.EXTRA_LOCATION_ID);
+                } else {
+                    locationId = queryLocationId(db, locationSetting);
+                    if (locationId == -1) {
+                        ContentValues location =
+                                forecast.getParcelable(WeatherContract.WeatherEntry.EXTRA_LOCATION);
+                        locationId = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, location);
+                        if (locationId == -1) {
+                            throw new SQLException("Failed to insert location " + locationSetting);
+                        }
+                        locationAdded = true;
+                    }
+                }
+
+                ArrayList<ContentValues> values =
+                        forecast.getParcelableArrayList(WeatherContract.WeatherEntry.EXTRA_WEATHER);
+                int locationWrittenCount = 0;
+                for (ContentValues value : values) {
+                    value.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
+                    if (upsert.write(value)) {
+                        locationWrittenCount++;
+                    }
+                }
+                writtenCounts.putInt(locationSetting, locationWrittenCount);
+                writtenCount += locationWrittenCount;
+            }
+
+            // delete old data so we don't build up an endless history
+            long pastDate = extras.getLong(WeatherContract.WeatherEntry.EXTRA_PAST_DATE);
+            long deleteStart = SystemClock.elapsedRealtime();
+            rowsDeleted = db.delete(WeatherContract.WeatherEntry.TABLE_NAME,
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
+                    new String[]{Long.toString(pastDate)});
+            deleteMillis = SystemClock.elapsedRealtime() - deleteStart;
+            db.setTransactionSuccessful();
+        } finally {
+            upsert.close();
+            db.endTransaction();
+        }
+
+        if (locationAdded) {
+            // The base uri covers the observers of both tables
+            getContext().getContentResolver().notifyChange(WeatherContract.BASE_CONTENT_URI, null);
+        } else if (writtenCount != 0 || rowsDeleted != 0) {
+            getContext().getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+        }
+        Bundle result = new Bundle();
+        result.putInt(WeatherContract.WeatherEntry.EXTRA_WRITTEN_COUNT, writtenCount);
+        result.putBundle(WeatherContract.WeatherEntry.EXTRA_WRITTEN_COUNTS, writtenCounts);
+        result.putLong(WeatherContract.WeatherEntry.EXTRA_DELETE_MILLIS, deleteMillis);
+        return result;
+    }
+
+    // Returns the row ID of the location, or -1 if it's not tracked
+    private static long queryLocationId(SQLiteDatabase db, String locationSetting) {
+        Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry._ID},
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting},
+                null,
+                null,
+                null);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /*
+        Writes weather rows that are new or changed, through statements that are compiled once
+        per transaction and bound by column index.  Rows that don't hold exactly the weather
+        columns are looked up and written through ContentValues instead.
+     */
+    private static final class WeatherUpsert {
+        private static final int UPDATE_VALUE_COUNT =
+                sWeatherInsertColumns.length - INSERT_INDEX_FIRST_VALUE;
+
+        private final SQLiteDatabase mDb;
+        private final SQLiteStatement mSelectId;
+        private final SQLiteStatement mInsert;
+        private final SQLiteStatement mUpdate;
+
+        WeatherUpsert(SQLiteDatabase db) {
+            mDb = db;
+            mSelectId = db.compileStatement(sWeatherSelectIdStatement);
+            mInsert = db.compileStatement(sWeatherInsertStatement);
+            mUpdate = db.compileStatement(sWeatherUpdateStatement);
+        }
+
+        // Returns true if the row was new or changed, and so was written
+        boolean write(ContentValues value) {
+            normalizeDate(value);
+            Long date = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+            Long locationId = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+            if (date == null || locationId == null) {
+                // Nothing to compare against, leave it to the table constraints
+                return mDb.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value) != -1;
+            }
+            if (!isCompleteWeatherRow(value)) {
+                return writeValues(value, date, locationId);
+            }
+
+            long rowId;
+            mSelectId.bindLong(1, date);
+            mSelectId.bindLong(2, locationId);
+            try {
+                rowId = mSelectId.simpleQueryForLong();
+            } catch (SQLiteDoneException e) {
+                // No row for this date and location yet
+                mInsert.bindLong(INSERT_INDEX_LOC_KEY + 1, locationId);
+                mInsert.bindLong(INSERT_INDEX_DATE + 1, date);
+                for (int i = INSERT_INDEX_FIRST_VALUE; i < sWeatherInsertColumns.length; i++) {
+                    DatabaseUtils.bindObjectToProgram(mInsert, i + 1, value.get(sWeatherInsertColumns[i]));
+                }
+                try {
+                    return mInsert.executeInsert() != -1;
+                } catch (SQLException insertException) {
+                    // Same as db.insert: report the bad row and go on with the others
+                    Log.e(LOG_TAG, "Error inserting " + value, insertException);
+                    return false;
+                }
+            }
+
+            // SET binds the values first, then comes the _id, then the values again to compare
+            for (int i = 0; i < UPDATE_VALUE_COUNT; i++) {
+                Object columnValue = value.get(sWeatherInsertColumns[INSERT_INDEX_FIRST_VALUE + i]);
+                DatabaseUtils.bindObjectToProgram(mUpdate, i + 1, columnValue);
+                DatabaseUtils.bindObjectToProgram(mUpdate, UPDATE_VALUE_COUNT + 2 + i, columnValue);
+            }
+            mUpdate.bindLong(UPDATE_VALUE_COUNT + 1, rowId);
+            return mUpdate.executeUpdateDelete() != 0;
+        }
+
+        private boolean writeValues(ContentValues value, long date, long locationId) {
+            String[] projection = new String[value.size() + 1];
+            projection[0] = WeatherContract.WeatherEntry._ID;
+            int i = 1;
+            for (String column : value.keySet()) {
+                projection[i++] = column;
+            }
+            Cursor cursor = mDb.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                    projection,
+                    sDateAndLocationIdSelection,
+                    new String[]{Long.toString(date), Long.toString(locationId)},
+                    null,
+                    null,
+                    null);
+            try {
+                if (!cursor.moveToFirst()) {
+                    return mDb.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value) != -1;
+                } else if (!matchesCurrentRow(cursor, value)) {
+                    mDb.update(WeatherContract.WeatherEntry.TABLE_NAME, value,
+                            WeatherContract.WeatherEntry._ID + " = ?",
+                            new String[]{Long.toString(cursor.getLong(0))});
+                    return true;
+                }
+                return false;
+            } finally {
+                cursor.close();
+            }
+        }
+
+        void close() {
+            mSelectId.close();
+            mInsert.close();
+            mUpdate.close();
+        }
+    }
+
+    // True if every value equals the one stored in the current row of the cursor
+    private static boolean matchesCurrentRow(Cursor cursor, ContentValues values) {
+        for (String column : values.keySet()) {
+            int index = cursor.getColumnIndex(column);
+            Object value = values.get(column);
+            if (value == null || cursor.isNull(index)) {
+                if (value != null || !cursor.isNull(index)) {
+                    return false;
+                }
+            } else if (value instanceof Float || value instanceof Double
+                    || (value instanceof Number && cursor.getType(index) == Cursor.FIELD_TYPE_FLOAT)) {
+                if (cursor.getDouble(index) != ((Number) value).doubleValue()) {
+                    return false;
+                }
+            } else if (value instanceof Number) {
+                if (cursor.getLong(index) != ((Number) value).longValue()) {
+                    return false;
+                }
+            } else if (value instanceof Boolean) {
+                if ((cursor.getInt(index) != 0) != (Boolean) value) {
+                    return false;
+                }
+            } else if (value instanceof byte[]) {
+                if (!Arrays.equals(cursor.getBlob(index), (byte[]) value)) {
+                    return false;
+                }
+            } else if (!value.toString().equals(cursor.getString(index))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
@@ -0,0 +1,267 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Base64;
+import android.util.Log;
+
+import com.example.android.sunshine.app.wear.WeatherPayload;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Picks the period of the next syncs from what the last ones found.
+ *
+ * The period grows while syncs keep finding the same forecast, shrinks while the weather or the
+ * temperatures of the next days keep moving, and doubles with every sync in a row that couldn't
+ * reach the server.  Every decision is kept in a short log, see {@link #getDecisions}.
+ *
+ * The state lives in its own preference file, like the {@link ForecastValidatorCache}.
+ */
+class AdaptiveSyncScheduler {
+    private static final String LOG_TAG = AdaptiveSyncScheduler.class.getSimpleName();
+
+    private static final String PREFS_NAME = "sync_schedule";
+
+    private static final String KEY_INTERVAL = "interval";
+    private static final String KEY_SCHEDULED_INTERVAL = "scheduled_interval";
+    private static final String KEY_UNCHANGED_COUNT = "unchanged_count";
+    private static final String KEY_FAILURE_COUNT = "failure_count";
+    private static final String KEY_LOCATION = "location";
+    private static final String KEY_FORECAST = "forecast";
+    private static final String KEY_DECISIONS = "decisions";
+
+    // What the account is set up with, and where a new location starts
+    static final int BASE_INTERVAL_SECONDS = SunshineSyncAdapter.SYNC_INTERVAL;
+    static final int MIN_INTERVAL_SECONDS = 60 * 60;
+    static final int MAX_INTERVAL_SECONDS = 60 * 60 * 12;
+    // Longest wait for a server that keeps failing
+    static final int MAX_BACKOFF_SECONDS = 60 * 60 * 24;
+    // The period grows once this many syncs in a row found nothing new
+    static final int UNCHANGED_SYNCS_TO_GROW = 2;
+    // Only the next days tell whether the weather is moving, the far end of the forecast always is
+    static final int WATCHED_DAYS = 3;
+    // Smallest move of a high or a low that counts, in degrees Celsius as the forecast is stored
+    static final int TEMPERATURE_STEP = 2;
+    static final int MAX_DECISIONS = 20;
+
+    /**
+     * The period picked after one sync, and why.
+     */
+    static final class Decision {
+        final long time;
+        final int intervalSeconds;
+        final String reason;
+
+        Decision(long time, int intervalSeconds, String reason) {
+            this.time = time;
+            this.intervalSeconds = intervalSeconds;
+            this.reason = reason;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%tF %<tT %4d min, %s", time, intervalSeconds / 60,
+                    reason);
+        }
+
+        String encode() {
+            return time + " " + intervalSeconds + " " + reason;
+        }
+
+        static Decision decode(String line) {
+            int first = line.indexOf(' ');
+            int second = line.indexOf(' ', first + 1);
+            return new Decision(Long.parseLong(line.substring(0, first)),
+                    Integer.parseInt(line.substring(first + 1, second)), line.substring(second + 1));
+        }
+    }
+
+    private final SharedPreferences mPrefs;
+
+    // The period while the server answers
+    private int mInterval;
+    // The period the sync adapter was last set up with
+    private int mScheduledInterval;
+    private int mUnchangedCount;
+    private int mFailureCount;
+    private String mLocation;
+    // The last forecast of mLocation that a sync wrote, null if there is none yet
+    private WeatherPayload mForecast;
+    private final List<Decision> mDecisions = new ArrayList<Decision>();
+
+    AdaptiveSyncScheduler(Context context) {
+        this(context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE));
+    }
+
+    AdaptiveSyncScheduler(SharedPreferences prefs) {
+        mPrefs = prefs;
+        mInterval = prefs.getInt(KEY_INTERVAL, BASE_INTERVAL_SECONDS);
+        mScheduledInterval = prefs.getInt(KEY_SCHEDULED_INTERVAL, BASE_INTERVAL_SECONDS);
+        mUnchangedCount = prefs.getInt(KEY_UNCHANGED_COUNT, 0);
+        mFailureCount = prefs.getInt(KEY_FAILURE_COUNT, 0);
+        mLocation = prefs.getString(KEY_LOCATION, null);
+        mForecast = decodeForecast(prefs.getString(KEY_FORECAST, null));
+        String decisions = prefs.getString(KEY_DECISIONS, null);
+        if (decisions != null && decisions.length() > 0) {
+            for (String line : decisions.split("\n")) {
+                mDecisions.add(Decision.decode(line));
+            }
+        }
+    }
+
+    /**
+     * Picks the period of the next syncs.
+     *
+     * @param now            the wall clock time, for the log.
+     * @param location       the location query of the sync.
+     * @param locationStatus how the sync went for the location.
+     * @param forecast       the location's forecast if the sync wrote a new one, null if the
+     *                       server sent the stored one again or couldn't be reached.
+     * @return the decision, which is also added to the log.
+     */
+    Decision onSyncFinished(long now, String location,
+                            @SunshineSyncAdapter.LocationStatus int locationStatus,
+                            WeatherPayload forecast) {
+        String reason;
+        if (locationStatus == SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN) {
+            mFailureCount++;
+            reason = "server down x" + mFailureCount;
+        } else {
+            mFailureCount = 0;
+            if (!location.equals(mLocation)) {
+                // Nothing to compare with yet
+                mLocation = location;
+                mForecast = forecast;
+                mInterval = BASE_INTERVAL_SECONDS;
+                mUnchangedCount = 0;
+                reason = "new location";
+            } else if (locationStatus != SunshineSyncAdapter.LOCATION_STATUS_OK) {
+                // Syncing more or less often doesn't fix the location or the answers of OWM
+                reason = "location status " + locationStatus;
+            } else if (forecast != null && mForecast == null) {
+                mForecast = forecast;
+                reason = "first forecast";
+            } else {
+                int movingDays = forecast == null ? 0 : countMovingDays(mForecast, forecast);
+                if (forecast != null) {
+                    mForecast = forecast;
+                }
+                if (movingDays > 0) {
+                    mUnchangedCount = 0;
+                    mInterval = Math.max(MIN_INTERVAL_SECONDS, mInterval / 2);
+                    reason = movingDays + " days moving";
+                } else {
+                    mUnchangedCount++;
+                    if (mUnchangedCount >= UNCHANGED_SYNCS_TO_GROW) {
+                        mInterval = Math.min(MAX_INTERVAL_SECONDS, mInterval * 3 / 2);
+                    }
+                    reason = "unchanged x" + mUnchangedCount;
+                }
+            }
+        }
+
+        int interval = mInterval;
+        if (mFailureCount > 0) {
+            interval = (int) Math.min(MAX_BACKOFF_SECONDS,
+                    (long) mInterval << Math.min(mFailureCount, 16));
+        }
+        mScheduledInterval = interval;
+
+        Decision decision = new Decision(now, interval, reason);
+        mDecisions.add(decision);
+        while (mDecisions.size() > MAX_DECISIONS) {
+            mDecisions.remove(0);
+        }
+        save();
+        Log.d(LOG_TAG, decision.toString());
+        return decision;
+    }
+
+    /**
+     * Forgets everything the syncs found, for an account that was just set up with
+     * {@link #BASE_INTERVAL_SECONDS}.
+     */
+    void reset() {
+        mInterval = BASE_INTERVAL_SECONDS;
+        mScheduledInterval = BASE_INTERVAL_SECONDS;
+        mUnchangedCount = 0;
+        mFailureCount = 0;
+        mLocation = null;
+        mForecast = null;
+        mDecisions.clear();
+        mPrefs.edit().clear().apply();
+    }
+
+    /**
+     * @return the period the sync adapter was last set up with.
+     */
+    int getScheduledInterval() {
+        return mScheduledInterval;
+    }
+
+    /**
+     * @return the last decisions, oldest first.
+     */
+    List<Decision> getDecisions() {
+        return Collections.unmodifiableList(mDecisions);
+    }
+
+    /**
+     * @return how many of the next days of the current forecast moved by a different weather
+     * or by {@link #TEMPERATURE_STEP} degrees since the previous one.
+     */
+    static int countMovingDays(WeatherPayload previous, WeatherPayload current) {
+        int moving = 0;
+        int days = Math.min(WATCHED_DAYS, current.getDayCount());
+        for (int i = 0; i < days; i++) {
+            int previousIndex = previous.indexOfDay(current.getFirstDay() + i);
+            if (previousIndex == -1) {
+                // A day the previous forecast didn't cover isn't a move
+                continue;
+            }
+            if (current.getWeatherId(i) != previous.getWeatherId(previousIndex)
+                    || Math.abs(current.getHigh(i) - previous.getHigh(previousIndex)) >= TEMPERATURE_STEP
+                    || Math.abs(current.getLow(i) - previous.getLow(previousIndex)) >= TEMPERATURE_STEP) {
+                moving++;
+            }
+        }
+        return moving;
+    }
+
+    private void save() {
+        StringBuilder decisions = new StringBuilder();
+        for (Decision decision : mDecisions) {
+            if (decisions.length() > 0) {
+                decisions.append('\n');
+            }
+            decisions.append(decision.encode());
+        }
+        mPrefs.edit()
+                .putInt(KEY_INTERVAL, mInterval)
+                .putInt(KEY_SCHEDULED_INTERVAL, mScheduledInterval)
+                .putInt(KEY_UNCHANGED_COUNT, mUnchangedCount)
+                .putInt(KEY_FAILURE_COUNT, mFailureCount)
+                .putString(KEY_LOCATION, mLocation)
+                .putString(KEY_FORECAST, mForecast == null
+                        ? null : Base64.encodeToString(mForecast.encode(), Base64.NO_WRAP))
+                .putString(KEY_DECISIONS, decisions.toString())
+                .apply();
+    }
+
+    private static WeatherPayload decodeForecast(String encoded) {
+        if (encoded == null) {
+            return null;
+        }
+        try {
+            return WeatherPayload.decode(Base64.decode(encoded, Base64.NO_WRAP));
+        } catch (IllegalArgumentException e) {
+            // Compared with the next forecast like the first one
+            Log.w(LOG_TAG, "Can't read the last forecast", e);
+            return null;
+        }
+    }
+}
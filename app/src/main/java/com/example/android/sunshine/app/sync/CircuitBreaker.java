@@ -0,0 +1,109 @@
+package com.example.android.sunshine.app.sync;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stops requests to an endpoint that keeps failing.
+ *
+ * After {@link #FAILURE_THRESHOLD} failures in a row the breaker opens and turns every request
+ * down without touching the network.  Once {@link #OPEN_MILLIS} passed it lets one request
+ * through: a success closes it again, a failure keeps it open for another while.
+ *
+ * There is one breaker per endpoint and process, shared by the downloads of every location.
+ */
+class CircuitBreaker {
+    private static final String LOG_TAG = CircuitBreaker.class.getSimpleName();
+
+    static final int FAILURE_THRESHOLD = 5;
+    static final long OPEN_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    static final int STATE_CLOSED = 0;
+    static final int STATE_OPEN = 1;
+    // One request is on its way to find out whether the endpoint is back
+    static final int STATE_HALF_OPEN = 2;
+
+    private static final Map<String, CircuitBreaker> sBreakers = new HashMap<String, CircuitBreaker>();
+
+    /**
+     * Thrown instead of making a request while the breaker is open.
+     */
+    static class OpenException extends IOException {
+        OpenException(String endpoint) {
+            super("Not calling " + endpoint + ", it failed too often");
+        }
+    }
+
+    private final int mFailureThreshold;
+    private final long mOpenMillis;
+
+    // Guarded by this
+    private int mState = STATE_CLOSED;
+    private int mFailureCount;
+    private long mOpenedAt;
+
+    static synchronized CircuitBreaker forEndpoint(String endpoint) {
+        CircuitBreaker breaker = sBreakers.get(endpoint);
+        if (breaker == null) {
+            breaker = new CircuitBreaker(FAILURE_THRESHOLD, OPEN_MILLIS);
+            sBreakers.put(endpoint, breaker);
+        }
+        return breaker;
+    }
+
+    CircuitBreaker(int failureThreshold, long openMillis) {
+        mFailureThreshold = failureThreshold;
+        mOpenMillis = openMillis;
+    }
+
+    /**
+     * @return true if a request may go out; it must be followed by {@link #onSuccess} or
+     * {@link #onFailure}.
+     */
+    synchronized boolean allowRequest() {
+        if (mState == STATE_CLOSED) {
+            return true;
+        }
+        // A trial request that never reported back doesn't keep the breaker half open for good
+        if (SystemClock.elapsedRealtime() - mOpenedAt >= mOpenMillis) {
+            mState = STATE_HALF_OPEN;
+            mOpenedAt = SystemClock.elapsedRealtime();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Records that the endpoint answered, even if the answer was an error of the request.
+     */
+    synchronized void onSuccess() {
+        if (mState != STATE_CLOSED) {
+            Log.i(LOG_TAG, "Endpoint is back, closing");
+        }
+        mState = STATE_CLOSED;
+        mFailureCount = 0;
+    }
+
+    /**
+     * Records that the endpoint couldn't be reached or failed on its side.
+     */
+    synchronized void onFailure() {
+        mFailureCount++;
+        if (mState == STATE_HALF_OPEN || mFailureCount >= mFailureThreshold) {
+            if (mState == STATE_CLOSED) {
+                Log.w(LOG_TAG, mFailureCount + " failures in a row, opening");
+            }
+            mState = STATE_OPEN;
+            mOpenedAt = SystemClock.elapsedRealtime();
+        }
+    }
+
+    synchronized int getState() {
+        return mState;
+    }
+}
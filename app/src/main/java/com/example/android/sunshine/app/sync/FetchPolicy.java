@@ -0,0 +1,51 @@
+package com.example.android.sunshine.app.sync;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How long a forecast download may take, and how often and how soon it's tried again after it
+ * failed on the way.
+ *
+ * The wait before a retry is picked at random between none and a bound that doubles with every
+ * retry, so that the downloads of several locations that failed together don't come back at the
+ * same moment.
+ */
+final class FetchPolicy {
+
+    static final FetchPolicy DEFAULT = new FetchPolicy(
+            (int) TimeUnit.SECONDS.toMillis(15),
+            (int) TimeUnit.SECONDS.toMillis(30),
+            3,
+            TimeUnit.SECONDS.toMillis(1),
+            TimeUnit.SECONDS.toMillis(10),
+            new Random());
+
+    final int connectTimeoutMillis;
+    final int readTimeoutMillis;
+    // Including the first one
+    final int maxAttempts;
+    final long baseBackoffMillis;
+    final long maxBackoffMillis;
+    private final Random mRandom;
+
+    FetchPolicy(int connectTimeoutMillis, int readTimeoutMillis, int maxAttempts,
+                long baseBackoffMillis, long maxBackoffMillis, Random random) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+        this.maxAttempts = maxAttempts;
+        this.baseBackoffMillis = baseBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        mRandom = random;
+    }
+
+    /**
+     * @param retry 1 for the wait before the second attempt, and so on.
+     * @return how long to wait before the retry, at most {@link #maxBackoffMillis}.
+     */
+    long getBackoffMillis(int retry) {
+        long bound = Math.min(maxBackoffMillis, baseBackoffMillis << Math.min(retry - 1, 30));
+        // Random is thread safe, the downloads run on several threads
+        return (long) (mRandom.nextDouble() * (bound + 1));
+    }
+}
@@ -0,0 +1,350 @@
+package com.example.android.sunshine.app.sync;
+
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.sunshine.app.BuildConfig;
+
+import org.json.JSONException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.URL;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Downloads and parses the 14 day forecast of one location.
+ *
+ * The request is made conditional on the validators of the last forecast stored for the same
+ * location query: a 304 answer is not parsed at all, and a 200 answer whose payload hashes to
+ * the stored value is reported as unchanged so that nothing downstream has to run.
+ *
+ * Every attempt is bounded by the timeouts of the {@link FetchPolicy}.  An attempt that fails on
+ * the way or gets a 5xx or 429 answer is tried again after a jittered backoff, as long as the
+ * {@link CircuitBreaker} of the endpoint lets requests through.
+ */
+class ForecastFetcher {
+    private static final String LOG_TAG = ForecastFetcher.class.getSimpleName();
+
+    // Construct the URL for the OpenWeatherMap query
+    // Possible parameters are avaiable at OWM's forecast API page, at
+    // http://openweathermap.org/API#forecast
+    static final String FORECAST_BASE_URL =
+            "http://api.openweathermap.org/data/2.5/forecast/daily?";
+
+    private static final String QUERY_PARAM = "q";
+    private static final String FORMAT_PARAM = "mode";
+    private static final String UNITS_PARAM = "units";
+    private static final String DAYS_PARAM = "cnt";
+    private static final String APPID_PARAM = "APPID";
+
+    private static final String FORMAT = "json";
+    private static final String UNITS = "metric";
+    private static final int NUM_DAYS = 14;
+
+    private static final String HASH_ALGORITHM = "SHA-1";
+
+    // A new forecast was parsed and has to be stored
+    static final int STATUS_OK = 0;
+    // The server answered with an empty body
+    static final int STATUS_EMPTY = 1;
+    // The server answered 304, nothing was parsed
+    static final int STATUS_NOT_MODIFIED = 2;
+    // The server sent the exact payload that is already stored
+    static final int STATUS_UNCHANGED = 3;
+
+    // Not in HttpURLConnection
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+
+    /**
+     * Thrown for an error answer of the server.
+     */
+    static class HttpStatusException extends IOException {
+        final int code;
+
+        HttpStatusException(int code) {
+            super("HTTP " + code);
+            this.code = code;
+        }
+
+        /**
+         * @return true if the same request may succeed later.
+         */
+        boolean isTransient() {
+            return code >= HttpURLConnection.HTTP_INTERNAL_ERROR || code == HTTP_TOO_MANY_REQUESTS;
+        }
+    }
+
+    static final class Result {
+        private final int mStatus;
+        private final ForecastJsonParser mParser;
+        private final ForecastValidatorCache.Validators mValidators;
+
+        Result(int status, ForecastJsonParser parser, ForecastValidatorCache.Validators validators) {
+            mStatus = status;
+            mParser = parser;
+            mValidators = validators;
+        }
+
+        int getStatus() {
+            return mStatus;
+        }
+
+        /**
+         * @return the parsed forecast for STATUS_OK and STATUS_UNCHANGED, null otherwise.
+         */
+        ForecastJsonParser getParser() {
+            return mParser;
+        }
+
+        /**
+         * @return the validators to store once the forecast has been written.
+         */
+        ForecastValidatorCache.Validators getValidators() {
+            return mValidators;
+        }
+    }
+
+    private final String mBaseUrl;
+    private final ForecastValidatorCache mValidatorCache;
+    // Null unless the stages of every download are timed
+    private final SyncTrace mTrace;
+    private final FetchPolicy mPolicy;
+    private final CircuitBreaker mCircuitBreaker;
+
+    /**
+     * @param trace gets the network stages of every download, or null to not time them.
+     */
+    ForecastFetcher(ForecastValidatorCache validatorCache, SyncTrace trace) {
+        this(FORECAST_BASE_URL, validatorCache, trace);
+    }
+
+    ForecastFetcher(String baseUrl, ForecastValidatorCache validatorCache) {
+        this(baseUrl, validatorCache, null);
+    }
+
+    ForecastFetcher(String baseUrl, ForecastValidatorCache validatorCache, SyncTrace trace) {
+        this(baseUrl, validatorCache, trace, FetchPolicy.DEFAULT,
+                CircuitBreaker.forEndpoint(baseUrl));
+    }
+
+    ForecastFetcher(String baseUrl, ForecastValidatorCache validatorCache, SyncTrace trace,
+                    FetchPolicy policy, CircuitBreaker circuitBreaker) {
+        mBaseUrl = baseUrl;
+        mValidatorCache = validatorCache;
+        mTrace = trace;
+        mPolicy = policy;
+        mCircuitBreaker = circuitBreaker;
+    }
+
+    /**
+     * @param locationQuery  the location setting sent to OWM.
+     * @param julianStartDay the local julian day of the first forecast entry.
+     * @param conditional    whether the forecast stored for this location is still in the
+     *                       database.  If it isn't, the validators are ignored and the forecast
+     *                       is always downloaded and returned as STATUS_OK.
+     * @throws IOException the error of the last attempt, or a CircuitBreaker.OpenException if
+     *                     the endpoint failed too often to be called.
+     */
+    Result fetch(String locationQuery, int julianStartDay, boolean conditional)
+            throws IOException, JSONException {
+        for (int attempt = 1; ; attempt++) {
+            if (!mCircuitBreaker.allowRequest()) {
+                throw new CircuitBreaker.OpenException(mBaseUrl);
+            }
+            try {
+                Result result = fetchOnce(locationQuery, julianStartDay, conditional);
+                mCircuitBreaker.onSuccess();
+                return result;
+            } catch (JSONException e) {
+                // The server answered, only not with a forecast; asking again won't change that
+                mCircuitBreaker.onSuccess();
+                throw e;
+            } catch (IOException e) {
+                if (e instanceof HttpStatusException && !((HttpStatusException) e).isTransient()) {
+                    mCircuitBreaker.onSuccess();
+                    throw e;
+                }
+                mCircuitBreaker.onFailure();
+                if (attempt >= mPolicy.maxAttempts) {
+                    throw e;
+                }
+                long backoffMillis = mPolicy.getBackoffMillis(attempt);
+                Log.w(LOG_TAG, "Attempt " + attempt + " for " + locationQuery + " failed, retrying in "
+                        + backoffMillis + " ms", e);
+                try {
+                    Thread.sleep(backoffMillis);
+                } catch (InterruptedException interrupted) {
+                    // The sync was cancelled
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Cancelled while waiting to retry");
+                }
+                if (mTrace != null) {
+                    mTrace.record(SyncMetrics.STAGE_BACKOFF, backoffMillis, true);
+                }
+            }
+        }
+    }
+
+    private Result fetchOnce(String locationQuery, int julianStartDay, boolean conditional)
+            throws IOException, JSONException {
+        // These two need to be declared outside the try/catch
+        // so that they can be closed in the finally block.
+        HttpURLConnection urlConnection = null;
+        BufferedReader reader = null;
+
+        try {
+            Uri builtUri = Uri.parse(mBaseUrl).buildUpon()
+                    .appendQueryParameter(QUERY_PARAM, locationQuery)
+                    .appendQueryParameter(FORMAT_PARAM, FORMAT)
+                    .appendQueryParameter(UNITS_PARAM, UNITS)
+                    .appendQueryParameter(DAYS_PARAM, Integer.toString(NUM_DAYS))
+                    .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
+                    .build();
+
+            URL url = new URL(builtUri.toString());
+
+            ForecastValidatorCache.Validators cached =
+                    conditional ? mValidatorCache.get(locationQuery) : null;
+            if (cached != null && cached.julianStartDay != julianStartDay) {
+                cached = null;
+            }
+
+            long start = 0;
+            if (mTrace != null) {
+                // Resolved on its own to time it; connecting then gets the address from the
+                // resolver's cache
+                start = SystemClock.elapsedRealtime();
+                InetAddress.getByName(url.getHost());
+                mTrace.recordSince(SyncMetrics.STAGE_DNS, start);
+                start = SystemClock.elapsedRealtime();
+            }
+
+            // Create the request to OpenWeatherMap, and open the connection
+            urlConnection = (HttpURLConnection) url.openConnection();
+            urlConnection.setRequestMethod("GET");
+            // Without these a stalled server holds the sync thread for good
+            urlConnection.setConnectTimeout(mPolicy.connectTimeoutMillis);
+            urlConnection.setReadTimeout(mPolicy.readTimeoutMillis);
+            if (cached != null) {
+                if (cached.etag != null) {
+                    urlConnection.setRequestProperty("If-None-Match", cached.etag);
+                }
+                if (cached.lastModified != null) {
+                    urlConnection.setRequestProperty("If-Modified-Since", cached.lastModified);
+                }
+            }
+            urlConnection.connect();
+            if (mTrace != null) {
+                mTrace.recordSince(SyncMetrics.STAGE_CONNECT, start);
+                start = SystemClock.elapsedRealtime();
+            }
+            int responseCode = urlConnection.getResponseCode();
+            if (mTrace != null) {
+                mTrace.recordSince(SyncMetrics.STAGE_FIRST_BYTE, start);
+                start = SystemClock.elapsedRealtime();
+            }
+            long threadStart = mTrace != null ? SystemClock.currentThreadTimeMillis() : 0;
+
+            if (responseCode >= HttpURLConnection.HTTP_BAD_REQUEST) {
+                // Reading the body would throw as well, this tells whether to try again
+                throw new HttpStatusException(responseCode);
+            }
+
+            if (cached != null && responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                return new Result(STATUS_NOT_MODIFIED, null, cached);
+            }
+
+            // Stream the response straight into the parser instead of copying it into a String
+            InputStream inputStream = urlConnection.getInputStream();
+            if (inputStream == null) {
+                // Nothing to do.
+                return new Result(STATUS_EMPTY, null, null);
+            }
+            MessageDigest digest = newDigest();
+            reader = new BufferedReader(new InputStreamReader(
+                    new DigestInputStream(inputStream, digest)));
+
+            reader.mark(1);
+            if (reader.read() == -1) {
+                // Stream was empty.  No point in parsing.
+                return new Result(STATUS_EMPTY, null, null);
+            }
+            reader.reset();
+
+            ForecastJsonParser parser = new ForecastJsonParser(julianStartDay);
+            parser.parse(reader);
+            if (parser.getErrorCode() != HttpURLConnection.HTTP_OK) {
+                // Error answers are never cached, the caller handles the code.
+                recordDownload(start, threadStart);
+                return new Result(STATUS_OK, parser, null);
+            }
+
+            // The parser stops at the end of the forecast object; hash whatever follows too so
+            // the hash always covers the complete payload.
+            char[] drain = new char[256];
+            while (reader.read(drain) != -1) {
+                // keep reading
+            }
+            recordDownload(start, threadStart);
+
+            ForecastValidatorCache.Validators validators = new ForecastValidatorCache.Validators(
+                    urlConnection.getHeaderField("ETag"),
+                    urlConnection.getHeaderField("Last-Modified"),
+                    toHex(digest.digest()),
+                    julianStartDay);
+            int status = cached != null && validators.hash.equals(cached.hash)
+                    ? STATUS_UNCHANGED : STATUS_OK;
+            return new Result(status, parser, validators);
+        } finally {
+            if (urlConnection != null) {
+                urlConnection.disconnect();
+            }
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (final IOException e) {
+                    // Nothing useful left to do with this connection
+                }
+            }
+        }
+    }
+
+    /**
+     * The body is parsed as it arrives, so the parse is told apart from the download by the CPU
+     * time the thread spent; the rest of the download was spent waiting for the network.
+     */
+    private void recordDownload(long start, long threadStart) {
+        if (mTrace != null) {
+            mTrace.recordSince(SyncMetrics.STAGE_DOWNLOAD, start);
+            mTrace.record(SyncMetrics.STAGE_PARSE,
+                    SystemClock.currentThreadTimeMillis() - threadStart, true);
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            // Every Android release ships SHA-1
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+            hex.append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+}
@@ -0,0 +1,345 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.text.format.Time;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.MalformedJsonException;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.util.Vector;
+
+/**
+ * Pull parser for the OpenWeatherMap daily forecast response.
+ *
+ * Instead of buffering the whole payload and building a JSONObject tree, the response is read
+ * token by token straight from the connection and every day of the "list" array becomes a
+ * ContentValues row as soon as its closing brace is read.  The rows are the same ones the
+ * JSONObject based parser used to produce, except for the location key which is only known
+ * once the "city" object has been read and is therefore added by the caller.
+ */
+class ForecastJsonParser {
+
+    // These are the names of the JSON objects that need to be extracted.
+
+    // Location information
+    private static final String OWM_CITY = "city";
+    private static final String OWM_CITY_NAME = "name";
+    private static final String OWM_COORD = "coord";
+
+    // Location coordinate
+    private static final String OWM_LATITUDE = "lat";
+    private static final String OWM_LONGITUDE = "lon";
+
+    // Weather information.  Each day's forecast info is an element of the "list" array.
+    private static final String OWM_LIST = "list";
+
+    private static final String OWM_PRESSURE = "pressure";
+    private static final String OWM_HUMIDITY = "humidity";
+    private static final String OWM_WINDSPEED = "speed";
+    private static final String OWM_WIND_DIRECTION = "deg";
+
+    // All temperatures are children of the "temp" object.
+    private static final String OWM_TEMPERATURE = "temp";
+    private static final String OWM_MAX = "max";
+    private static final String OWM_MIN = "min";
+
+    private static final String OWM_WEATHER = "weather";
+    private static final String OWM_DESCRIPTION = "main";
+    private static final String OWM_WEATHER_ID = "id";
+
+    private static final String OWM_MESSAGE_CODE = "cod";
+
+    private final int mJulianStartDay;
+    private final Time mDayTime = new Time();
+
+    private int mErrorCode = HttpURLConnection.HTTP_OK;
+    private boolean mHasCity;
+    private boolean mHasList;
+    private String mCityName;
+    private double mCityLatitude;
+    private double mCityLongitude;
+    private final Vector<ContentValues> mWeatherValues = new Vector<ContentValues>();
+
+    /**
+     * @param julianStartDay the local julian day of the first forecast entry.  OWM sends the
+     *                       days in order starting with today, so entry i is dated
+     *                       julianStartDay + i.
+     */
+    ForecastJsonParser(int julianStartDay) {
+        mJulianStartDay = julianStartDay;
+    }
+
+    /**
+     * Reads a complete forecast response.  Parsing stops as soon as a "cod" member other than
+     * HTTP_OK is found, in which case {@link #getErrorCode()} tells the caller what went wrong.
+     *
+     * @throws JSONException if the response is not valid JSON or lacks a required member.
+     * @throws IOException if reading from the underlying stream fails.
+     */
+    void parse(Reader in) throws JSONException, IOException {
+        JsonReader reader = new JsonReader(in);
+        try {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (OWM_MESSAGE_CODE.equals(name) && reader.peek() != JsonToken.NULL) {
+                    mErrorCode = (int) reader.nextDouble();
+                    if (mErrorCode != HttpURLConnection.HTTP_OK) {
+                        // do we have an error?  Then nothing else in there matters.
+                        return;
+                    }
+                } else if (OWM_CITY.equals(name)) {
+                    readCity(reader);
+                } else if (OWM_LIST.equals(name)) {
+                    readList(reader);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        } catch (MalformedJsonException | IllegalStateException | NumberFormatException e) {
+            throw toJSONException(e);
+        }
+
+        if (!mHasList) {
+            throw new JSONException("No value for " + OWM_LIST);
+        }
+        if (!mHasCity) {
+            throw new JSONException("No value for " + OWM_CITY);
+        }
+    }
+
+    private void readCity(JsonReader reader) throws IOException, JSONException {
+        boolean hasName = false;
+        boolean hasCoord = false;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_CITY_NAME.equals(name)) {
+                mCityName = nextString(reader);
+                hasName = true;
+            } else if (OWM_COORD.equals(name)) {
+                boolean hasLatitude = false;
+                boolean hasLongitude = false;
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String coordName = reader.nextName();
+                    if (OWM_LATITUDE.equals(coordName)) {
+                        mCityLatitude = nextDouble(reader, coordName);
+                        hasLatitude = true;
+                    } else if (OWM_LONGITUDE.equals(coordName)) {
+                        mCityLongitude = nextDouble(reader, coordName);
+                        hasLongitude = true;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                require(hasLatitude, OWM_LATITUDE);
+                require(hasLongitude, OWM_LONGITUDE);
+                hasCoord = true;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        require(hasName, OWM_CITY_NAME);
+        require(hasCoord, OWM_COORD);
+        mHasCity = true;
+    }
+
+    private void readList(JsonReader reader) throws IOException, JSONException {
+        // A repeated "list" member replaces the previous one, as it would in a JSONObject.
+        mWeatherValues.clear();
+        reader.beginArray();
+        int i = 0;
+        while (reader.hasNext()) {
+            mWeatherValues.add(readDay(reader, i++));
+        }
+        reader.endArray();
+        mHasList = true;
+    }
+
+    private ContentValues readDay(JsonReader reader, int index) throws IOException, JSONException {
+        // These are the values that will be collected.
+        double pressure = 0;
+        int humidity = 0;
+        double windSpeed = 0;
+        double windDirection = 0;
+
+        double high = 0;
+        double low = 0;
+
+        String description = null;
+        int weatherId = 0;
+
+        boolean hasPressure = false;
+        boolean hasHumidity = false;
+        boolean hasWindSpeed = false;
+        boolean hasWindDirection = false;
+        boolean hasTemperature = false;
+        boolean hasWeather = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_PRESSURE.equals(name)) {
+                pressure = nextDouble(reader, name);
+                hasPressure = true;
+            } else if (OWM_HUMIDITY.equals(name)) {
+                humidity = (int) nextDouble(reader, name);
+                hasHumidity = true;
+            } else if (OWM_WINDSPEED.equals(name)) {
+                windSpeed = nextDouble(reader, name);
+                hasWindSpeed = true;
+            } else if (OWM_WIND_DIRECTION.equals(name)) {
+                windDirection = nextDouble(reader, name);
+                hasWindDirection = true;
+            } else if (OWM_TEMPERATURE.equals(name)) {
+                // Temperatures are in a child object called "temp".  Try not to name variables
+                // "temp" when working with temperature.  It confuses everybody.
+                boolean hasMax = false;
+                boolean hasMin = false;
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String temperatureName = reader.nextName();
+                    if (OWM_MAX.equals(temperatureName)) {
+                        high = nextDouble(reader, temperatureName);
+                        hasMax = true;
+                    } else if (OWM_MIN.equals(temperatureName)) {
+                        low = nextDouble(reader, temperatureName);
+                        hasMin = true;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                require(hasMax, OWM_MAX);
+                require(hasMin, OWM_MIN);
+                hasTemperature = true;
+            } else if (OWM_WEATHER.equals(name)) {
+                // Description is in a child array called "weather", which is 1 element long.
+                // That element also contains a weather code.
+                boolean hasDescription = false;
+                boolean hasWeatherId = false;
+                reader.beginArray();
+                if (!reader.hasNext()) {
+                    throw new JSONException("Index 0 out of range [0..0)");
+                }
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String weatherName = reader.nextName();
+                    if (OWM_DESCRIPTION.equals(weatherName)) {
+                        description = nextString(reader);
+                        hasDescription = true;
+                    } else if (OWM_WEATHER_ID.equals(weatherName)) {
+                        weatherId = (int) nextDouble(reader, weatherName);
+                        hasWeatherId = true;
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                while (reader.hasNext()) {
+                    reader.skipValue();
+                }
+                reader.endArray();
+                require(hasDescription, OWM_DESCRIPTION);
+                require(hasWeatherId, OWM_WEATHER_ID);
+                hasWeather = true;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        require(hasPressure, OWM_PRESSURE);
+        require(hasHumidity, OWM_HUMIDITY);
+        require(hasWindSpeed, OWM_WINDSPEED);
+        require(hasWindDirection, OWM_WIND_DIRECTION);
+        require(hasWeather, OWM_WEATHER);
+        require(hasTemperature, OWM_TEMPERATURE);
+
+        // Cheating to convert this to UTC time, which is what we want anyhow
+        long dateTime = mDayTime.setJulianDay(mJulianStartDay + index);
+
+        ContentValues weatherValues = new ContentValues();
+
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+        return weatherValues;
+    }
+
+    /**
+     * @return HTTP_OK, or the "cod" value the server sent back in place of a forecast.
+     */
+    int getErrorCode() {
+        return mErrorCode;
+    }
+
+    String getCityName() {
+        return mCityName;
+    }
+
+    double getCityLatitude() {
+        return mCityLatitude;
+    }
+
+    double getCityLongitude() {
+        return mCityLongitude;
+    }
+
+    /**
+     * @return one row per forecast day, in the order they were sent, without the location key.
+     */
+    Vector<ContentValues> getWeatherValues() {
+        return mWeatherValues;
+    }
+
+    // Same coercions as JSONObject.getDouble(): numbers and numeric strings are accepted.
+    private static double nextDouble(JsonReader reader, String name) throws IOException, JSONException {
+        if (reader.peek() == JsonToken.NULL) {
+            throw new JSONException("Value null at " + name + " cannot be converted to double");
+        }
+        return reader.nextDouble();
+    }
+
+    // Same coercions as JSONObject.getString(): any primitive is turned into its string form.
+    private static String nextString(JsonReader reader) throws IOException {
+        switch (reader.peek()) {
+            case NULL:
+                reader.nextNull();
+                return "null";
+            case BOOLEAN:
+                return String.valueOf(reader.nextBoolean());
+            default:
+                return reader.nextString();
+        }
+    }
+
+    private static void require(boolean present, String name) throws JSONException {
+        if (!present) {
+            throw new JSONException("No value for " + name);
+        }
+    }
+
+    private static JSONException toJSONException(Exception e) {
+        JSONException jsonException = new JSONException(e.getMessage());
+        jsonException.initCause(e);
+        return jsonException;
+    }
+}
@@ -0,0 +1,355 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.text.format.Time;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import org.json.JSONException;
+
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Refreshes the forecast of every location in the location table in one run.
+ *
+ * The downloads run concurrently on a small fixed pool; the rows of all locations, the locations
+ * that aren't tracked yet and the removal of the days that are over are then handed to
+ * {@link com.example.android.sunshine.app.data.WeatherProvider#call} in a single call, so they
+ * are committed in one SQLite transaction and observers are notified once per run instead of
+ * once per location.  Rows that are stored with the same values already are skipped.
+ */
+class ForecastSyncEngine {
+    private static final String LOG_TAG = ForecastSyncEngine.class.getSimpleName();
+
+    // OWM is a shared, rate limited service: don't open more connections than this at once.
+    static final int MAX_PARALLEL_REQUESTS = 4;
+
+    private static final String[] LOCATION_PROJECTION = new String[] {
+            WeatherContract.LocationEntry._ID,
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING
+    };
+
+    // these indices must match the projection
+    private static final int INDEX_LOCATION_ID = 0;
+    private static final int INDEX_LOCATION_SETTING = 1;
+
+    /**
+     * What a run did for each location query.
+     */
+    static final class Outcome {
+        private final Map<String, Integer> mStatuses = new HashMap<String, Integer>();
+        private final Set<String> mWritten = new HashSet<String>();
+        private int mRowCount;
+        private int mSkippedCount;
+
+        /**
+         * @return the LocationStatus to report for this location query.
+         */
+        @SunshineSyncAdapter.LocationStatus
+        int getLocationStatus(String locationQuery) {
+            Integer status = mStatuses.get(locationQuery);
+            return status == null ? SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN : status;
+        }
+
+        /**
+         * @return true if new forecast rows were downloaded for this location query and the run
+         * changed at least one stored row of this location.
+         */
+        boolean isWritten(String locationQuery) {
+            return mWritten.contains(locationQuery);
+        }
+
+        int getLocationCount() {
+            return mStatuses.size();
+        }
+
+        /**
+         * @return the number of rows that were new or changed, and so were written.
+         */
+        int getRowCount() {
+            return mRowCount;
+        }
+
+        /**
+         * @return the number of downloaded rows that matched the stored ones and were skipped.
+         */
+        int getSkippedCount() {
+            return mSkippedCount;
+        }
+    }
+
+    private final Context mContext;
+    private final ForecastFetcher mFetcher;
+    private final ForecastValidatorCache mValidatorCache;
+    private final int mParallelism;
+    // Null unless the database stages are timed
+    private final SyncTrace mTrace;
+
+    ForecastSyncEngine(Context context, ForecastFetcher fetcher, ForecastValidatorCache validatorCache) {
+        this(context, fetcher, validatorCache, MAX_PARALLEL_REQUESTS, null);
+    }
+
+    /**
+     * @param trace gets the database stages of the run, or null to not time them.
+     */
+    ForecastSyncEngine(Context context, ForecastFetcher fetcher, ForecastValidatorCache validatorCache,
+                       SyncTrace trace) {
+        this(context, fetcher, validatorCache, MAX_PARALLEL_REQUESTS, trace);
+    }
+
+    ForecastSyncEngine(Context context, ForecastFetcher fetcher, ForecastValidatorCache validatorCache,
+                       int parallelism) {
+        this(context, fetcher, validatorCache, parallelism, null);
+    }
+
+    ForecastSyncEngine(Context context, ForecastFetcher fetcher, ForecastValidatorCache validatorCache,
+                       int parallelism, SyncTrace trace) {
+        mContext = context;
+        mFetcher = fetcher;
+        mValidatorCache = validatorCache;
+        mParallelism = parallelism;
+        mTrace = trace;
+    }
+
+    /**
+     * Syncs every tracked location plus the given one, which is added to the location table if
+     * it's not there yet.
+     *
+     * @param preferredLocation the location setting of the user; may already be tracked.
+     * @param julianStartDay    the local julian day of the first forecast entry.
+     */
+    Outcome sync(String preferredLocation, final int julianStartDay) {
+        final Map<String, Long> locationIds = queryLocations();
+        if (!locationIds.containsKey(preferredLocation)) {
+            locationIds.put(preferredLocation, null);
+        }
+        final Set<Long> locationsWithForecast = queryLocationsWithForecast(julianStartDay);
+
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(mParallelism, locationIds.size())));
+        Map<String, Future<ForecastFetcher.Result>> fetches =
+                new LinkedHashMap<String, Future<ForecastFetcher.Result>>();
+        try {
+            for (final Map.Entry<String, Long> location : locationIds.entrySet()) {
+                fetches.put(location.getKey(), executor.submit(new Callable<ForecastFetcher.Result>() {
+                    @Override
+                    public ForecastFetcher.Result call() throws Exception {
+                        // Only ask whether the forecast changed if we still have it; after the
+                        // database was cleared it has to be downloaded again.
+                        boolean conditional = location.getValue() != null
+                                && locationsWithForecast.contains(location.getValue());
+                        return mFetcher.fetch(location.getKey(), julianStartDay, conditional);
+                    }
+                }));
+            }
+
+            Outcome outcome = new Outcome();
+            // One bundle per location query that got a new forecast
+            Bundle forecasts = new Bundle();
+            int downloadedCount = 0;
+            Map<String, ForecastValidatorCache.Validators> validators =
+                    new HashMap<String, ForecastValidatorCache.Validators>();
+
+            for (Map.Entry<String, Future<ForecastFetcher.Result>> fetch : fetches.entrySet()) {
+                String locationQuery = fetch.getKey();
+                ForecastFetcher.Result result;
+                try {
+                    result = fetch.getValue().get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    Log.e(LOG_TAG, "Error syncing " + locationQuery, cause);
+                    outcome.mStatuses.put(locationQuery, getLocationStatus(cause));
+                    continue;
+                }
+                int status = getLocationStatus(result);
+                outcome.mStatuses.put(locationQuery, status);
+                if (result.getValidators() != null) {
+                    validators.put(locationQuery, result.getValidators());
+                }
+                if (status != SunshineSyncAdapter.LOCATION_STATUS_OK
+                        || result.getStatus() != ForecastFetcher.STATUS_OK) {
+                    // Failed, or the database already holds this forecast
+                    continue;
+                }
+
+                ForecastJsonParser parser = result.getParser();
+                Bundle forecast = new Bundle();
+                Long locationId = locationIds.get(locationQuery);
+                if (locationId != null) {
+                    forecast.putLong(WeatherContract.WeatherEntry.EXTRA_LOCATION_ID, locationId);
+                } else {
+                    forecast.putParcelable(WeatherContract.WeatherEntry.EXTRA_LOCATION,
+                            createLocationValues(locationQuery, parser.getCityName(),
+                                    parser.getCityLatitude(), parser.getCityLongitude()));
+                }
+                forecast.putParcelableArrayList(WeatherContract.WeatherEntry.EXTRA_WEATHER,
+                        new ArrayList<ContentValues>(parser.getWeatherValues()));
+                forecasts.putBundle(locationQuery, forecast);
+                downloadedCount += parser.getWeatherValues().size();
+            }
+
+            if (forecasts.size() > 0) {
+                // One transaction for all locations, which adds the new ones, only writes the
+                // rows that changed, deletes old data so we don't build up an endless history,
+                // and notifies observers once if any of that changed something
+                long start = mTrace != null ? SystemClock.elapsedRealtime() : 0;
+                Bundle extras = new Bundle();
+                extras.putBundle(WeatherContract.WeatherEntry.EXTRA_FORECASTS, forecasts);
+                extras.putLong(WeatherContract.WeatherEntry.EXTRA_PAST_DATE,
+                        new Time().setJulianDay(julianStartDay - 1));
+                Bundle written = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                        WeatherContract.WeatherEntry.METHOD_SYNC, null, extras);
+                outcome.mRowCount = written.getInt(WeatherContract.WeatherEntry.EXTRA_WRITTEN_COUNT);
+                outcome.mSkippedCount = downloadedCount - outcome.mRowCount;
+                if (mTrace != null) {
+                    long deleteMillis = written.getLong(WeatherContract.WeatherEntry.EXTRA_DELETE_MILLIS);
+                    mTrace.record(SyncMetrics.STAGE_DB_WRITE,
+                            SystemClock.elapsedRealtime() - start - deleteMillis, true);
+                    mTrace.record(SyncMetrics.STAGE_DB_DELETE, deleteMillis, true);
+                }
+                // A location whose rows all matched the stored ones has nothing new to show,
+                // whatever the other locations got
+                Bundle writtenCounts = written.getBundle(WeatherContract.WeatherEntry.EXTRA_WRITTEN_COUNTS);
+                for (String locationQuery : forecasts.keySet()) {
+                    if (writtenCounts.getInt(locationQuery) > 0) {
+                        outcome.mWritten.add(locationQuery);
+                    }
+                }
+            }
+
+            // The rows are safely stored, the next run may ask whether they changed
+            for (Map.Entry<String, ForecastValidatorCache.Validators> entry : validators.entrySet()) {
+                mValidatorCache.put(entry.getKey(), entry.getValue());
+            }
+            return outcome;
+        } catch (InterruptedException e) {
+            // The sync was cancelled, stop the downloads that are still running
+            Thread.currentThread().interrupt();
+            Outcome outcome = new Outcome();
+            outcome.mStatuses.put(preferredLocation, SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN);
+            return outcome;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @SunshineSyncAdapter.LocationStatus
+    private static int getLocationStatus(ForecastFetcher.Result result) {
+        switch (result.getStatus()) {
+            case ForecastFetcher.STATUS_EMPTY:
+                return SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+            case ForecastFetcher.STATUS_NOT_MODIFIED:
+            case ForecastFetcher.STATUS_UNCHANGED:
+                return SunshineSyncAdapter.LOCATION_STATUS_OK;
+        }
+        // do we have an error?
+        switch (result.getParser().getErrorCode()) {
+            case HttpURLConnection.HTTP_OK:
+                return SunshineSyncAdapter.LOCATION_STATUS_OK;
+            case HttpURLConnection.HTTP_NOT_FOUND:
+                return SunshineSyncAdapter.LOCATION_STATUS_INVALID;
+            default:
+                return SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+        }
+    }
+
+    /**
+     * @return the LocationStatus for a download that failed with the given exception.
+     */
+    @SunshineSyncAdapter.LocationStatus
+    static int getLocationStatus(Throwable cause) {
+        if (cause instanceof JSONException) {
+            return SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID;
+        }
+        if (cause instanceof ForecastFetcher.HttpStatusException) {
+            ForecastFetcher.HttpStatusException statusException =
+                    (ForecastFetcher.HttpStatusException) cause;
+            if (statusException.code == HttpURLConnection.HTTP_NOT_FOUND) {
+                // OWM doesn't know the city
+                return SunshineSyncAdapter.LOCATION_STATUS_INVALID;
+            }
+            if (!statusException.isTransient()) {
+                // The server turned the request down, asking again won't change that
+                return SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID;
+            }
+        }
+        return SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+    }
+
+    /**
+     * @return the row ID of every tracked location, keyed by location setting.
+     */
+    private Map<String, Long> queryLocations() {
+        Map<String, Long> locationIds = new LinkedHashMap<String, Long>();
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI, LOCATION_PROJECTION, null, null, null);
+        if (cursor != null) {
+            while (cursor.moveToNext()) {
+                locationIds.put(cursor.getString(INDEX_LOCATION_SETTING),
+                        cursor.getLong(INDEX_LOCATION_ID));
+            }
+            cursor.close();
+        }
+        return locationIds;
+    }
+
+    /**
+     * @return the row ID of every location that still has a forecast for the given day.
+     */
+    private Set<Long> queryLocationsWithForecast(int julianDay) {
+        Set<Long> locationIds = new HashSet<Long>();
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.CONTENT_URI,
+                new String[] {WeatherContract.WeatherEntry.COLUMN_LOC_KEY},
+                WeatherContract.WeatherEntry.COLUMN_DATE + " = ?",
+                new String[] {Long.toString(new Time().setJulianDay(julianDay))},
+                null);
+        if (cursor != null) {
+            while (cursor.moveToNext()) {
+                locationIds.add(cursor.getLong(0));
+            }
+            cursor.close();
+        }
+        return locationIds;
+    }
+
+    /**
+     * Helper method to build the row of a new location, which the provider adds to the weather
+     * database along with its forecast.
+     *
+     * @param locationSetting The location string used to request updates from the server.
+     * @param cityName A human-readable city name, e.g "Mountain View"
+     * @param lat the latitude of the city
+     * @param lon the longitude of the city
+     * @return the values of the location row.
+     */
+    static ContentValues createLocationValues(String locationSetting, String cityName,
+                                              double lat, double lon) {
+        // First create a ContentValues object to hold the data you want to insert.
+        ContentValues locationValues = new ContentValues();
+
+        // Then add the data, along with the corresponding name of the data type,
+        // so the content provider knows what kind of value is being inserted.
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
+        locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
+        return locationValues;
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+/**
+ * Remembers, per location query, the HTTP validators and a hash of the last forecast payload
+ * that made it into the database, so the next sync can ask OWM whether anything changed.
+ *
+ * The entries live in their own preference file: they are an implementation detail of the sync
+ * and must not show up in (or be wiped with) the user settings.
+ */
+class ForecastValidatorCache {
+    private static final String PREFS_NAME = "forecast_validators";
+
+    private static final String KEY_ETAG = ".etag";
+    private static final String KEY_LAST_MODIFIED = ".last_modified";
+    private static final String KEY_HASH = ".hash";
+    private static final String KEY_JULIAN_START_DAY = ".julian_start_day";
+
+    /**
+     * The validators of one forecast response.  Any of the header values may be null when the
+     * server did not send them.
+     */
+    static final class Validators {
+        final String etag;
+        final String lastModified;
+        final String hash;
+        // The forecast rows are dated from the local day the payload was parsed on, so the
+        // same payload is only "unchanged" when it is parsed on the same day.
+        final int julianStartDay;
+
+        Validators(String etag, String lastModified, String hash, int julianStartDay) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.hash = hash;
+            this.julianStartDay = julianStartDay;
+        }
+    }
+
+    private final SharedPreferences mPrefs;
+
+    ForecastValidatorCache(Context context) {
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * @return the validators stored for this location query, or null if there are none.
+     */
+    Validators get(String locationQuery) {
+        String hash = mPrefs.getString(locationQuery + KEY_HASH, null);
+        if (hash == null) {
+            return null;
+        }
+        return new Validators(
+                mPrefs.getString(locationQuery + KEY_ETAG, null),
+                mPrefs.getString(locationQuery + KEY_LAST_MODIFIED, null),
+                hash,
+                mPrefs.getInt(locationQuery + KEY_JULIAN_START_DAY, 0));
+    }
+
+    /**
+     * Stores the validators of a response once its rows have been written.  Like
+     * setLocationStatus this commits synchronously, so don't call it from the UI thread.
+     */
+    void put(String locationQuery, Validators validators) {
+        mPrefs.edit()
+                .putString(locationQuery + KEY_ETAG, validators.etag)
+                .putString(locationQuery + KEY_LAST_MODIFIED, validators.lastModified)
+                .putString(locationQuery + KEY_HASH, validators.hash)
+                .putInt(locationQuery + KEY_JULIAN_START_DAY, validators.julianStartDay)
+                .commit();
+    }
+
+    void clear() {
+        mPrefs.edit().clear().commit();
+    }
+}
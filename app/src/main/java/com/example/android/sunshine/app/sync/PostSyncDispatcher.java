@@ -0,0 +1,101 @@
+package com.example.android.sunshine.app.sync;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Hands the weather a sync wrote to everything that shows it, concurrently on a small fixed
+ * pool, and records how long each one took.
+ *
+ * A consumer that fails or runs too long doesn't hold up or affect the others; its span in the
+ * trace is marked as failed.
+ */
+class PostSyncDispatcher {
+    private static final String LOG_TAG = PostSyncDispatcher.class.getSimpleName();
+
+    // The widgets, Muzei, the notification and the watch
+    static final int MAX_PARALLEL_CONSUMERS = 4;
+    // Longest wait for all consumers together; the sync is over once it ran out
+    static final long TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    interface Consumer {
+        /**
+         * @return the name of the span in the trace.
+         */
+        String getName();
+
+        /**
+         * @param snapshot the weather just written, or null if there is none to show
+         */
+        void consume(PostSyncSnapshot snapshot) throws Exception;
+    }
+
+    private final int mParallelism;
+    private final long mTimeoutMillis;
+
+    PostSyncDispatcher() {
+        this(MAX_PARALLEL_CONSUMERS, TIMEOUT_MILLIS);
+    }
+
+    PostSyncDispatcher(int parallelism, long timeoutMillis) {
+        mParallelism = parallelism;
+        mTimeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Runs every consumer with the snapshot and returns once all of them finished or the
+     * timeout ran out.
+     */
+    void dispatch(final PostSyncSnapshot snapshot, List<Consumer> consumers, final SyncTrace trace) {
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(mParallelism, consumers.size())));
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        try {
+            for (final Consumer consumer : consumers) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        long start = SystemClock.elapsedRealtime();
+                        boolean succeeded = false;
+                        try {
+                            consumer.consume(snapshot);
+                            succeeded = true;
+                        } finally {
+                            trace.record(consumer.getName(),
+                                    SystemClock.elapsedRealtime() - start, succeeded);
+                        }
+                        return null;
+                    }
+                }));
+            }
+
+            long deadline = SystemClock.elapsedRealtime() + mTimeoutMillis;
+            for (int i = 0; i < futures.size(); i++) {
+                String name = consumers.get(i).getName();
+                try {
+                    futures.get(i).get(Math.max(0, deadline - SystemClock.elapsedRealtime()),
+                            TimeUnit.MILLISECONDS);
+                } catch (ExecutionException e) {
+                    Log.e(LOG_TAG, "Error in " + name, e.getCause());
+                } catch (TimeoutException e) {
+                    Log.w(LOG_TAG, name + " didn't finish in time");
+                }
+            }
+        } catch (InterruptedException e) {
+            // The sync was cancelled
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.text.format.DateUtils;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.wear.WeatherPayload;
+
+import java.util.Arrays;
+import java.util.TimeZone;
+
+/**
+ * Today's weather and the cached forecast of the preferred location, read in one query after a
+ * sync wrote new rows, for everything that shows them.  Never changes once read.
+ */
+final class PostSyncSnapshot {
+
+    private static final String[] FORECAST_PROJECTION = new String[] {
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC
+    };
+
+    // these indices must match the projection
+    private static final int INDEX_DATE = 0;
+    private static final int INDEX_WEATHER_ID = 1;
+    private static final int INDEX_MAX_TEMP = 2;
+    private static final int INDEX_MIN_TEMP = 3;
+    private static final int INDEX_SHORT_DESC = 4;
+
+    private final String mLocation;
+    private final boolean mHasToday;
+    private final int mWeatherId;
+    private final double mHigh;
+    private final double mLow;
+    private final String mDescription;
+    private final WeatherPayload mForecast;
+
+    private PostSyncSnapshot(String location, boolean hasToday, int weatherId, double high,
+                             double low, String description, WeatherPayload forecast) {
+        mLocation = location;
+        mHasToday = hasToday;
+        mWeatherId = weatherId;
+        mHigh = high;
+        mLow = low;
+        mDescription = description;
+        mForecast = forecast;
+    }
+
+    /**
+     * @return the rows of the location from today on, or null if there are none.
+     */
+    static PostSyncSnapshot query(Context context, String location) {
+        long now = System.currentTimeMillis();
+        Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(location, now);
+        String sortOrder = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
+        Cursor cursor = context.getContentResolver().query(weatherUri, FORECAST_PROJECTION,
+                null, null, sortOrder);
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            boolean hasToday = cursor.getLong(INDEX_DATE) == WeatherContract.normalizeDate(now);
+            int weatherId = cursor.getInt(INDEX_WEATHER_ID);
+            double high = cursor.getDouble(INDEX_MAX_TEMP);
+            double low = cursor.getDouble(INDEX_MIN_TEMP);
+            String description = cursor.getString(INDEX_SHORT_DESC);
+            return new PostSyncSnapshot(location, hasToday, weatherId, high, low, description,
+                    readForecast(cursor));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return the consecutive days from the cursor's first row on, numbered in days since the
+     * epoch of their local date.
+     */
+    private static WeatherPayload readForecast(Cursor cursor) {
+        TimeZone timeZone = TimeZone.getDefault();
+        int count = Math.min(cursor.getCount(), WeatherPayload.MAX_DAYS);
+        int[] weatherIds = new int[count];
+        int[] highs = new int[count];
+        int[] lows = new int[count];
+        int firstDay = 0;
+        int days = 0;
+        do {
+            long date = cursor.getLong(INDEX_DATE);
+            int day = (int) ((date + timeZone.getOffset(date)) / DateUtils.DAY_IN_MILLIS);
+            if (days == 0) {
+                firstDay = day;
+            } else if (day != firstDay + days) {
+                // The watch pages through consecutive days, a gap ends the forecast
+                break;
+            }
+            weatherIds[days] = cursor.getInt(INDEX_WEATHER_ID);
+            highs[days] = (int) Math.round(cursor.getDouble(INDEX_MAX_TEMP));
+            lows[days] = (int) Math.round(cursor.getDouble(INDEX_MIN_TEMP));
+            days++;
+        } while (days < count && cursor.moveToNext());
+
+        if (days < count) {
+            weatherIds = Arrays.copyOf(weatherIds, days);
+            highs = Arrays.copyOf(highs, days);
+            lows = Arrays.copyOf(lows, days);
+        }
+        return new WeatherPayload(firstDay, weatherIds, highs, lows);
+    }
+
+    String getLocation() {
+        return mLocation;
+    }
+
+    /**
+     * @return true if the first row is today's; the getters below describe the first row.
+     */
+    boolean hasToday() {
+        return mHasToday;
+    }
+
+    int getWeatherId() {
+        return mWeatherId;
+    }
+
+    /**
+     * @return the high, in Celsius as stored.
+     */
+    double getHigh() {
+        return mHigh;
+    }
+
+    double getLow() {
+        return mLow;
+    }
+
+    String getDescription() {
+        return mDescription;
+    }
+
+    /**
+     * @return the consecutive days from the first row on.
+     */
+    WeatherPayload getForecast() {
+        return mForecast;
+    }
+}
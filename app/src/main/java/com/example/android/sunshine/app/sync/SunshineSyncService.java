@@ -5,6 +5,9 @@ import android.content.Intent;
 import android.os.IBinder;
 import android.util.Log;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
 public class SunshineSyncService extends Service {
     private static final Object sSyncAdapterLock = new Object();
     private static SunshineSyncAdapter sSunshineSyncAdapter = null;
@@ -23,4 +26,15 @@ public class SunshineSyncService extends Service {
     public IBinder onBind(Intent intent) {
         return sSunshineSyncAdapter.getSyncAdapterBinder();
     }
+
+    // adb shell dumpsys activity service com.example.android.sunshine.app/.sync.SunshineSyncService
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        writer.println(SyncMetrics.getInstance(this).toJson());
+        writer.println();
+        writer.println("Sync schedule:");
+        for (AdaptiveSyncScheduler.Decision decision : new AdaptiveSyncScheduler(this).getDecisions()) {
+            writer.println(decision);
+        }
+    }
 }
\ No newline at end of file
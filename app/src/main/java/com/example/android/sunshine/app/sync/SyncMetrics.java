@@ -0,0 +1,371 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import com.example.android.sunshine.app.BuildConfig;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Where the time of the sync pipeline goes, kept on the device for debugging.
+ *
+ * Every stage's timings go into a histogram with fixed buckets, and the stages of the last
+ * {@link #MAX_RUNS} syncs are kept in a ring buffer.  Both are saved after every sync and can be
+ * exported as JSON from the settings of a debug build, or over adb with
+ * <pre>
+ * adb shell dumpsys activity service com.example.android.sunshine.app/.sync.SunshineSyncService
+ * </pre>
+ *
+ * Release builds get an instance that records nothing, and the sync skips its detailed timings
+ * altogether when {@link #isEnabled} is false.
+ */
+public class SyncMetrics {
+    private static final String LOG_TAG = SyncMetrics.class.getSimpleName();
+
+    // Resolving the forecast server's name
+    static final String STAGE_DNS = "dns";
+    // Opening the connection, from the resolved address on
+    static final String STAGE_CONNECT = "connect";
+    // Waiting for the status line of the answer
+    static final String STAGE_FIRST_BYTE = "ttfb";
+    // Reading the body; the parser reads it straight from the connection
+    static final String STAGE_DOWNLOAD = "download";
+    // The part of the download the parsing thread spent on the CPU
+    static final String STAGE_PARSE = "parse";
+    // Waiting to retry a download that failed
+    static final String STAGE_BACKOFF = "backoff";
+    // Storing the forecasts of the run, in the transaction that also holds the delete
+    static final String STAGE_DB_WRITE = "db_write";
+    // Deleting the days that are over, timed by the provider
+    static final String STAGE_DB_DELETE = "db_delete";
+    static final String STAGE_POST_SYNC_SNAPSHOT = "snapshot";
+    // From queueing the update to the data layer accepting it, after the sync is over
+    static final String STAGE_WEAR_PUBLISH = "wear_publish";
+    static final String STAGE_TOTAL = "total";
+
+    // Upper bounds of the histogram buckets; the last bucket holds everything slower
+    static final long[] BUCKET_BOUNDS_MILLIS =
+            {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 30000};
+    static final int MAX_RUNS = 20;
+
+    private static final String METRICS_FILE = "sync_metrics.json";
+
+    private static final String JSON_ENABLED = "enabled";
+    private static final String JSON_BUCKET_BOUNDS = "bucketBoundsMillis";
+    private static final String JSON_STAGES = "stages";
+    private static final String JSON_COUNT = "count";
+    private static final String JSON_FAILURES = "failures";
+    private static final String JSON_SUM = "sumMillis";
+    private static final String JSON_MAX = "maxMillis";
+    private static final String JSON_P50 = "p50Millis";
+    private static final String JSON_P90 = "p90Millis";
+    private static final String JSON_BUCKETS = "buckets";
+    private static final String JSON_RUNS = "runs";
+    private static final String JSON_STARTED_AT = "startedAt";
+    private static final String JSON_SPANS = "spans";
+    private static final String JSON_NAME = "name";
+    private static final String JSON_MILLIS = "millis";
+    private static final String JSON_SUCCEEDED = "succeeded";
+
+    private static SyncMetrics sInstance;
+
+    /**
+     * Timings of one stage, counted into {@link #BUCKET_BOUNDS_MILLIS}.
+     */
+    static final class Histogram {
+        final long[] buckets = new long[BUCKET_BOUNDS_MILLIS.length + 1];
+        long count;
+        long failures;
+        long sumMillis;
+        long maxMillis;
+
+        void add(long millis, boolean succeeded) {
+            buckets[getBucket(millis)]++;
+            count++;
+            if (!succeeded) {
+                failures++;
+            }
+            sumMillis += millis;
+            maxMillis = Math.max(maxMillis, millis);
+        }
+
+        /**
+         * @param percentile between 0 and 100
+         * @return the upper bound of the bucket that holds the percentile, the slowest timing
+         * if that's the last bucket; 0 without timings.
+         */
+        long getPercentileMillis(int percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (count * percentile + 99) / 100);
+            long seen = 0;
+            for (int i = 0; i < BUCKET_BOUNDS_MILLIS.length; i++) {
+                seen += buckets[i];
+                if (seen >= rank) {
+                    return Math.min(BUCKET_BOUNDS_MILLIS[i], maxMillis);
+                }
+            }
+            return maxMillis;
+        }
+
+        static int getBucket(long millis) {
+            for (int i = 0; i < BUCKET_BOUNDS_MILLIS.length; i++) {
+                if (millis <= BUCKET_BOUNDS_MILLIS[i]) {
+                    return i;
+                }
+            }
+            return BUCKET_BOUNDS_MILLIS.length;
+        }
+    }
+
+    private final boolean mEnabled;
+    private final AtomicFile mFile;
+
+    // Guarded by this
+    private final Map<String, Histogram> mHistograms = new TreeMap<String, Histogram>();
+    private final ArrayDeque<JSONObject> mRuns = new ArrayDeque<JSONObject>();
+    private boolean mLoaded;
+
+    public static synchronized SyncMetrics getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = BuildConfig.DEBUG
+                    ? new SyncMetrics(true, new AtomicFile(
+                            new File(context.getApplicationContext().getFilesDir(), METRICS_FILE)))
+                    : new SyncMetrics(false, null);
+        }
+        return sInstance;
+    }
+
+    /**
+     * @param file where the metrics are kept between processes, or null to keep them in memory.
+     */
+    SyncMetrics(boolean enabled, AtomicFile file) {
+        mEnabled = enabled;
+        mFile = file;
+    }
+
+    /**
+     * @return false if nothing is recorded, so there is no point in taking detailed timings.
+     */
+    boolean isEnabled() {
+        return mEnabled;
+    }
+
+    /**
+     * @return a trace for one sync whose spans are added to the histograms as well, or the
+     * shared {@link SyncTrace#NONE} if nothing is recorded.
+     */
+    SyncTrace newTrace() {
+        return mEnabled ? new SyncTrace(this) : SyncTrace.NONE;
+    }
+
+    void addSample(String stage, long millis, boolean succeeded) {
+        if (!mEnabled) {
+            return;
+        }
+        synchronized (this) {
+            load();
+            Histogram histogram = mHistograms.get(stage);
+            if (histogram == null) {
+                histogram = new Histogram();
+                mHistograms.put(stage, histogram);
+            }
+            histogram.add(millis, succeeded);
+        }
+    }
+
+    /**
+     * Keeps the spans of a finished sync, dropping the oldest one past {@link #MAX_RUNS}, and
+     * saves the metrics.
+     *
+     * @param startedAt the wall clock time the sync started at.
+     */
+    void addRun(long startedAt, SyncTrace trace) {
+        if (!mEnabled) {
+            return;
+        }
+        synchronized (this) {
+            load();
+            try {
+                JSONArray spans = new JSONArray();
+                for (SyncTrace.Span span : trace.getSpans()) {
+                    spans.put(new JSONObject()
+                            .put(JSON_NAME, span.name)
+                            .put(JSON_MILLIS, span.millis)
+                            .put(JSON_SUCCEEDED, span.succeeded));
+                }
+                mRuns.addLast(new JSONObject()
+                        .put(JSON_STARTED_AT, startedAt)
+                        .put(JSON_SPANS, spans));
+            } catch (JSONException e) {
+                // Only thrown for numbers that aren't finite
+                throw new IllegalStateException(e);
+            }
+            while (mRuns.size() > MAX_RUNS) {
+                mRuns.removeFirst();
+            }
+            save();
+        }
+    }
+
+    /**
+     * @return the histogram of the stage, or null if it has no timings.
+     */
+    synchronized Histogram getHistogram(String stage) {
+        load();
+        return mHistograms.get(stage);
+    }
+
+    synchronized int getRunCount() {
+        load();
+        return mRuns.size();
+    }
+
+    /**
+     * @return every histogram and the kept syncs, oldest first.
+     */
+    public synchronized String toJson() {
+        load();
+        try {
+            return toJsonObject(true).toString(2);
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private JSONObject toJsonObject(boolean forExport) throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put(JSON_ENABLED, mEnabled);
+        JSONArray bounds = new JSONArray();
+        for (long bound : BUCKET_BOUNDS_MILLIS) {
+            bounds.put(bound);
+        }
+        json.put(JSON_BUCKET_BOUNDS, bounds);
+
+        JSONObject stages = new JSONObject();
+        for (Map.Entry<String, Histogram> entry : mHistograms.entrySet()) {
+            Histogram histogram = entry.getValue();
+            JSONArray buckets = new JSONArray();
+            for (long bucket : histogram.buckets) {
+                buckets.put(bucket);
+            }
+            JSONObject stage = new JSONObject()
+                    .put(JSON_COUNT, histogram.count)
+                    .put(JSON_FAILURES, histogram.failures)
+                    .put(JSON_SUM, histogram.sumMillis)
+                    .put(JSON_MAX, histogram.maxMillis)
+                    .put(JSON_BUCKETS, buckets);
+            if (forExport) {
+                stage.put(JSON_P50, histogram.getPercentileMillis(50))
+                        .put(JSON_P90, histogram.getPercentileMillis(90));
+            }
+            stages.put(entry.getKey(), stage);
+        }
+        json.put(JSON_STAGES, stages);
+        json.put(JSON_RUNS, new JSONArray(mRuns));
+        return json;
+    }
+
+    // The caller holds the lock
+    private void load() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+        if (mFile == null) {
+            return;
+        }
+        try {
+            JSONObject json = new JSONObject(new String(readFile(), "UTF-8"));
+            JSONArray bounds = json.getJSONArray(JSON_BUCKET_BOUNDS);
+            if (bounds.length() != BUCKET_BOUNDS_MILLIS.length) {
+                // Counted into other buckets, start over
+                return;
+            }
+            JSONObject stages = json.getJSONObject(JSON_STAGES);
+            JSONArray names = stages.names();
+            for (int i = 0; names != null && i < names.length(); i++) {
+                String name = names.getString(i);
+                JSONObject stage = stages.getJSONObject(name);
+                Histogram histogram = new Histogram();
+                histogram.count = stage.getLong(JSON_COUNT);
+                histogram.failures = stage.getLong(JSON_FAILURES);
+                histogram.sumMillis = stage.getLong(JSON_SUM);
+                histogram.maxMillis = stage.getLong(JSON_MAX);
+                JSONArray buckets = stage.getJSONArray(JSON_BUCKETS);
+                for (int j = 0; j < histogram.buckets.length; j++) {
+                    histogram.buckets[j] = buckets.getLong(j);
+                }
+                mHistograms.put(name, histogram);
+            }
+            JSONArray runs = json.getJSONArray(JSON_RUNS);
+            for (int i = Math.max(0, runs.length() - MAX_RUNS); i < runs.length(); i++) {
+                mRuns.addLast(runs.getJSONObject(i));
+            }
+        } catch (FileNotFoundException e) {
+            // Nothing recorded yet
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Can't read the sync metrics", e);
+        } catch (JSONException e) {
+            Log.w(LOG_TAG, "Can't read the sync metrics", e);
+            mHistograms.clear();
+            mRuns.clear();
+        }
+    }
+
+    // The caller holds the lock
+    private void save() {
+        if (mFile == null) {
+            return;
+        }
+        FileOutputStream out = null;
+        try {
+            byte[] bytes = toJsonObject(false).toString().getBytes("UTF-8");
+            out = mFile.startWrite();
+            out.write(bytes);
+            mFile.finishWrite(out);
+        } catch (IOException e) {
+            // The metrics of this process are still exported, they're lost once it's gone
+            Log.w(LOG_TAG, "Can't save the sync metrics", e);
+            if (out != null) {
+                mFile.failWrite(out);
+            }
+        } catch (JSONException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private byte[] readFile() throws IOException {
+        FileInputStream in = mFile.openRead();
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                bytes.write(buffer, 0, read);
+            }
+            return bytes.toByteArray();
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // Everything needed was read
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.example.android.sunshine.app.sync;
+
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * How long each stage of a sync took, in the order the stages finished.  Stages may be recorded
+ * from several threads.
+ *
+ * A trace made by {@link SyncMetrics#newTrace} also adds every span to the metrics' histograms.
+ */
+class SyncTrace {
+
+    // Handed out when metrics are off: records nothing, and its spans stay empty
+    static final SyncTrace NONE = new SyncTrace() {
+        @Override
+        void record(String name, long millis, boolean succeeded) {
+        }
+
+        @Override
+        void recordSince(String name, long start) {
+        }
+    };
+
+    static final class Span {
+        final String name;
+        final long millis;
+        final boolean succeeded;
+
+        Span(String name, long millis, boolean succeeded) {
+            this.name = name;
+            this.millis = millis;
+            this.succeeded = succeeded;
+        }
+    }
+
+    // Guarded by itself
+    private final List<Span> mSpans = new ArrayList<Span>();
+    private final SyncMetrics mMetrics;
+
+    SyncTrace() {
+        this(null);
+    }
+
+    SyncTrace(SyncMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    void record(String name, long millis, boolean succeeded) {
+        synchronized (mSpans) {
+            mSpans.add(new Span(name, millis, succeeded));
+        }
+        if (mMetrics != null) {
+            mMetrics.addSample(name, millis, succeeded);
+        }
+    }
+
+    /**
+     * Records a successful stage that started at the given {@link SystemClock#elapsedRealtime}.
+     */
+    void recordSince(String name, long start) {
+        record(name, SystemClock.elapsedRealtime() - start, true);
+    }
+
+    /**
+     * @return the spans recorded so far.
+     */
+    List<Span> getSpans() {
+        synchronized (mSpans) {
+            return new ArrayList<Span>(mSpans);
+        }
+    }
+
+    /**
+     * @return the span with the given name, or null if it wasn't recorded.
+     */
+    Span getSpan(String name) {
+        synchronized (mSpans) {
+            for (Span span : mSpans) {
+                if (span.name.equals(name)) {
+                    return span;
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (Span span : getSpans()) {
+            if (builder.length() > 0) {
+                builder.append(", ");
+            }
+            builder.append(span.name).append(' ').append(span.millis).append(" ms");
+            if (!span.succeeded) {
+                builder.append(" (failed)");
+            }
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,28 @@
+package com.example.android.sunshine.app.sync;
+
+import android.util.Log;
+
+import com.example.android.sunshine.app.wear.WearProtocol;
+import com.google.android.gms.wearable.MessageEvent;
+import com.google.android.gms.wearable.WearableListenerService;
+
+/**
+ * Hands the watch face's answers to forecast updates to the {@link WearWeatherPublisher}.
+ */
+public class WearAckListenerService extends WearableListenerService {
+    private static final String LOG_TAG = WearAckListenerService.class.getSimpleName();
+
+    @Override
+    public void onMessageReceived(MessageEvent messageEvent) {
+        if (!WearProtocol.ACK_PATH.equals(messageEvent.getPath())) {
+            return;
+        }
+        byte[] ack = messageEvent.getData();
+        try {
+            WearWeatherPublisher.getInstance(this).onAcknowledged(
+                    WearProtocol.getAckStatus(ack), WearProtocol.getAckChecksum(ack));
+        } catch (IllegalArgumentException e) {
+            Log.w(LOG_TAG, "Ignoring a malformed ack from " + messageEvent.getSourceNodeId());
+        }
+    }
+}
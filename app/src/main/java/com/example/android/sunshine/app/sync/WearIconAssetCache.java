@@ -0,0 +1,146 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.example.android.sunshine.app.BuildConfig;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * PNG encoded weather icons for the watch, keyed by drawable resource id.
+ *
+ * Each icon is decoded and compressed once, then kept in memory and in the files directory, so
+ * publishing the weather doesn't decode or encode anything.  The files are tied to the app
+ * version, since the drawables and their ids may change with it.
+ */
+class WearIconAssetCache {
+    private static final String LOG_TAG = WearIconAssetCache.class.getSimpleName();
+
+    private static final String DIRECTORY = "wear_icons";
+    private static final String SUFFIX = "_" + BuildConfig.VERSION_CODE + ".png";
+
+    private final Context mContext;
+    private final SparseArray<byte[]> mPngs = new SparseArray<byte[]>();
+    private File mDirectory;
+
+    WearIconAssetCache(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * @return the PNG bytes of the drawable, or null if it can't be decoded.
+     */
+    synchronized byte[] getPng(int resourceId) {
+        byte[] png = mPngs.get(resourceId);
+        if (png != null) {
+            return png;
+        }
+
+        File file = new File(getDirectory(),
+                mContext.getResources().getResourceEntryName(resourceId) + SUFFIX);
+        png = readFile(file);
+        if (png == null) {
+            png = encode(resourceId);
+            if (png == null) {
+                return null;
+            }
+            writeFile(file, png);
+        }
+        mPngs.put(resourceId, png);
+        return png;
+    }
+
+    private File getDirectory() {
+        if (mDirectory == null) {
+            mDirectory = new File(mContext.getFilesDir(), DIRECTORY);
+            if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+                Log.w(LOG_TAG, "Can't create " + mDirectory);
+            }
+            // Icons of a previous version of the app
+            File[] files = mDirectory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    if (!file.getName().endsWith(SUFFIX)) {
+                        file.delete();
+                    }
+                }
+            }
+        }
+        return mDirectory;
+    }
+
+    private byte[] encode(int resourceId) {
+        Bitmap bitmap = BitmapFactory.decodeResource(mContext.getResources(), resourceId);
+        if (bitmap == null) {
+            Log.e(LOG_TAG, "Can't decode icon " + resourceId);
+            return null;
+        }
+        final ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.PNG, 100, byteStream);
+        bitmap.recycle();
+        return byteStream.toByteArray();
+    }
+
+    private static byte[] readFile(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            byte[] bytes = new byte[(int) file.length()];
+            int offset = 0;
+            int read;
+            while (offset < bytes.length && (read = in.read(bytes, offset, bytes.length - offset)) != -1) {
+                offset += read;
+            }
+            return offset == bytes.length ? bytes : null;
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Can't read " + file, e);
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Nothing useful left to do with this file
+                }
+            }
+        }
+    }
+
+    private static void writeFile(File file, byte[] bytes) {
+        // Written under another name first, so a half written icon is never read back
+        File tmp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(tmp);
+            out.write(bytes);
+            out.close();
+            out = null;
+            if (!tmp.renameTo(file)) {
+                Log.w(LOG_TAG, "Can't rename " + tmp);
+            }
+        } catch (IOException e) {
+            // The icon is still cached in memory
+            Log.w(LOG_TAG, "Can't write " + file, e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // Nothing useful left to do with this file
+                }
+            }
+            tmp.delete();
+        }
+    }
+}
@@ -0,0 +1,422 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
+import android.os.SystemClock;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.wear.WearProtocol;
+import com.example.android.sunshine.app.wear.WeatherDelta;
+import com.example.android.sunshine.app.wear.WeatherPayload;
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.wearable.Asset;
+import com.google.android.gms.wearable.DataApi;
+import com.google.android.gms.wearable.PutDataMapRequest;
+import com.google.android.gms.wearable.PutDataRequest;
+import com.google.android.gms.wearable.Wearable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends today's weather and the cached forecast to the watch face from a thread of its own.
+ *
+ * There is one publisher per process.  It keeps its GoogleApiClient connected while updates
+ * come in and disconnects once it has been idle for a while.  {@link #publish} only records the
+ * update and returns: when several arrive before the previous one went out, only the latest is
+ * sent.
+ *
+ * The forecast goes out as a {@link WeatherDelta} against the last forecast the watch
+ * acknowledged, so a sync that only moves the window by a day sends a few bytes.  When the watch
+ * can't apply a delta it asks for every day again, see {@link #onAcknowledged}.
+ */
+public class WearWeatherPublisher {
+    private static final String LOG_TAG = WearWeatherPublisher.class.getSimpleName();
+
+    private static final long CONNECT_TIMEOUT_SECONDS = 30;
+    private static final long PUT_TIMEOUT_SECONDS = 30;
+    // After a failed connection or put the latest update is tried again this much later, and
+    // twice as late after each further failure, up to the maximum
+    private static final long RETRY_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(1);
+    private static final long MAX_RETRY_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(30);
+    // The update is dropped after this many failures; the next publish call starts over
+    private static final int MAX_ATTEMPTS = 6;
+    private static final long IDLE_DISCONNECT_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    private static final int MSG_PUBLISH = 1;
+    private static final int MSG_DISCONNECT = 2;
+    private static final int MSG_ACK = 3;
+
+    private static final String ACKED_FORECAST_FILE = "wear_acked_forecast";
+    // Forecasts sent but not acknowledged yet; the watch only answers the latest ones
+    private static final int MAX_SENT_FORECASTS = 4;
+
+    private static WearWeatherPublisher sInstance;
+
+    /**
+     * Today's weather as the watch face shows it, and the days the watch can page through.
+     */
+    static final class Update {
+        final int weatherId;
+        final double high;
+        final double low;
+        // Null when there is no forecast to send
+        final WeatherPayload forecast;
+        // When publish was called, to measure the latency
+        final long enqueuedAt;
+        // Only used on the handler thread
+        int failedAttempts;
+
+        Update(int weatherId, double high, double low, WeatherPayload forecast) {
+            this.weatherId = weatherId;
+            this.high = high;
+            this.low = low;
+            this.forecast = forecast;
+            this.enqueuedAt = SystemClock.elapsedRealtime();
+        }
+    }
+
+    private final Context mContext;
+    private final WearIconAssetCache mIconCache;
+    private final SyncMetrics mMetrics;
+    private final GoogleApiClient mGoogleApiClient;
+    private final Handler mHandler;
+
+    // The update waiting to go out, guarded by this
+    private Update mPendingUpdate;
+    private volatile long mLastLatencyMillis = -1;
+
+    // The rest is only used on the handler thread
+    private final AtomicFile mAckedForecastFile;
+    private boolean mAckedForecastLoaded;
+    // The forecast the watch has, as far as the phone knows; null to send every day
+    private WeatherPayload mAckedForecast;
+    private final LinkedHashMap<Integer, WeatherPayload> mSentForecasts =
+            new LinkedHashMap<Integer, WeatherPayload>();
+    // Sent again when the watch asks for the whole forecast; null until this process sent one,
+    // or rebuilt from the database for an answer to what an earlier process sent
+    private Update mLastUpdate;
+
+    public static synchronized WearWeatherPublisher getInstance(Context context) {
+        if (sInstance == null) {
+            HandlerThread thread = new HandlerThread(LOG_TAG);
+            thread.start();
+            sInstance = new WearWeatherPublisher(context.getApplicationContext(), thread.getLooper());
+        }
+        return sInstance;
+    }
+
+    private WearWeatherPublisher(Context context, Looper looper) {
+        mContext = context;
+        mIconCache = new WearIconAssetCache(context);
+        mMetrics = SyncMetrics.getInstance(context);
+        mAckedForecastFile = new AtomicFile(new File(context.getFilesDir(), ACKED_FORECAST_FILE));
+        mGoogleApiClient = new GoogleApiClient.Builder(context)
+                .addApi(Wearable.API)
+                .build();
+        mHandler = new Handler(looper) {
+            @Override
+            public void handleMessage(Message msg) {
+                switch (msg.what) {
+                    case MSG_PUBLISH:
+                        publishPending();
+                        break;
+                    case MSG_DISCONNECT:
+                        Log.d(LOG_TAG, "Idle, disconnecting from the data layer");
+                        mGoogleApiClient.disconnect();
+                        break;
+                    case MSG_ACK:
+                        handleAck((byte) msg.arg1, msg.arg2);
+                        break;
+                }
+            }
+        };
+    }
+
+    /**
+     * Queues today's weather for the watch and returns right away.  A newer update replaces
+     * one that hasn't been sent yet.
+     *
+     * @param forecast the cached days from today on, or null to send none
+     */
+    public void publish(int weatherId, double high, double low, WeatherPayload forecast) {
+        synchronized (this) {
+            mPendingUpdate = new Update(weatherId, high, low, forecast);
+        }
+        schedulePublish();
+    }
+
+    /**
+     * Records the watch's answer to a forecast, from {@link WearProtocol#encodeAck}.  Returns
+     * right away.
+     */
+    public void onAcknowledged(byte status, int checksum) {
+        mHandler.obtainMessage(MSG_ACK, status, checksum).sendToTarget();
+    }
+
+    private void schedulePublish() {
+        mHandler.removeMessages(MSG_DISCONNECT);
+        mHandler.removeMessages(MSG_PUBLISH);
+        mHandler.sendEmptyMessage(MSG_PUBLISH);
+    }
+
+    /**
+     * @return the time between the last successful publish call and the data layer accepting
+     * its update, in milliseconds; -1 if nothing was published yet.
+     */
+    public long getLastLatencyMillis() {
+        return mLastLatencyMillis;
+    }
+
+    private void publishPending() {
+        Update update;
+        synchronized (this) {
+            update = mPendingUpdate;
+        }
+        if (update == null) {
+            return;
+        }
+
+        if (!mGoogleApiClient.isConnected()) {
+            ConnectionResult connectionResult =
+                    mGoogleApiClient.blockingConnect(CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            if (!connectionResult.isSuccess()) {
+                Log.e(LOG_TAG, "Google API Connection Error: " + connectionResult);
+                retryLater(update, isTransient(connectionResult));
+                return;
+            }
+        }
+
+        PutDataRequest putDataReq = createRequest(update);
+        DataApi.DataItemResult result = Wearable.DataApi.putDataItem(mGoogleApiClient, putDataReq)
+                .await(PUT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        if (result.getStatus().isSuccess()) {
+            mLastUpdate = update;
+            if (update.forecast != null) {
+                rememberSent(update.forecast);
+            }
+            mLastLatencyMillis = SystemClock.elapsedRealtime() - update.enqueuedAt;
+            Log.d(LOG_TAG, "Sent weather info in " + mLastLatencyMillis + " ms");
+            mMetrics.addSample(SyncMetrics.STAGE_WEAR_PUBLISH, mLastLatencyMillis, true);
+        } else {
+            Log.e(LOG_TAG, "Failed to send weather info: " + result.getStatus());
+            mMetrics.addSample(SyncMetrics.STAGE_WEAR_PUBLISH,
+                    SystemClock.elapsedRealtime() - update.enqueuedAt, false);
+            retryLater(update, true);
+            return;
+        }
+
+        synchronized (this) {
+            if (mPendingUpdate == update) {
+                mPendingUpdate = null;
+            }
+        }
+        scheduleDisconnect();
+    }
+
+    /**
+     * Tries the failed update again after a backoff, or drops it when the failure won't go away
+     * or it failed too often.  A newer update that replaced it in the meantime is already queued.
+     */
+    private void retryLater(Update update, boolean transientFailure) {
+        update.failedAttempts++;
+        boolean drop = !transientFailure || update.failedAttempts >= MAX_ATTEMPTS;
+        synchronized (this) {
+            if (mPendingUpdate != update) {
+                return;
+            }
+            if (drop) {
+                mPendingUpdate = null;
+            }
+        }
+        if (drop) {
+            Log.w(LOG_TAG, "Dropping the weather update after " + update.failedAttempts
+                    + " failed attempts");
+            scheduleDisconnect();
+            return;
+        }
+        mHandler.sendEmptyMessageDelayed(MSG_PUBLISH,
+                Math.min(MAX_RETRY_DELAY_MILLIS, RETRY_DELAY_MILLIS << (update.failedAttempts - 1)));
+    }
+
+    private void scheduleDisconnect() {
+        if (mGoogleApiClient.isConnected() && !mHandler.hasMessages(MSG_PUBLISH)) {
+            mHandler.sendEmptyMessageDelayed(MSG_DISCONNECT, IDLE_DISCONNECT_MILLIS);
+        }
+    }
+
+    /**
+     * @return false if connecting again won't help: the device has no Wear API, or Google Play
+     * services is missing or needs the user to fix it.
+     */
+    private static boolean isTransient(ConnectionResult result) {
+        switch (result.getErrorCode()) {
+            case ConnectionResult.API_UNAVAILABLE:
+            case ConnectionResult.SERVICE_MISSING:
+            case ConnectionResult.SERVICE_INVALID:
+                return false;
+            default:
+                return !result.hasResolution();
+        }
+    }
+
+    private PutDataRequest createRequest(Update update) {
+        PutDataMapRequest putDataMapReq = PutDataMapRequest.create(WearProtocol.PATH);
+        putIcon(putDataMapReq, WearProtocol.WEATHER_ICON_COLOR,
+                Utility.getIconResourceForWeatherCondition(update.weatherId));
+        putIcon(putDataMapReq, WearProtocol.WEATHER_ICON_BW,
+                Utility.getBWIconResourceForWeatherCondition(update.weatherId));
+        // Lets the watch tell whether it already has the icons of this update
+        putDataMapReq.getDataMap().putInt(WearProtocol.WEATHER_ID, update.weatherId);
+        putDataMapReq.getDataMap().putInt(WearProtocol.MAX_TMP, (int) Math.round(update.high));
+        putDataMapReq.getDataMap().putInt(WearProtocol.MIN_TMP, (int) Math.round(update.low));
+        if (update.forecast != null) {
+            putDataMapReq.getDataMap().putByteArray(WearProtocol.FORECAST,
+                    WeatherDelta.encode(getAckedForecast(), update.forecast));
+        }
+        return putDataMapReq.asPutDataRequest();
+    }
+
+    // The cached bytes are the same on every sync, so the data layer doesn't send them again
+    private void putIcon(PutDataMapRequest putDataMapReq, String key, int resourceId) {
+        if (resourceId == -1) {
+            return;
+        }
+        byte[] png = mIconCache.getPng(resourceId);
+        if (png != null) {
+            putDataMapReq.getDataMap().putAsset(key, Asset.createFromBytes(png));
+        }
+    }
+
+    private void rememberSent(WeatherPayload forecast) {
+        mSentForecasts.remove(forecast.checksum());
+        mSentForecasts.put(forecast.checksum(), forecast);
+        Iterator<Integer> oldest = mSentForecasts.keySet().iterator();
+        while (mSentForecasts.size() > MAX_SENT_FORECASTS) {
+            oldest.next();
+            oldest.remove();
+        }
+    }
+
+    private void handleAck(byte status, int checksum) {
+        if (mLastUpdate == null) {
+            // Started for the answer alone, so the forecast it's about was sent by an earlier
+            // process: the last sync published what the database holds
+            mLastUpdate = queryStoredUpdate();
+            if (mLastUpdate != null && mLastUpdate.forecast != null) {
+                rememberSent(mLastUpdate.forecast);
+            }
+        }
+        WeatherPayload forecast = mSentForecasts.get(checksum);
+        if (status == WearProtocol.ACK_APPLIED) {
+            if (forecast != null) {
+                setAckedForecast(forecast);
+            }
+            return;
+        }
+
+        // The checksum is what the watch has; when it's not one we sent, start from nothing
+        Log.d(LOG_TAG, "The watch needs the whole forecast");
+        setAckedForecast(forecast);
+        if (mLastUpdate != null) {
+            synchronized (this) {
+                if (mPendingUpdate == null) {
+                    // A new update, so its latency counts from now rather than from the first send
+                    mPendingUpdate = new Update(mLastUpdate.weatherId, mLastUpdate.high, mLastUpdate.low,
+                            mLastUpdate.forecast);
+                }
+            }
+            schedulePublish();
+        }
+    }
+
+    /**
+     * @return today's weather and the forecast of the preferred location as they are stored,
+     * or null if there are none.
+     */
+    private Update queryStoredUpdate() {
+        PostSyncSnapshot snapshot =
+                PostSyncSnapshot.query(mContext, Utility.getPreferredLocation(mContext));
+        if (snapshot == null) {
+            return null;
+        }
+        return new Update(snapshot.getWeatherId(), snapshot.getHigh(), snapshot.getLow(),
+                snapshot.getForecast());
+    }
+
+    private WeatherPayload getAckedForecast() {
+        if (!mAckedForecastLoaded) {
+            mAckedForecast = readAckedForecast();
+            mAckedForecastLoaded = true;
+        }
+        return mAckedForecast;
+    }
+
+    private void setAckedForecast(WeatherPayload forecast) {
+        WeatherPayload acked = getAckedForecast();
+        if (forecast == null ? acked == null : forecast.equals(acked)) {
+            return;
+        }
+        mAckedForecast = forecast;
+        if (forecast == null) {
+            mAckedForecastFile.delete();
+            return;
+        }
+        FileOutputStream out = null;
+        try {
+            out = mAckedForecastFile.startWrite();
+            out.write(forecast.encode());
+            mAckedForecastFile.finishWrite(out);
+        } catch (IOException e) {
+            // The next delta is then made against a forecast the watch may not have, which it
+            // answers by asking for every day
+            Log.w(LOG_TAG, "Can't save the acknowledged forecast", e);
+            if (out != null) {
+                mAckedForecastFile.failWrite(out);
+            }
+        }
+    }
+
+    private WeatherPayload readAckedForecast() {
+        FileInputStream in = null;
+        try {
+            in = mAckedForecastFile.openRead();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                bytes.write(buffer, 0, read);
+            }
+            return WeatherPayload.decode(bytes.toByteArray());
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Can't read the acknowledged forecast", e);
+            return null;
+        } catch (IllegalArgumentException e) {
+            Log.w(LOG_TAG, "Can't read the acknowledged forecast", e);
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Everything needed was read
+                }
+            }
+        }
+    }
+}
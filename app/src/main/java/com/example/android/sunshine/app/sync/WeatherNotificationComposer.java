@@ -0,0 +1,131 @@
+package com.example.android.sunshine.app.sync;
+
+import android.app.NotificationManager;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.drawable.Drawable;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.service.notification.StatusBarNotification;
+import android.support.v4.app.NotificationCompat;
+import android.util.Log;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.load.engine.DiskCacheStrategy;
+import com.bumptech.glide.request.animation.GlideAnimation;
+import com.bumptech.glide.request.target.SimpleTarget;
+import com.example.android.sunshine.app.Utility;
+
+/**
+ * Posts the weather notification without waiting for the art pack.
+ *
+ * The notification goes out right away with the app's own art as the large icon.  When an art
+ * pack is selected, its image is loaded afterwards on the main thread and the notification is
+ * posted again with it, quietly.  Glide keeps the image in its disk cache at the size of the
+ * large icon, so the next notification of the same weather doesn't download or scale anything.
+ */
+class WeatherNotificationComposer {
+    private static final String LOG_TAG = WeatherNotificationComposer.class.getSimpleName();
+
+    private static WeatherNotificationComposer sInstance;
+
+    private final Context mContext;
+    private final NotificationManager mNotificationManager;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // Incremented for every notification posted, so that the art of an older one is dropped;
+    // only used on the main thread
+    private int mGeneration;
+    private volatile int mUpgradeCount;
+
+    static synchronized WeatherNotificationComposer getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new WeatherNotificationComposer(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private WeatherNotificationComposer(Context context) {
+        mContext = context;
+        mNotificationManager =
+                (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+    }
+
+    /**
+     * Posts the notification with the local art of the weather, and queues the art pack's
+     * image for it.  Returns without any network access.
+     *
+     * @param builder the notification without a large icon; owned by the composer from now on
+     */
+    void post(final int notificationId, final NotificationCompat.Builder builder, int weatherId,
+              final int largeIconWidth, final int largeIconHeight) {
+        int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
+        if (artResourceId != -1) {
+            builder.setLargeIcon(BitmapFactory.decodeResource(mContext.getResources(), artResourceId));
+        }
+        mNotificationManager.notify(notificationId, builder.build());
+
+        final String artUrl = Utility.usingLocalGraphics(mContext)
+                ? null : Utility.getArtUrlForWeatherCondition(mContext, weatherId);
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                final int generation = ++mGeneration;
+                if (artUrl != null) {
+                    loadArt(notificationId, builder, artUrl, generation, largeIconWidth, largeIconHeight);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return how many notifications got their art pack image so far.
+     */
+    int getUpgradeCount() {
+        return mUpgradeCount;
+    }
+
+    private void loadArt(final int notificationId, final NotificationCompat.Builder builder,
+                         final String artUrl, final int generation, int width, int height) {
+        Glide.with(mContext)
+                .load(artUrl)
+                .asBitmap()
+                .diskCacheStrategy(DiskCacheStrategy.RESULT)
+                .fitCenter()
+                .into(new SimpleTarget<Bitmap>(width, height) {
+                    @Override
+                    public void onResourceReady(Bitmap resource,
+                                                GlideAnimation<? super Bitmap> glideAnimation) {
+                        if (generation != mGeneration || isDismissed(notificationId)) {
+                            // A newer notification replaced this one, or the user doesn't
+                            // want to see it anymore
+                            return;
+                        }
+                        builder.setLargeIcon(resource).setOnlyAlertOnce(true);
+                        mNotificationManager.notify(notificationId, builder.build());
+                        mUpgradeCount++;
+                    }
+
+                    @Override
+                    public void onLoadFailed(Exception e, Drawable errorDrawable) {
+                        // The notification keeps the local art
+                        Log.w(LOG_TAG, "Can't load the art from " + artUrl, e);
+                    }
+                });
+    }
+
+    // Only known from Marshmallow on; before, a dismissed notification comes back with its art
+    private boolean isDismissed(int notificationId) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            return false;
+        }
+        for (StatusBarNotification notification : mNotificationManager.getActiveNotifications()) {
+            if (notification.getId() == notificationId) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
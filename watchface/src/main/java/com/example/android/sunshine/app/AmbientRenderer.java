@@ -0,0 +1,182 @@
+package com.example.android.sunshine.app;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.os.Debug;
+import android.util.Log;
+
+/**
+ * Draws the watch face in ambient mode, where it only changes once a minute: a black
+ * background, the time from pre-rendered digits and the ambient band as it is.  Nothing is
+ * measured, laid out or scaled per frame.
+ *
+ * Also counts the draw calls of every ambient frame, and its CPU time in debug builds, see
+ * {@link #logStats}.
+ */
+class AmbientRenderer {
+
+    /**
+     * Bitmaps of the few characters one paint draws in ambient mode.  They only hold coverage,
+     * the paint's color is applied when they're drawn.
+     */
+    private static final class GlyphSet {
+        final String chars;
+        final Bitmap[] glyphs;
+        final float[] advances;
+        final Paint paint = new Paint();
+        float ascent;
+
+        GlyphSet(String chars) {
+            this.chars = chars;
+            this.glyphs = new Bitmap[chars.length()];
+            this.advances = new float[chars.length()];
+        }
+
+        void render(Paint source) {
+            recycle();
+            Paint.FontMetrics metrics = source.getFontMetrics();
+            ascent = metrics.ascent;
+            int height = (int) Math.ceil(metrics.descent - metrics.ascent);
+            paint.setColor(source.getColor());
+            paint.setFilterBitmap(false);
+            for (int i = 0; i < glyphs.length; i++) {
+                String glyph = chars.substring(i, i + 1);
+                advances[i] = source.measureText(glyph);
+                glyphs[i] = Bitmap.createBitmap(Math.max(1, (int) Math.ceil(advances[i])),
+                        Math.max(1, height), Bitmap.Config.ALPHA_8);
+                new Canvas(glyphs[i]).drawText(glyph, 0, -ascent, source);
+            }
+        }
+
+        /**
+         * @return the number of bitmaps drawn.
+         */
+        int draw(Canvas canvas, String text, float x, float baseline) {
+            int drawCalls = 0;
+            for (int i = 0; i < text.length(); i++) {
+                int index = chars.indexOf(text.charAt(i));
+                if (index == -1) {
+                    continue;
+                }
+                canvas.drawBitmap(glyphs[index], x, baseline + ascent, paint);
+                x += advances[index];
+                drawCalls++;
+            }
+            return drawCalls;
+        }
+
+        void recycle() {
+            for (int i = 0; i < glyphs.length; i++) {
+                if (glyphs[i] != null) {
+                    glyphs[i].recycle();
+                    glyphs[i] = null;
+                }
+            }
+        }
+    }
+
+    private static final String DIGITS = "0123456789";
+
+    private final GlyphSet mHourGlyphs = new GlyphSet(DIGITS);
+    private final GlyphSet mColonGlyphs = new GlyphSet(":");
+    private final GlyphSet mMinuteGlyphs = new GlyphSet(DIGITS);
+    private boolean mPrepared;
+
+    private int mFrameCount;
+    private long mDrawCallCount;
+    private long mCpuNanos;
+    // The frames whose CPU time is in mCpuNanos
+    private int mTimedFrameCount;
+
+    boolean isPrepared() {
+        return mPrepared;
+    }
+
+    /**
+     * Renders the digits with the paints as they are in ambient mode, so with or without
+     * anti-aliasing as the screen needs.
+     */
+    void prepare(Paint hourPaint, Paint colonPaint, Paint minutePaint) {
+        mHourGlyphs.render(hourPaint);
+        mColonGlyphs.render(colonPaint);
+        mMinuteGlyphs.render(minutePaint);
+        mPrepared = true;
+    }
+
+    /**
+     * Renders the digits again before the next frame, for new text sizes or screen properties.
+     */
+    void invalidate() {
+        mPrepared = false;
+    }
+
+    /**
+     * Draws a whole ambient frame.  x is where the hours start and baseline is the baseline of
+     * the time.
+     *
+     * @return the number of draw calls made.
+     */
+    int draw(Canvas canvas, String hours, String minutes, float x, float baseline,
+             float hourWidth, float colonWidth, Bitmap band, int bandTop) {
+        canvas.drawColor(Color.BLACK);
+        int drawCalls = 1;
+        drawCalls += mHourGlyphs.draw(canvas, hours, x, baseline);
+        drawCalls += mColonGlyphs.draw(canvas, ":", x + hourWidth, baseline);
+        drawCalls += mMinuteGlyphs.draw(canvas, minutes, x + hourWidth + colonWidth, baseline);
+        canvas.drawBitmap(band, 0, bandTop, null);
+        return drawCalls + 1;
+    }
+
+    /**
+     * Adds an ambient frame to the counters.
+     *
+     * @param startCpuNanos the thread CPU time when the frame started, from
+     *                      {@link Debug#threadCpuTimeNanos()}, or -1 to not count it.
+     */
+    void countFrame(int drawCalls, long startCpuNanos) {
+        mFrameCount++;
+        mDrawCallCount += drawCalls;
+        if (startCpuNanos >= 0) {
+            mCpuNanos += Debug.threadCpuTimeNanos() - startCpuNanos;
+            mTimedFrameCount++;
+        }
+    }
+
+    int getFrameCount() {
+        return mFrameCount;
+    }
+
+    float getDrawCallsPerFrame() {
+        return mFrameCount == 0 ? 0 : (float) mDrawCallCount / mFrameCount;
+    }
+
+    long getCpuNanosPerFrame() {
+        return mTimedFrameCount == 0 ? 0 : mCpuNanos / mTimedFrameCount;
+    }
+
+    /**
+     * Logs the counters since the last call and resets them.
+     */
+    void logStats(String tag) {
+        if (mTimedFrameCount > 0) {
+            Log.d(tag, "Ambient: " + mFrameCount + " frames, " + getDrawCallsPerFrame()
+                    + " draw calls and " + getCpuNanosPerFrame() / 1000 + " us CPU per frame");
+        } else if (mFrameCount > 0) {
+            Log.d(tag, "Ambient: " + mFrameCount + " frames, " + getDrawCallsPerFrame()
+                    + " draw calls per frame");
+        }
+        mFrameCount = 0;
+        mDrawCallCount = 0;
+        mCpuNanos = 0;
+        mTimedFrameCount = 0;
+    }
+
+    void recycle() {
+        mHourGlyphs.recycle();
+        mColonGlyphs.recycle();
+        mMinuteGlyphs.recycle();
+        mPrepared = false;
+    }
+}
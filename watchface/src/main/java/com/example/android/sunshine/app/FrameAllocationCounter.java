@@ -0,0 +1,54 @@
+package com.example.android.sunshine.app;
+
+import android.os.Debug;
+import android.util.Log;
+
+/**
+ * Counts the frames that allocate although neither the text nor the band changed, and logs each
+ * one.  Only debug builds count; in release builds every method returns right away.
+ */
+// The allocation counters are deprecated, but they're the only per-thread count without a profiler
+@SuppressWarnings("deprecation")
+class FrameAllocationCounter {
+    private final String mTag;
+    private int mFrameCount;
+    private int mAllocatingFrameCount;
+
+    FrameAllocationCounter(String tag) {
+        mTag = tag;
+    }
+
+    void start() {
+        if (BuildConfig.DEBUG) {
+            Debug.startAllocCounting();
+        }
+    }
+
+    void stop() {
+        if (BuildConfig.DEBUG) {
+            Debug.stopAllocCounting();
+        }
+    }
+
+    void beginFrame() {
+        if (BuildConfig.DEBUG) {
+            Debug.resetThreadAllocCount();
+        }
+    }
+
+    /**
+     * @param changed true if the frame had new text or a new band to draw, which allocates.
+     */
+    void endFrame(boolean changed) {
+        if (!BuildConfig.DEBUG) {
+            return;
+        }
+        int allocations = Debug.getThreadAllocCount();
+        mFrameCount++;
+        if (!changed && allocations > 0) {
+            mAllocatingFrameCount++;
+            Log.w(mTag, "Frame allocated " + allocations + " objects; " + mAllocatingFrameCount
+                    + " of " + mFrameCount + " frames allocated so far");
+        }
+    }
+}
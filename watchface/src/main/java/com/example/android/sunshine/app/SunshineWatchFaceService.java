@@ -6,15 +6,17 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Rect;
 import android.graphics.Typeface;
+import android.net.Uri;
 import android.os.Bundle;
+import android.os.Debug;
 import android.os.Handler;
 import android.os.Message;
+import android.os.SystemClock;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.v4.content.ContextCompat;
@@ -26,21 +28,36 @@ import android.util.Log;
 import android.view.SurfaceHolder;
 import android.view.WindowInsets;
 
+import com.example.android.sunshine.app.wear.WearProtocol;
+import com.example.android.sunshine.app.wear.WeatherConditions;
+import com.example.android.sunshine.app.wear.WeatherDelta;
+import com.example.android.sunshine.app.wear.WeatherPayload;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.common.api.ResultCallback;
 import com.google.android.gms.wearable.Asset;
 import com.google.android.gms.wearable.DataApi;
 import com.google.android.gms.wearable.DataEvent;
 import com.google.android.gms.wearable.DataEventBuffer;
 import com.google.android.gms.wearable.DataItem;
+import com.google.android.gms.wearable.DataItemBuffer;
 import com.google.android.gms.wearable.DataMap;
 import com.google.android.gms.wearable.DataMapItem;
+import com.google.android.gms.wearable.MessageApi;
+import com.google.android.gms.wearable.PutDataRequest;
 import com.google.android.gms.wearable.Wearable;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.lang.ref.WeakReference;
 import java.util.Calendar;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 public class SunshineWatchFaceService extends CanvasWatchFaceService{
@@ -54,6 +71,26 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService{
 
     private static final int MSG_UPDATE_TIME = 0;
 
+    // Longest wait for the data layer to hand over an icon
+    private static final long ASSET_TIMEOUT_SECONDS = 30;
+
+    // Conditions whose icons are kept decoded; the others go back to the decoder's pool
+    private static final int MAX_CACHED_CONDITIONS = 4;
+
+    // Frames drawn each way when debug builds compare the band with its layer
+    private static final int BENCHMARK_FRAMES = 100;
+
+    // Forecasts the phone may still send a delta against, since its acks arrive late
+    private static final int MAX_RECENT_FORECASTS = 3;
+
+    // "00" to "59", so that a new minute doesn't have to format anything
+    private static final String[] TWO_DIGITS = new String[60];
+    static {
+        for (int i = 0; i < TWO_DIGITS.length; i++) {
+            TWO_DIGITS[i] = (i < 10 ? "0" : "") + i;
+        }
+    }
+
     @Override
     public Engine onCreateEngine() {
         return new SunshineEngine();
@@ -79,6 +116,61 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService{
         }
     }
 
+    /**
+     * The color and B/W icons of one weather condition, replaced together.  The encoded bytes
+     * they were decoded from go into the snapshot; null for the default icons.
+     */
+    private static final class WeatherIcons {
+        final Bitmap color;
+        final Bitmap bw;
+        final byte[] colorPng;
+        final byte[] bwPng;
+
+        WeatherIcons(Bitmap color, Bitmap bw, byte[] colorPng, byte[] bwPng) {
+            this.color = color;
+            this.bw = bw;
+            this.colorPng = colorPng;
+            this.bwPng = bwPng;
+        }
+    }
+
+    /**
+     * The date, divider and weather of the watch face, drawn into a bitmap of their own so that
+     * onDraw only has to blit them.
+     */
+    private static class BandLayer {
+        Bitmap bitmap;
+        Canvas canvas;
+        boolean valid;
+        // The icons the band was drawn with
+        WeatherIcons icons;
+
+        boolean isValid(int width, int height, WeatherIcons currentIcons) {
+            return valid && bitmap.getWidth() == width && bitmap.getHeight() == height
+                    && icons == currentIcons;
+        }
+
+        // A blank bitmap of the given size, reusing the previous one when it fits
+        void prepare(int width, int height) {
+            if (bitmap != null && bitmap.getWidth() == width && bitmap.getHeight() == height) {
+                bitmap.eraseColor(Color.TRANSPARENT);
+                return;
+            }
+            recycle();
+            bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            canvas = new Canvas(bitmap);
+        }
+
+        void recycle() {
+            if (bitmap != null) {
+                bitmap.recycle();
+                bitmap = null;
+                canvas = null;
+            }
+            valid = false;
+        }
+    }
+
     private class SunshineEngine extends CanvasWatchFaceService.Engine implements GoogleApiClient.ConnectionCallbacks, GoogleApiClient.OnConnectionFailedListener, DataApi.DataListener {
         final Handler mUpdateTimeHandler = new EngineHandler(this);
         private final String LOG_TAG = "SunshineEngine";
@@ -86,16 +178,47 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService{
         boolean mBurnInProtection;
 
         private GoogleApiClient mGoogleApiClient;
-        public static final String PATH = "/weather";
-        public static final String WEATHER_ICON_COLOR = "weather";
-        public static final String WEATHER_ICON_BW = "weather_bw";
-        public static final String MAX_TMP = "max_tmp";
-        public static final String MIN_TMP = "min_tmp";
 
-        private String highTmp = "0";
-        private String lowTmp = "0";
-        private Bitmap mWeatherIcon;
-        private Bitmap mWeatherIconBW;
+        private int mMaxTemp;
+        private int mMinTemp;
+        private int mWeatherId = -1;
+        private String mTempMaxString = "0°";
+        private String mTempMinString = "0°";
+        // The days the phone cached, or null; paged through by tapping, page 0 is today as
+        // above
+        private WeatherPayload mForecast;
+        private byte[] mForecastBytes;
+        private final LinkedHashMap<Integer, WeatherPayload> mRecentForecasts = new LinkedHashMap<>();
+        private int mPage;
+        // The last weather shown, read in onCreate and written from the decode thread
+        private WeatherSnapshotStore mSnapshotStore;
+        // The icons of the snapshot, decoded once the icon size is known
+        private WeatherSnapshotStore.Snapshot mSnapshotToDecode;
+        // The icons on screen, null until there are any.  Like the fields below, only touched
+        // on the main thread.
+        private WeatherIcons mWeatherIcons;
+        // Icons already loaded, by weather condition, least recently shown first
+        private final LinkedHashMap<String, WeatherIcons> mIconsByCondition =
+                new LinkedHashMap<String, WeatherIcons>(MAX_CACHED_CONDITIONS, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, WeatherIcons> eldest) {
+                        if (size() <= MAX_CACHED_CONDITIONS || eldest.getValue() == mWeatherIcons) {
+                            return false;
+                        }
+                        releaseIcons(eldest.getValue());
+                        return true;
+                    }
+                };
+        // Incremented for every weather update, so a decode can tell it's stale
+        private int mIconGeneration;
+
+        // Decodes the icons of the latest weather update, one at a time
+        private final ExecutorService mDecodeExecutor = Executors.newSingleThreadExecutor();
+        private final WeatherIconDecoder mIconDecoder = new WeatherIconDecoder();
+        private Future<?> mPendingIconDecode;
+        // Time from a weather update to its icons being ready
+        private int mIconDecodeCount;
+        private long mIconDecodeTotalMillis;
 
         private Calendar mCalendar;
         private boolean mRegisteredReceiver = false;
@@ -106,6 +229,31 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService{
         private float mLineHeight;
 
         private float mColonWidth;
+        private float mMiddleLineLength;
+
+        // What onDraw draws and its widths, only updated when the minute or day changes or when
+        // mTextInvalid is set for new weather, insets or a new time zone
+        private boolean mTextInvalid = true;
+        private long mTextMinute = -1;
+        private int mTextDay = -1;
+        private String mHourString;
+        private String mMinuteString;
+        private String mDateString;
+        private String mShownTempMaxString;
+        private String mShownTempMinString;
+        private float mHourWidth;
+        private float mMinuteWidth;
+        private float mDateWidth;
+        private float mTempMaxWidth;
+        private float mTempMinWidth;
+
+        // One band per mode, since low-bit ambient mode draws without anti-aliasing
+        private final BandLayer mInteractiveLayer = new BandLayer();
+        private final BandLayer mAmbientLayer = new BandLayer();
+
+        private final AmbientRenderer mAmbientRenderer = new AmbientRenderer();
+
+        private final FrameAllocationCounter mAllocationCounter = new FrameAllocationCounter(LOG_TAG);
 
         private String mAmString;
         private String mPmString;
@@ -135,8 +283,6 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService{
             mLinePaint = new Paint();
             mLinePaint.setColor(ContextCompat.getColor(SunshineWatchFaceService.this, R.color.date));
             mLinePaint.setAntiAlias(true);
-            mWeatherIcon = BitmapFactory.decodeResource(getResources(), getResources().getIdentifier("ic_clear", "drawable", getPackageName()));
-            mWeatherIconBW = BitmapFactory.decodeResource(getResources(), getResources().getIdentifier("ic_clear_bw", "drawable", getPackageName()));
             mWeatherIconPaint = new Paint();
             mTempMaxPaint = createTextPaint(Color.WHITE, BOLD_TYPEFACE);
             mTempMinPaint = createTextPaint(ContextCompat.getColor(SunshineWatchFaceService.this, R.color.date));
@@ -146,15 +292,32 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService{
             backgroundColor = ContextCompat.getColor(SunshineWatchFaceService.this, R.color.primary);
             mYOffset = resources.getDimension(R.dimen.fit_y_offset);
             mLineHeight = resources.getDimension(R.dimen.fit_line_height);
+            mMiddleLineLength = resources.getDimension(R.dimen.middleline_length);
             mAmString = resources.getString(R.string.fit_am);
             mPmString = resources.getString(R.string.fit_pm);
 
             mCalendar = Calendar.getInstance();
 
+            mSnapshotStore = new WeatherSnapshotStore(SunshineWatchFaceService.this);
+            WeatherSnapshotStore.Snapshot snapshot = mSnapshotStore.load();
+            if (snapshot != null) {
+                setTemperatures(snapshot.maxTemp, snapshot.minTemp);
+                mWeatherId = snapshot.weatherId;
+                mSnapshotToDecode = snapshot;
+                if (snapshot.forecast != null) {
+                    try {
+                        setForecast(WeatherPayload.decode(snapshot.forecast), snapshot.forecast);
+                    } catch (IllegalArgumentException e) {
+                        Log.w(LOG_TAG, "Can't read the saved forecast", e);
+                    }
+                }
+            }
+
             setWatchFaceStyle(new WatchFaceStyle.Builder(SunshineWatchFaceService.this)
                     .setCardPeekMode(WatchFaceStyle.PEEK_MODE_VARIABLE)
                     .setBackgroundVisibility(WatchFaceStyle.BACKGROUND_VISIBILITY_INTERRUPTIVE)
                     .setShowSystemUiTime(false)
+                    .setAcceptsTapEvents(true)
                     .build());
 
             mGoogleApiClient = new GoogleApiClient.Builder(SunshineWatchFaceService.this)
@@ -162,75 +325,259 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService{
                     .addOnConnectionFailedListener(this)
                     .addApi(Wearable.API)
                     .build();
+
+            mAllocationCounter.start();
         }
 
         @Override
         public void onDestroy() {
-            mUpdateTimeHandler.removeMessages(MSG_UPDATE_TIME);
+            // Time updates, and icons decoded for an engine that's going away
+            mUpdateTimeHandler.removeCallbacksAndMessages(null);
+            mDecodeExecutor.shutdownNow();
+            for (WeatherIcons icons : mIconsByCondition.values()) {
+                releaseIcons(icons);
+            }
+            mIconsByCondition.clear();
+            mIconDecoder.clear();
+            mInteractiveLayer.recycle();
+            mAmbientLayer.recycle();
+            mAmbientRenderer.recycle();
+            mAllocationCounter.stop();
             super.onDestroy();
         }
 
         @Override
         public void onDraw(Canvas canvas, Rect bounds) {
-            mCalendar.setTimeInMillis(System.currentTimeMillis());
-            boolean is24Hour = DateFormat.is24HourFormat(SunshineWatchFaceService.this);
-
-            if(isInAmbientMode()){
-                canvas.drawColor(Color.BLACK);
-            }else {
-                canvas.drawColor(backgroundColor);
-            }
-
-            // Draw the hours.
-            String hourString;
-            if (is24Hour) {
-                hourString = String.format("%02d", mCalendar.get(Calendar.HOUR_OF_DAY));
-            } else {
-                int hour = mCalendar.get(Calendar.HOUR);
-                if (hour == 0) {
-                    hour = 12;
+            mAllocationCounter.beginFrame();
+            boolean ambient = isInAmbientMode();
+            // Reading the thread's CPU time is a system call, so only debug builds time frames
+            long startCpuNanos = ambient && BuildConfig.DEBUG ? Debug.threadCpuTimeNanos() : -1;
+            boolean changed = updateText(System.currentTimeMillis());
+            BandLayer layer = ambient ? mAmbientLayer : mInteractiveLayer;
+            changed |= updateLayer(layer, bounds);
+            float x = (bounds.width() / 2) - ((mHourWidth + mColonWidth + mMinuteWidth) / 2);
+
+            if (ambient) {
+                if (!mAmbientRenderer.isPrepared()) {
+                    mAmbientRenderer.prepare(mHourPaint, mColonPaint, mMinutePaint);
+                    changed = true;
                 }
-                hourString = String.valueOf(hour);
+                int drawCalls = mAmbientRenderer.draw(canvas, mHourString, mMinuteString, x, mYOffset,
+                        mHourWidth, mColonWidth, layer.bitmap, getBandTop());
+                mAmbientRenderer.countFrame(drawCalls, startCpuNanos);
+                mAllocationCounter.endFrame(changed);
+                return;
             }
-            String minuteString = String.format("%02d", mCalendar.get(Calendar.MINUTE));
-            String tempsMaxString = highTmp + "°";
-            String tempsMinString = lowTmp + "°";
 
-            String dateString = DateUtils.formatDateTime(getApplicationContext(), mCalendar.getTimeInMillis(), DateUtils.FORMAT_SHOW_WEEKDAY | DateUtils.FORMAT_ABBREV_WEEKDAY | DateUtils.FORMAT_SHOW_DATE | DateUtils.FORMAT_ABBREV_MONTH | DateUtils.FORMAT_SHOW_YEAR);
-            dateString = dateString.toUpperCase();
+            canvas.drawColor(backgroundColor);
 
-            float x = (bounds.width() / 2) - ((mHourPaint.measureText(hourString) + mColonWidth + mMinutePaint.measureText(minuteString)) / 2);
-            canvas.drawText(hourString, x, mYOffset, mHourPaint);
-            x += mHourPaint.measureText(hourString);
+            // Draw the hours.
+            canvas.drawText(mHourString, x, mYOffset, mHourPaint);
+            x += mHourWidth;
             canvas.drawText(COLON_STRING, x, mYOffset, mColonPaint);
             x += mColonWidth;
-            canvas.drawText(minuteString, x, mYOffset, mMinutePaint);
+            canvas.drawText(mMinuteString, x, mYOffset, mMinutePaint);
+
+            canvas.drawBitmap(layer.bitmap, 0, getBandTop(), null);
+
+            mAllocationCounter.endFrame(changed);
+        }
+
+        // The band starts at the baseline of the time and runs to the bottom of the screen
+        private int getBandTop() {
+            return (int) mYOffset;
+        }
+
+        /**
+         * Redraws the band of the current mode if anything on it changed since it was drawn.
+         *
+         * @return true if the band was redrawn.
+         */
+        private boolean updateLayer(BandLayer layer, Rect bounds) {
+            int top = getBandTop();
+            int width = bounds.width();
+            int height = Math.max(1, bounds.height() - top);
+            WeatherIcons icons = getShownIcons();
+            if (layer.isValid(width, height, icons)) {
+                return false;
+            }
+
+            layer.prepare(width, height);
+            layer.canvas.save();
+            layer.canvas.translate(0, -top);
+            drawBand(layer.canvas, width, icons);
+            layer.canvas.restore();
+            layer.icons = icons;
+            layer.valid = true;
+
+            if (BuildConfig.DEBUG && Log.isLoggable(LOG_TAG, Log.VERBOSE)) {
+                logBandBenchmark(layer, width, icons);
+            }
+            return true;
+        }
+
+        private void invalidateLayers() {
+            mInteractiveLayer.valid = false;
+            mAmbientLayer.valid = false;
+        }
 
+        private void drawBand(Canvas canvas, int width, WeatherIcons icons) {
             float y = mYOffset + mLineHeight;
-            x = (bounds.width() / 2) - (mDatePaint.measureText(dateString) / 2);
-            canvas.drawText(dateString, x, y, mDatePaint);
+            float x = (width / 2) - (mDateWidth / 2);
+            canvas.drawText(mDateString, x, y, mDatePaint);
 
-            if(mWeatherIcon != null && mWeatherIconBW != null && (!isInAmbientMode() || (!mLowBitAmbient && !mBurnInProtection))) {
+            // The other days of the forecast have temperatures even without an icon
+            boolean hasWeather = icons != null || mPage > 0;
+            if(hasWeather && (!isInAmbientMode() || (!mLowBitAmbient && !mBurnInProtection))) {
                 y += mLineHeight;
-                canvas.drawLine((bounds.width() / 2) - getResources().getDimension(R.dimen.middleline_length), y, (bounds.width() / 2) + getResources().getDimension(R.dimen.middleline_length), y, mLinePaint);
+                canvas.drawLine((width / 2) - mMiddleLineLength, y, (width / 2) + mMiddleLineLength, y, mLinePaint);
 
                 y += mLineHeight / 4;
-                if(isInAmbientMode()) {
-                    x = (bounds.width() - (mWeatherIconBW.getWidth() + 15 + mTempMaxPaint.measureText(tempsMaxString) + 15 + mTempMinPaint.measureText(tempsMinString))) / 2;
-                    canvas.drawBitmap(mWeatherIconBW, x, y + 5, mWeatherIconPaint);
-                }else {
-                    x = (bounds.width() - (mWeatherIcon.getWidth() + 15 + mTempMaxPaint.measureText(tempsMaxString) + 15 + mTempMinPaint.measureText(tempsMinString))) / 2;
-                    canvas.drawBitmap(mWeatherIcon, x, y + 5, mWeatherIconPaint);
+                Bitmap icon = icons == null ? null : isInAmbientMode() ? icons.bw : icons.color;
+                float iconWidth = icon == null ? 0 : icon.getWidth() + 15;
+                x = (width - (iconWidth + mTempMaxWidth + 15 + mTempMinWidth)) / 2;
+                if (icon != null) {
+                    canvas.drawBitmap(icon, x, y + 5, mWeatherIconPaint);
                 }
 
                 y += mLineHeight + mLineHeight / 4;
-                x += mWeatherIcon.getWidth() + 15;
-                canvas.drawText(tempsMaxString, x, y, mTempMaxPaint);
+                x += iconWidth;
+                canvas.drawText(mShownTempMaxString, x, y, mTempMaxPaint);
+
+                x += mTempMaxWidth + 15;
+                canvas.drawText(mShownTempMinString, x, y, mTempMinPaint);
+            }
+        }
+
+        // Times drawing the band from text and bitmaps against blitting its layer, offscreen
+        private void logBandBenchmark(BandLayer layer, int width, WeatherIcons icons) {
+            int top = getBandTop();
+            Bitmap frame = Bitmap.createBitmap(width, layer.bitmap.getHeight() + top,
+                    Bitmap.Config.ARGB_8888);
+            Canvas canvas = new Canvas(frame);
 
-                x += mTempMaxPaint.measureText(tempsMaxString) + 15;
-                canvas.drawText(tempsMinString, x, y, mTempMinPaint);
+            long start = SystemClock.elapsedRealtimeNanos();
+            for (int i = 0; i < BENCHMARK_FRAMES; i++) {
+                canvas.drawColor(backgroundColor);
+                drawBand(canvas, width, icons);
             }
+            long drawNanos = SystemClock.elapsedRealtimeNanos() - start;
 
+            start = SystemClock.elapsedRealtimeNanos();
+            for (int i = 0; i < BENCHMARK_FRAMES; i++) {
+                canvas.drawColor(backgroundColor);
+                canvas.drawBitmap(layer.bitmap, 0, top, null);
+            }
+            long blitNanos = SystemClock.elapsedRealtimeNanos() - start;
+            frame.recycle();
+
+            Log.v(LOG_TAG, "Band: drawn in " + drawNanos / BENCHMARK_FRAMES / 1000 + " us, blitted in "
+                    + blitNanos / BENCHMARK_FRAMES / 1000 + " us per frame");
+        }
+
+        /**
+         * Formats and measures the text of the frame if the minute or the day changed since the
+         * last one, or if it was invalidated.
+         *
+         * @return true if anything was updated.
+         */
+        private boolean updateText(long now) {
+            long minute = now / DateUtils.MINUTE_IN_MILLIS;
+            if (minute == mTextMinute && !mTextInvalid) {
+                return false;
+            }
+            mCalendar.setTimeInMillis(now);
+
+            if (DateFormat.is24HourFormat(SunshineWatchFaceService.this)) {
+                mHourString = TWO_DIGITS[mCalendar.get(Calendar.HOUR_OF_DAY)];
+            } else {
+                int hour = mCalendar.get(Calendar.HOUR);
+                if (hour == 0) {
+                    hour = 12;
+                }
+                mHourString = String.valueOf(hour);
+            }
+            mMinuteString = TWO_DIGITS[mCalendar.get(Calendar.MINUTE)];
+            mHourWidth = mHourPaint.measureText(mHourString);
+            mMinuteWidth = mMinutePaint.measureText(mMinuteString);
+
+            int day = mCalendar.get(Calendar.YEAR) * 1000 + mCalendar.get(Calendar.DAY_OF_YEAR);
+            if (day != mTextDay || mTextInvalid) {
+                int index = getShownDayIndex();
+                long dateMillis = index == -1 ? now : getNoonOf(mForecast.getFirstDay() + index);
+                mDateString = DateUtils.formatDateTime(getApplicationContext(), dateMillis, DateUtils.FORMAT_SHOW_WEEKDAY | DateUtils.FORMAT_ABBREV_WEEKDAY | DateUtils.FORMAT_SHOW_DATE | DateUtils.FORMAT_ABBREV_MONTH | DateUtils.FORMAT_SHOW_YEAR)
+                        .toUpperCase();
+                mDateWidth = mDatePaint.measureText(mDateString);
+                mTextDay = day;
+                invalidateLayers();
+            }
+
+            if (mTextInvalid) {
+                int index = getShownDayIndex();
+                if (index == -1) {
+                    mShownTempMaxString = mTempMaxString;
+                    mShownTempMinString = mTempMinString;
+                } else {
+                    mShownTempMaxString = mForecast.getHigh(index) + "°";
+                    mShownTempMinString = mForecast.getLow(index) + "°";
+                }
+                mTempMaxWidth = mTempMaxPaint.measureText(mShownTempMaxString);
+                mTempMinWidth = mTempMinPaint.measureText(mShownTempMinString);
+            }
+
+            mTextMinute = minute;
+            mTextInvalid = false;
+            return true;
+        }
+
+        @Override
+        public void onTapCommand(int tapType, int x, int y, long eventTime) {
+            if (tapType == TAP_TYPE_TAP) {
+                showPage(mPage + 1);
+                invalidate();
+            }
+        }
+
+        /**
+         * Shows the given day after today, or today when there is no such day in the forecast.
+         */
+        private void showPage(int page) {
+            if (page > 0 && (mForecast == null || mForecast.indexOfDay(getToday() + page) == -1)) {
+                page = 0;
+            }
+            if (page != mPage) {
+                mPage = page;
+                mTextInvalid = true;
+                invalidateLayers();
+            }
+        }
+
+        // Days since the epoch of the local date
+        private int getToday() {
+            long now = System.currentTimeMillis();
+            return (int) ((now + mCalendar.getTimeZone().getOffset(now)) / DateUtils.DAY_IN_MILLIS);
+        }
+
+        private long getNoonOf(int day) {
+            long noon = day * DateUtils.DAY_IN_MILLIS + DateUtils.DAY_IN_MILLIS / 2;
+            return noon - mCalendar.getTimeZone().getOffset(noon);
+        }
+
+        /**
+         * @return the index in the forecast of the day shown, or -1 for today's weather.
+         */
+        private int getShownDayIndex() {
+            return mPage == 0 || mForecast == null ? -1 : mForecast.indexOfDay(getToday() + mPage);
+        }
+
+        // The icons of the day shown; null for another day whose icons aren't loaded
+        private WeatherIcons getShownIcons() {
+            int index = getShownDayIndex();
+            if (index == -1) {
+                return mWeatherIcons;
+            }
+            String condition = WeatherConditions.getCondition(mForecast.getWeatherId(index));
+            return condition == null ? null : mIconsByCondition.get(condition);
         }
 
         @Override
@@ -261,6 +608,59 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService{
             mTempMinPaint.setTextSize(tempSize);
 
             mColonWidth = mColonPaint.measureText(COLON_STRING);
+            mTextInvalid = true;
+            mAmbientRenderer.invalidate();
+
+            int iconSize = resources.getDimensionPixelSize(isRound ? R.dimen.weather_icon_size_round : R.dimen.weather_icon_size);
+            if (iconSize != mIconDecoder.getTargetSize()) {
+                mIconDecoder.setTargetSize(iconSize);
+                // Icons of the old size are decoded again the next time they're needed
+                for (WeatherIcons icons : mIconsByCondition.values()) {
+                    if (icons != mWeatherIcons) {
+                        releaseIcons(icons);
+                    }
+                }
+                mIconsByCondition.clear();
+            }
+            if (mSnapshotToDecode != null) {
+                loadSnapshotIcons(mSnapshotToDecode);
+                mSnapshotToDecode = null;
+            }
+            if (mWeatherIcons == null) {
+                loadDefaultIcons();
+            }
+        }
+
+        // Decoded right here, the icons have to be there for the first frame
+        private void loadSnapshotIcons(WeatherSnapshotStore.Snapshot snapshot) {
+            if (snapshot.colorPng == null || snapshot.bwPng == null) {
+                return;
+            }
+            Bitmap color = mIconDecoder.decodeByteArray(snapshot.colorPng);
+            Bitmap bw = mIconDecoder.decodeByteArray(snapshot.bwPng);
+            if (color == null || bw == null) {
+                return;
+            }
+            mWeatherIcons = new WeatherIcons(color, bw, snapshot.colorPng, snapshot.bwPng);
+            String condition = WeatherConditions.getCondition(snapshot.weatherId);
+            if (condition != null) {
+                mIconsByCondition.put(condition, mWeatherIcons);
+            }
+        }
+
+        // Clear sky until the phone sends the weather, if this build has the icons for it
+        private void loadDefaultIcons() {
+            Resources resources = getResources();
+            int colorId = resources.getIdentifier("ic_clear", "drawable", getPackageName());
+            int bwId = resources.getIdentifier("ic_clear_bw", "drawable", getPackageName());
+            if (colorId == 0 || bwId == 0) {
+                return;
+            }
+            Bitmap color = mIconDecoder.decodeResource(resources, colorId);
+            Bitmap bw = mIconDecoder.decodeResource(resources, bwId);
+            if (color != null && bw != null) {
+                mWeatherIcons = new WeatherIcons(color, bw, null, null);
+            }
         }
 
         @Override
@@ -269,17 +669,14 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService{
 
             if (visible) {
                 registerReceiver();
-                mGoogleApiClient.connect();
 
                 mCalendar.setTimeZone(TimeZone.getDefault());
+                mTextInvalid = true;
             } else {
-                if (mGoogleApiClient != null && mGoogleApiClient.isConnected()) {
-                    Wearable.DataApi.removeListener(mGoogleApiClient, this);
-                    mGoogleApiClient.disconnect();
-                }
-
                 unregisterReceiver();
+                showPage(0);
             }
+            updateConnection();
 
             // Whether the timer should be running depends on whether we're visible and
             // whether we're in ambient mode, so we may need to start or stop the timer
@@ -300,6 +697,12 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService{
                 mTempMaxPaint.setAntiAlias(antiAlias);
                 mTempMinPaint.setAntiAlias(antiAlias);
             }
+            if (inAmbientMode) {
+                showPage(0);
+            } else {
+                mAmbientRenderer.logStats(LOG_TAG);
+            }
+            updateConnection();
             invalidate();
 
             // Whether the timer should be running depends on whether we're in ambient mode (as well
@@ -313,6 +716,8 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService{
             mLowBitAmbient = properties.getBoolean(PROPERTY_LOW_BIT_AMBIENT, false);
             mBurnInProtection = properties.getBoolean(PROPERTY_BURN_IN_PROTECTION,
                     false);
+            invalidateLayers();
+            mAmbientRenderer.invalidate();
         }
 
         @Override
@@ -322,6 +727,25 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService{
             invalidate();
         }
 
+        /**
+         * Listens to the data layer only while the face is visible and interactive.  Ambient mode
+         * misses no weather: onConnected reads the current item when it's interactive again.
+         */
+        private void updateConnection() {
+            if (isVisible() && !isInAmbientMode()) {
+                if (!mGoogleApiClient.isConnected() && !mGoogleApiClient.isConnecting()) {
+                    mGoogleApiClient.connect();
+                }
+            } else {
+                if (mGoogleApiClient.isConnected()) {
+                    Wearable.DataApi.removeListener(mGoogleApiClient, this);
+                }
+                if (mGoogleApiClient.isConnected() || mGoogleApiClient.isConnecting()) {
+                    mGoogleApiClient.disconnect();
+                }
+            }
+        }
+
         private void updateTimer() {
             mUpdateTimeHandler.removeMessages(MSG_UPDATE_TIME);
             if (shouldTimerBeRunning()) {
@@ -347,6 +771,7 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService{
             @Override
             public void onReceive(Context context, Intent intent) {
                 mCalendar.setTimeZone(TimeZone.getDefault());
+                mTextInvalid = true;
                 invalidate();
             }
         };
@@ -384,28 +809,212 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService{
         public void onDataChanged(DataEventBuffer dataEventBuffer) {
             for (DataEvent event : dataEventBuffer) {
                 DataItem item = event.getDataItem();
-                if (item.getUri().getPath().equals(PATH)) {
-                    Log.i(LOG_TAG, "Data Changed for " + PATH);
-                    DataMap dataMap = DataMapItem.fromDataItem(item).getDataMap();
-                    highTmp = Integer.toString(dataMap.getInt(MAX_TMP));
-                    lowTmp = Integer.toString(dataMap.getInt(MIN_TMP));
-                    final Asset colorAsset = dataMap.getAsset(WEATHER_ICON_COLOR);
-                    final Asset bwAsset = dataMap.getAsset(WEATHER_ICON_BW);
-                    if(colorAsset != null && bwAsset != null) {
-                        new Thread(new Runnable() {
-                            @Override
-                            public void run() {
-                                mWeatherIcon = loadBitmapFromAsset(colorAsset);
-                                mWeatherIconBW = loadBitmapFromAsset(bwAsset);
+                if (item.getUri().getPath().equals(WearProtocol.PATH)) {
+                    Log.i(LOG_TAG, "Data Changed for " + WearProtocol.PATH);
+                    applyWeather(DataMapItem.fromDataItem(item).getDataMap(), item.getUri().getHost());
+                }
+            }
+            invalidate();
+        }
+
+        // nodeId is the phone that put the item, for the forecast's ack
+        private void applyWeather(DataMap dataMap, String nodeId) {
+            setTemperatures(dataMap.getInt(WearProtocol.MAX_TMP), dataMap.getInt(WearProtocol.MIN_TMP));
+            mWeatherId = dataMap.getInt(WearProtocol.WEATHER_ID, -1);
+            updateIcons(WeatherConditions.getCondition(mWeatherId), dataMap.getAsset(WearProtocol.WEATHER_ICON_COLOR), dataMap.getAsset(WearProtocol.WEATHER_ICON_BW));
+            byte[] delta = dataMap.getByteArray(WearProtocol.FORECAST);
+            if (delta != null) {
+                applyForecast(delta, nodeId);
+            }
+            if (mPendingIconDecode == null) {
+                // Otherwise saved with the new icons once they're decoded
+                saveSnapshot();
+            }
+        }
+
+        /**
+         * Applies a forecast delta against the forecast it was made for and tells the phone
+         * which forecast the face has now.  The phone sends every day again when the base is
+         * unknown here or the delta doesn't check out.
+         */
+        private void applyForecast(byte[] delta, String nodeId) {
+            try {
+                int target = WeatherDelta.getTargetChecksum(delta);
+                if (mForecast != null && mForecast.checksum() == target) {
+                    // Already applied, e.g. the item read again on connecting
+                    return;
+                }
+                WeatherPayload base = null;
+                if (!WeatherDelta.isFull(delta)) {
+                    base = mRecentForecasts.get(WeatherDelta.getBaseChecksum(delta));
+                    if (base == null) {
+                        Log.d(LOG_TAG, "No base for the forecast delta");
+                        sendAck(nodeId, WearProtocol.ACK_NEEDS_FULL);
+                        return;
+                    }
+                }
+                WeatherPayload forecast = WeatherDelta.apply(base, delta);
+                setForecast(forecast, forecast.encode());
+                sendAck(nodeId, WearProtocol.ACK_APPLIED);
+            } catch (IllegalArgumentException e) {
+                Log.w(LOG_TAG, "Can't apply the forecast delta", e);
+                sendAck(nodeId, WearProtocol.ACK_NEEDS_FULL);
+            }
+        }
+
+        private void setForecast(WeatherPayload forecast, byte[] encoded) {
+            mForecast = forecast;
+            mForecastBytes = encoded;
+            int checksum = forecast.checksum();
+            mRecentForecasts.remove(checksum);
+            mRecentForecasts.put(checksum, forecast);
+            Iterator<Integer> oldest = mRecentForecasts.keySet().iterator();
+            while (mRecentForecasts.size() > MAX_RECENT_FORECASTS) {
+                oldest.next();
+                oldest.remove();
+            }
+            // The page shown may have new values, or be gone
+            mTextInvalid = true;
+            invalidateLayers();
+            showPage(mPage);
+        }
+
+        // Fire and forget: a lost ack only costs a delta against an older forecast
+        private void sendAck(String nodeId, byte status) {
+            if (nodeId == null || !mGoogleApiClient.isConnected()) {
+                return;
+            }
+            int checksum = mForecast == null ? 0 : mForecast.checksum();
+            Wearable.MessageApi.sendMessage(mGoogleApiClient, nodeId, WearProtocol.ACK_PATH,
+                    WearProtocol.encodeAck(status, checksum)).setResultCallback(
+                    new ResultCallback<MessageApi.SendMessageResult>() {
+                        @Override
+                        public void onResult(@NonNull MessageApi.SendMessageResult result) {
+                            if (!result.getStatus().isSuccess()) {
+                                Log.w(LOG_TAG, "Can't send the forecast ack: " + result.getStatus());
                             }
-                        }).start();
+                        }
+                    });
+        }
+
+        private void setTemperatures(int maxTemp, int minTemp) {
+            mMaxTemp = maxTemp;
+            mMinTemp = minTemp;
+            mTempMaxString = maxTemp + "°";
+            mTempMinString = minTemp + "°";
+            mTextInvalid = true;
+        }
+
+        // Saves what's on screen; the same thread as the decodes, so the saves stay in order
+        private void saveSnapshot() {
+            if (mDecodeExecutor.isShutdown()) {
+                return;
+            }
+            WeatherIcons icons = mWeatherIcons;
+            final WeatherSnapshotStore.Snapshot snapshot = new WeatherSnapshotStore.Snapshot(
+                    mMaxTemp, mMinTemp, mWeatherId,
+                    icons == null ? null : icons.colorPng, icons == null ? null : icons.bwPng,
+                    mForecastBytes);
+            mDecodeExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    mSnapshotStore.save(snapshot);
+                }
+            });
+        }
+
+        /**
+         * Shows the icons of a weather update, right away if they were loaded before and once
+         * the decoder has them otherwise.  A decode still running for an older update is
+         * cancelled, and its icons are never shown.
+         */
+        private void updateIcons(final String condition, final Asset colorAsset, final Asset bwAsset) {
+            final int generation = ++mIconGeneration;
+            if (mPendingIconDecode != null) {
+                mPendingIconDecode.cancel(true);
+                mPendingIconDecode = null;
+            }
+            WeatherIcons icons = condition == null ? null : mIconsByCondition.get(condition);
+            if (icons != null) {
+                // Same icons as before, no need to fetch and decode the assets
+                mWeatherIcons = icons;
+                return;
+            }
+            if (colorAsset == null || bwAsset == null || mDecodeExecutor.isShutdown()) {
+                return;
+            }
+
+            final long requestedAt = SystemClock.elapsedRealtime();
+            mPendingIconDecode = mDecodeExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    byte[] colorPng = loadAssetBytes(colorAsset);
+                    byte[] bwPng = Thread.currentThread().isInterrupted() ? null : loadAssetBytes(bwAsset);
+                    if (colorPng == null || bwPng == null) {
+                        return;
+                    }
+                    Bitmap color = mIconDecoder.decodeByteArray(colorPng);
+                    Bitmap bw = mIconDecoder.decodeByteArray(bwPng);
+                    if (color == null || bw == null) {
+                        Log.w(LOG_TAG, "Can't decode the weather icons");
+                        if (color != null) {
+                            mIconDecoder.release(color);
+                        }
+                        if (bw != null) {
+                            mIconDecoder.release(bw);
+                        }
+                        return;
                     }
+                    final WeatherIcons icons = new WeatherIcons(color, bw, colorPng, bwPng);
+                    mUpdateTimeHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            onIconsDecoded(condition, icons, generation,
+                                    SystemClock.elapsedRealtime() - requestedAt);
+                        }
+                    });
+                }
+            });
+        }
+
+        // On the main thread, so that no bitmap goes back to the pool while it's being drawn
+        private void onIconsDecoded(String condition, WeatherIcons icons, int generation, long latency) {
+            if (generation != mIconGeneration) {
+                Log.d(LOG_TAG, "Dropped the icons of an older weather update");
+                if (condition != null && !mIconsByCondition.containsKey(condition)) {
+                    mIconsByCondition.put(condition, icons);
+                } else {
+                    releaseIcons(icons);
+                }
+                return;
+            }
+            mWeatherIcons = icons;
+            if (condition != null) {
+                WeatherIcons previous = mIconsByCondition.put(condition, icons);
+                if (previous != null) {
+                    releaseIcons(previous);
                 }
             }
+
+            mIconDecodeCount++;
+            mIconDecodeTotalMillis += latency;
+            Log.d(LOG_TAG, "Icons ready in " + latency + " ms, "
+                    + mIconDecodeTotalMillis / mIconDecodeCount + " ms on average over "
+                    + mIconDecodeCount + " updates");
+            saveSnapshot();
             invalidate();
         }
 
-        public Bitmap loadBitmapFromAsset(Asset asset) {
+        private void releaseIcons(WeatherIcons icons) {
+            mIconDecoder.release(icons.color);
+            mIconDecoder.release(icons.bw);
+        }
+
+        /**
+         * @return the encoded icon of the asset, or null if the data layer couldn't provide it in
+         * time or the thread was interrupted.
+         */
+        private byte[] loadAssetBytes(Asset asset) {
             if (asset == null) {
                 throw new IllegalArgumentException("Asset must be non-null");
             }
@@ -414,19 +1023,58 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService{
             }
             // convert asset into a file descriptor and block until it's ready
             InputStream assetInputStream = Wearable.DataApi.getFdForAsset(
-                    mGoogleApiClient, asset).await().getInputStream();
+                    mGoogleApiClient, asset).await(ASSET_TIMEOUT_SECONDS, TimeUnit.SECONDS).getInputStream();
 
             if (assetInputStream == null) {
                 Log.w(LOG_TAG, "Requested an unknown Asset.");
                 return null;
             }
-            // decode the stream into a bitmap
-            return BitmapFactory.decodeStream(assetInputStream);
+            try {
+                return WeatherIconDecoder.readFully(assetInputStream);
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Can't read the asset", e);
+                return null;
+            } finally {
+                try {
+                    assetInputStream.close();
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, "Can't close the asset", e);
+                }
+            }
         }
 
         @Override
         public void onConnected(@Nullable Bundle bundle) {
             Wearable.DataApi.addListener(mGoogleApiClient, SunshineEngine.this);
+            reconcileSnapshot();
+        }
+
+        /**
+         * Catches up with weather the phone sent while the face wasn't listening.  When the item
+         * is what the snapshot already shows, its icons come from the cache and nothing is
+         * decoded or written.
+         */
+        private void reconcileSnapshot() {
+            Uri uri = new Uri.Builder().scheme(PutDataRequest.WEAR_URI_SCHEME).path(WearProtocol.PATH).build();
+            Wearable.DataApi.getDataItems(mGoogleApiClient, uri).setResultCallback(
+                    new ResultCallback<DataItemBuffer>() {
+                        @Override
+                        public void onResult(@NonNull DataItemBuffer dataItems) {
+                            try {
+                                if (!dataItems.getStatus().isSuccess()) {
+                                    Log.w(LOG_TAG, "Can't read the weather: " + dataItems.getStatus());
+                                    return;
+                                }
+                                for (DataItem item : dataItems) {
+                                    applyWeather(DataMapItem.fromDataItem(item).getDataMap(),
+                                            item.getUri().getHost());
+                                }
+                            } finally {
+                                dataItems.release();
+                            }
+                            invalidate();
+                        }
+                    });
         }
 
         @Override
@@ -438,33 +1086,5 @@ public class SunshineWatchFaceService extends CanvasWatchFaceService{
         public void onConnectionFailed(@NonNull ConnectionResult connectionResult) {
             Log.d(LOG_TAG, "Connection Failed: " + connectionResult);
         }
-
-        public String getArtUrlForWeatherCondition(Long weatherId) {
-
-            if (weatherId >= 200 && weatherId <= 232) {
-                return "storm";
-            } else if (weatherId >= 300 && weatherId <= 321) {
-                return "light_rain";
-            } else if (weatherId >= 500 && weatherId <= 504) {
-                return "rain";
-            } else if (weatherId == 511) {
-                return "snow";
-            } else if (weatherId >= 520 && weatherId <= 531) {
-                return "rain";
-            } else if (weatherId >= 600 && weatherId <= 622) {
-                return "snow";
-            } else if (weatherId >= 701 && weatherId <= 761) {
-                return "fog";
-            } else if (weatherId == 761 || weatherId == 781) {
-                return "storm";
-            } else if (weatherId == 800) {
-                return "clear";
-            } else if (weatherId == 801) {
-                return "light_clouds";
-            } else if (weatherId >= 802 && weatherId <= 804) {
-                return "cloudy";
-            }
-            return null;
-        }
     }
 }
@@ -0,0 +1,155 @@
+package com.example.android.sunshine.app;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+
+/**
+ * Decodes weather icons at the size the watch face draws them, instead of the size the phone
+ * encoded them at.  Bitmaps of icons that are no longer used come back through {@link #release}
+ * and are decoded into again.
+ */
+class WeatherIconDecoder {
+    private static final String LOG_TAG = "WeatherIconDecoder";
+
+    // Two pairs of icons, more are never waiting to be reused
+    private static final int POOL_SIZE = 4;
+
+    // Bitmaps to decode into, guarded by itself
+    private final ArrayList<Bitmap> mPool = new ArrayList<>();
+    // The size of the icon slot in pixels, 0 to decode at full size
+    private volatile int mTargetSize;
+
+    void setTargetSize(int targetSize) {
+        mTargetSize = targetSize;
+    }
+
+    int getTargetSize() {
+        return mTargetSize;
+    }
+
+    /**
+     * @return the encoded icon at the target size, or null if it can't be decoded.
+     */
+    Bitmap decodeByteArray(final byte[] data) {
+        return decode(new Source() {
+            @Override
+            public Bitmap decode(BitmapFactory.Options options) {
+                return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+            }
+        });
+    }
+
+    /**
+     * @return the drawable at the target size, or null if it can't be decoded.
+     */
+    Bitmap decodeResource(final Resources resources, final int resourceId) {
+        return decode(new Source() {
+            @Override
+            public Bitmap decode(BitmapFactory.Options options) {
+                return BitmapFactory.decodeResource(resources, resourceId, options);
+            }
+        });
+    }
+
+    /**
+     * Hands a bitmap that isn't drawn anymore back for reuse.
+     */
+    void release(Bitmap bitmap) {
+        synchronized (mPool) {
+            if (bitmap.isMutable() && !bitmap.isRecycled() && mPool.size() < POOL_SIZE) {
+                mPool.add(bitmap);
+                return;
+            }
+        }
+        bitmap.recycle();
+    }
+
+    /**
+     * Empties the pool, for when the watch face goes away.
+     */
+    void clear() {
+        synchronized (mPool) {
+            for (Bitmap bitmap : mPool) {
+                bitmap.recycle();
+            }
+            mPool.clear();
+        }
+    }
+
+    private interface Source {
+        Bitmap decode(BitmapFactory.Options options);
+    }
+
+    private Bitmap decode(Source source) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        // The pixels as stored, not scaled to the density of the screen
+        options.inScaled = false;
+        source.decode(options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        int size = Math.max(options.outWidth, options.outHeight);
+        int targetSize = mTargetSize > 0 ? mTargetSize : size;
+        options.inJustDecodeBounds = false;
+
+        // Subsample by powers of two while that stays above the target, then scale the rest
+        options.inSampleSize = 1;
+        while (size / (options.inSampleSize * 2) >= targetSize) {
+            options.inSampleSize *= 2;
+        }
+        int sampledSize = size / options.inSampleSize;
+        options.inScaled = sampledSize != targetSize;
+        options.inDensity = sampledSize;
+        options.inTargetDensity = targetSize;
+
+        int width = (int) Math.ceil((double) options.outWidth / options.inSampleSize * targetSize / sampledSize);
+        int height = (int) Math.ceil((double) options.outHeight / options.inSampleSize * targetSize / sampledSize);
+        options.inMutable = true;
+        options.inBitmap = takeFromPool(width * height * 4);
+
+        try {
+            return source.decode(options);
+        } catch (IllegalArgumentException e) {
+            if (options.inBitmap == null) {
+                throw e;
+            }
+            // The pooled bitmap didn't fit after all
+            Log.w(LOG_TAG, "Can't decode into a pooled bitmap", e);
+            options.inBitmap.recycle();
+            options.inBitmap = null;
+            return source.decode(options);
+        }
+    }
+
+    private Bitmap takeFromPool(int byteCount) {
+        synchronized (mPool) {
+            for (int i = 0; i < mPool.size(); i++) {
+                Bitmap bitmap = mPool.get(i);
+                if (bitmap.getAllocationByteCount() >= byteCount) {
+                    mPool.remove(i);
+                    return bitmap;
+                }
+            }
+        }
+        return null;
+    }
+
+    static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
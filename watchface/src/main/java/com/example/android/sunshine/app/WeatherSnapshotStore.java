@@ -0,0 +1,147 @@
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * The weather the watch face showed last, kept in a file so that a new engine can draw it from
+ * its first frame instead of placeholders until the data layer answers.
+ */
+class WeatherSnapshotStore {
+    private static final String LOG_TAG = "WeatherSnapshotStore";
+
+    private static final String FILE_NAME = "weather_snapshot";
+    // Written first, so that a file in another format is ignored rather than misread
+    private static final int FORMAT_VERSION = 2;
+
+    /**
+     * The temperatures, weather id and icons as the phone sent them.  The icons are the encoded
+     * asset bytes, or null when the face had none; the forecast is an encoded WeatherPayload, or
+     * null when there was none.
+     */
+    static final class Snapshot {
+        final int maxTemp;
+        final int minTemp;
+        final int weatherId;
+        final byte[] colorPng;
+        final byte[] bwPng;
+        final byte[] forecast;
+
+        Snapshot(int maxTemp, int minTemp, int weatherId, byte[] colorPng, byte[] bwPng,
+                 byte[] forecast) {
+            this.maxTemp = maxTemp;
+            this.minTemp = minTemp;
+            this.weatherId = weatherId;
+            this.colorPng = colorPng;
+            this.bwPng = bwPng;
+            this.forecast = forecast;
+        }
+
+        // The byte arrays are compared by reference, they are never changed once received
+        boolean sameAs(Snapshot other) {
+            return other != null && maxTemp == other.maxTemp && minTemp == other.minTemp
+                    && weatherId == other.weatherId && colorPng == other.colorPng
+                    && bwPng == other.bwPng && forecast == other.forecast;
+        }
+    }
+
+    private final AtomicFile mFile;
+    // What the file holds, guarded by this
+    private Snapshot mSaved;
+
+    WeatherSnapshotStore(Context context) {
+        mFile = new AtomicFile(new File(context.getFilesDir(), FILE_NAME));
+    }
+
+    /**
+     * @return the snapshot saved last, or null if there is none that can be read.
+     */
+    synchronized Snapshot load() {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(mFile.openRead());
+            if (in.readInt() != FORMAT_VERSION) {
+                return null;
+            }
+            int maxTemp = in.readInt();
+            int minTemp = in.readInt();
+            int weatherId = in.readInt();
+            byte[] colorPng = readBytes(in);
+            byte[] bwPng = readBytes(in);
+            byte[] forecast = readBytes(in);
+            mSaved = new Snapshot(maxTemp, minTemp, weatherId, colorPng, bwPng, forecast);
+            return mSaved;
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Can't read the weather snapshot", e);
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Everything needed was read
+                }
+            }
+        }
+    }
+
+    /**
+     * Replaces the saved snapshot, unless it's the same one.  Does disk I/O, so not on the main
+     * thread.
+     */
+    synchronized void save(Snapshot snapshot) {
+        if (snapshot.sameAs(mSaved)) {
+            return;
+        }
+        FileOutputStream out = null;
+        try {
+            out = mFile.startWrite();
+            DataOutputStream data = new DataOutputStream(out);
+            data.writeInt(FORMAT_VERSION);
+            data.writeInt(snapshot.maxTemp);
+            data.writeInt(snapshot.minTemp);
+            data.writeInt(snapshot.weatherId);
+            writeBytes(data, snapshot.colorPng);
+            writeBytes(data, snapshot.bwPng);
+            writeBytes(data, snapshot.forecast);
+            data.flush();
+            mFile.finishWrite(out);
+            mSaved = snapshot;
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Can't write the weather snapshot", e);
+            if (out != null) {
+                mFile.failWrite(out);
+            }
+        }
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        if (bytes == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
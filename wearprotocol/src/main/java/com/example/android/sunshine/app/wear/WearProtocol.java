@@ -0,0 +1,59 @@
+package com.example.android.sunshine.app.wear;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The data layer contract between the phone app and the watch face.
+ */
+public final class WearProtocol {
+
+    // The data item the phone puts the weather in
+    public static final String PATH = "/weather";
+
+    // Keys of the data item
+    public static final String WEATHER_ICON_COLOR = "weather";
+    public static final String WEATHER_ICON_BW = "weather_bw";
+    public static final String MAX_TMP = "max_tmp";
+    public static final String MIN_TMP = "min_tmp";
+    public static final String WEATHER_ID = "weather_id";
+    // A WeatherDelta of the whole cached forecast
+    public static final String FORECAST = "forecast";
+
+    // The message the watch answers every forecast with: a status byte, then the checksum of
+    // the forecast the watch has now
+    public static final String ACK_PATH = "/weather/ack";
+    public static final byte ACK_APPLIED = 0;
+    // The watch couldn't apply the delta and needs every day again
+    public static final byte ACK_NEEDS_FULL = 1;
+
+    private static final int ACK_SIZE = 5;
+
+    private WearProtocol() {
+    }
+
+    public static byte[] encodeAck(byte status, int checksum) {
+        return ByteBuffer.allocate(ACK_SIZE).put(status).putInt(checksum).array();
+    }
+
+    /**
+     * @throws IllegalArgumentException if the message isn't an ack.
+     */
+    public static byte getAckStatus(byte[] ack) {
+        checkAck(ack);
+        return ack[0];
+    }
+
+    /**
+     * @throws IllegalArgumentException if the message isn't an ack.
+     */
+    public static int getAckChecksum(byte[] ack) {
+        checkAck(ack);
+        return ByteBuffer.wrap(ack).getInt(1);
+    }
+
+    private static void checkAck(byte[] ack) {
+        if (ack == null || ack.length != ACK_SIZE) {
+            throw new IllegalArgumentException("Not an ack");
+        }
+    }
+}
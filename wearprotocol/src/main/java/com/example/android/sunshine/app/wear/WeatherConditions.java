@@ -0,0 +1,78 @@
+package com.example.android.sunshine.app.wear;
+
+import java.util.Arrays;
+
+/**
+ * Groups OpenWeatherMap weather ids into the conditions the app has icons for.
+ *
+ * The groups are looked up in a table indexed by weather id, filled once, so that every row,
+ * widget and frame that needs an icon does one array read instead of a chain of range checks.
+ * The app keeps its resources in tables indexed by the condition.
+ */
+public final class WeatherConditions {
+
+    public static final int STORM = 0;
+    public static final int LIGHT_RAIN = 1;
+    public static final int RAIN = 2;
+    public static final int SNOW = 3;
+    public static final int FOG = 4;
+    public static final int CLEAR = 5;
+    public static final int LIGHT_CLOUDS = 6;
+    public static final int CLOUDY = 7;
+    public static final int CONDITION_COUNT = 8;
+
+    // The lowest and highest ids with a condition
+    public static final int MIN_WEATHER_ID = 200;
+    public static final int MAX_WEATHER_ID = 804;
+
+    private static final String[] NAMES = {
+            "storm", "light_rain", "rain", "snow", "fog", "clear", "light_clouds", "cloudy"
+    };
+
+    // The condition of every id from MIN_WEATHER_ID on, -1 for none
+    private static final byte[] CONDITIONS = new byte[MAX_WEATHER_ID - MIN_WEATHER_ID + 1];
+    static {
+        // Based on weather code data found at:
+        // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
+        Arrays.fill(CONDITIONS, (byte) -1);
+        fill(200, 232, STORM);
+        fill(300, 321, LIGHT_RAIN);
+        fill(500, 504, RAIN);
+        fill(511, 511, SNOW);
+        fill(520, 531, RAIN);
+        fill(600, 622, SNOW);
+        fill(701, 761, FOG);
+        fill(781, 781, STORM);
+        fill(800, 800, CLEAR);
+        fill(801, 801, LIGHT_CLOUDS);
+        fill(802, 804, CLOUDY);
+    }
+
+    private WeatherConditions() {
+    }
+
+    private static void fill(int firstId, int lastId, int condition) {
+        Arrays.fill(CONDITIONS, firstId - MIN_WEATHER_ID, lastId - MIN_WEATHER_ID + 1, (byte) condition);
+    }
+
+    /**
+     * @param weatherId from OpenWeatherMap API response
+     * @return one of the condition constants, or -1 if the id is unknown.
+     */
+    public static int getConditionIndex(int weatherId) {
+        if (weatherId < MIN_WEATHER_ID || weatherId > MAX_WEATHER_ID) {
+            return -1;
+        }
+        return CONDITIONS[weatherId - MIN_WEATHER_ID];
+    }
+
+    /**
+     * @param weatherId from OpenWeatherMap API response
+     * @return the name of the condition, which is the same for all ids with the same icon, or
+     * null if the id is unknown.
+     */
+    public static String getCondition(int weatherId) {
+        int condition = getConditionIndex(weatherId);
+        return condition == -1 ? null : NAMES[condition];
+    }
+}
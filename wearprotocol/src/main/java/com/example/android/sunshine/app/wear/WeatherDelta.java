@@ -0,0 +1,167 @@
+package com.example.android.sunshine.app.wear;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A forecast encoded against one the watch already has, so that only the days that changed
+ * cross the Bluetooth link.  Days are matched by date, so a window that moved on by a day only
+ * costs the new last day.  Without a base, every day is included.
+ *
+ * Version 1 of the format, big-endian:
+ * <pre>
+ * byte   version         1; a decoder rejects versions it doesn't know
+ * byte   flags           FLAG_FULL when every day is included and there is no base
+ * int    baseChecksum    {@link WeatherPayload#checksum()} of the base, 0 without one
+ * int    targetChecksum  checksum of the forecast the delta results in
+ * int    firstDay        as in {@link WeatherPayload}
+ * byte   dayCount
+ * bytes  changed         without FLAG_FULL only, (dayCount + 7) / 8 bytes; bit i of byte i / 8
+ *                        is set when day i is included, otherwise it's the same as in the base
+ * then every included day:
+ * short  weatherId
+ * short  high
+ * short  low
+ * </pre>
+ */
+public final class WeatherDelta {
+
+    public static final int VERSION = 1;
+
+    private static final int FLAG_FULL = 1;
+    private static final int HEADER_SIZE = 15;
+    private static final int RECORD_SIZE = 6;
+
+    private WeatherDelta() {
+    }
+
+    /**
+     * @param base the forecast the receiver has, or null to include every day
+     */
+    public static byte[] encode(WeatherPayload base, WeatherPayload target) {
+        int dayCount = target.getDayCount();
+        boolean[] changed = new boolean[dayCount];
+        int changedCount = 0;
+        for (int i = 0; i < dayCount; i++) {
+            changed[i] = base == null || !isSameDay(base, target, i);
+            if (changed[i]) {
+                changedCount++;
+            }
+        }
+
+        int maskSize = base == null ? 0 : (dayCount + 7) / 8;
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + maskSize + RECORD_SIZE * changedCount);
+        buffer.put((byte) VERSION);
+        buffer.put((byte) (base == null ? FLAG_FULL : 0));
+        buffer.putInt(base == null ? 0 : base.checksum());
+        buffer.putInt(target.checksum());
+        buffer.putInt(target.getFirstDay());
+        buffer.put((byte) dayCount);
+        if (base != null) {
+            byte[] mask = new byte[maskSize];
+            for (int i = 0; i < dayCount; i++) {
+                if (changed[i]) {
+                    mask[i / 8] |= 1 << (i % 8);
+                }
+            }
+            buffer.put(mask);
+        }
+        for (int i = 0; i < dayCount; i++) {
+            if (changed[i]) {
+                buffer.putShort((short) target.getWeatherId(i));
+                buffer.putShort((short) target.getHigh(i));
+                buffer.putShort((short) target.getLow(i));
+            }
+        }
+        return buffer.array();
+    }
+
+    /**
+     * @return true if the delta doesn't need a base.
+     */
+    public static boolean isFull(byte[] delta) {
+        checkHeader(delta);
+        return (delta[1] & FLAG_FULL) != 0;
+    }
+
+    public static int getBaseChecksum(byte[] delta) {
+        checkHeader(delta);
+        return ByteBuffer.wrap(delta).getInt(2);
+    }
+
+    public static int getTargetChecksum(byte[] delta) {
+        checkHeader(delta);
+        return ByteBuffer.wrap(delta).getInt(6);
+    }
+
+    /**
+     * @param base the forecast with the base checksum of the delta; ignored for a full delta
+     * @throws IllegalArgumentException if the delta is malformed, or wasn't made against the base.
+     */
+    public static WeatherPayload apply(WeatherPayload base, byte[] delta) {
+        checkHeader(delta);
+        ByteBuffer buffer = ByteBuffer.wrap(delta);
+        buffer.position(1);
+        boolean full = (buffer.get() & FLAG_FULL) != 0;
+        int baseChecksum = buffer.getInt();
+        int targetChecksum = buffer.getInt();
+        int firstDay = buffer.getInt();
+        int dayCount = buffer.get() & 0xff;
+        if (!full && (base == null || base.checksum() != baseChecksum)) {
+            throw new IllegalArgumentException("The delta was made against another forecast");
+        }
+
+        byte[] mask = null;
+        if (!full) {
+            mask = new byte[(dayCount + 7) / 8];
+            if (buffer.remaining() < mask.length) {
+                throw new IllegalArgumentException("Truncated delta of " + delta.length + " bytes");
+            }
+            buffer.get(mask);
+        }
+
+        int[] weatherIds = new int[dayCount];
+        int[] highs = new int[dayCount];
+        int[] lows = new int[dayCount];
+        for (int i = 0; i < dayCount; i++) {
+            if (full || (mask[i / 8] & (1 << (i % 8))) != 0) {
+                if (buffer.remaining() < RECORD_SIZE) {
+                    throw new IllegalArgumentException("Truncated delta of " + delta.length + " bytes");
+                }
+                weatherIds[i] = buffer.getShort();
+                highs[i] = buffer.getShort();
+                lows[i] = buffer.getShort();
+            } else {
+                int index = base.indexOfDay(firstDay + i);
+                if (index == -1) {
+                    throw new IllegalArgumentException("Day " + (firstDay + i) + " isn't in the base");
+                }
+                weatherIds[i] = base.getWeatherId(index);
+                highs[i] = base.getHigh(index);
+                lows[i] = base.getLow(index);
+            }
+        }
+
+        WeatherPayload target = new WeatherPayload(firstDay, weatherIds, highs, lows);
+        if (target.checksum() != targetChecksum) {
+            throw new IllegalArgumentException("The delta didn't result in the forecast it was made for");
+        }
+        return target;
+    }
+
+    private static boolean isSameDay(WeatherPayload base, WeatherPayload target, int day) {
+        int index = base.indexOfDay(target.getFirstDay() + day);
+        return index != -1
+                && base.getWeatherId(index) == target.getWeatherId(day)
+                && base.getHigh(index) == target.getHigh(day)
+                && base.getLow(index) == target.getLow(day);
+    }
+
+    private static void checkHeader(byte[] delta) {
+        if (delta.length < HEADER_SIZE) {
+            throw new IllegalArgumentException("Truncated header of " + delta.length + " bytes");
+        }
+        if ((delta[0] & 0xff) != VERSION) {
+            throw new IllegalArgumentException("Unknown delta version " + (delta[0] & 0xff));
+        }
+    }
+}
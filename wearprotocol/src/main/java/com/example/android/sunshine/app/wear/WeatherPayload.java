@@ -0,0 +1,175 @@
+package com.example.android.sunshine.app.wear;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * The forecast of consecutive days, packed into one byte array for the data layer.
+ *
+ * Version 1 of the format, big-endian:
+ * <pre>
+ * byte   version      1; a decoder rejects versions it doesn't know
+ * byte   recordSize   bytes per day, at least 6; later fields may be added to the end of a day
+ *                     without a new version, older decoders skip them
+ * int    firstDay     days since 1970-01-01 of the first day, in the phone's time zone
+ * byte   dayCount     0 to 255
+ * then dayCount times:
+ * short  weatherId    OpenWeatherMap weather id
+ * short  high         whole degrees Celsius, as the phone caches them
+ * short  low
+ * </pre>
+ */
+public final class WeatherPayload {
+
+    public static final int VERSION = 1;
+    public static final int MAX_DAYS = 255;
+
+    private static final int HEADER_SIZE = 7;
+    private static final int RECORD_SIZE = 6;
+
+    private final int mFirstDay;
+    private final int[] mWeatherIds;
+    private final int[] mHighs;
+    private final int[] mLows;
+
+    /**
+     * @param firstDay days since 1970-01-01 of the first day, in the phone's time zone
+     * @param weatherIds the weather id of every day
+     * @param highs the high of every day, rounded to whole degrees
+     * @param lows the low of every day, rounded to whole degrees
+     */
+    public WeatherPayload(int firstDay, int[] weatherIds, int[] highs, int[] lows) {
+        if (weatherIds.length != highs.length || weatherIds.length != lows.length) {
+            throw new IllegalArgumentException("Every day needs a weather id, a high and a low");
+        }
+        if (weatherIds.length > MAX_DAYS) {
+            throw new IllegalArgumentException("At most " + MAX_DAYS + " days, not " + weatherIds.length);
+        }
+        for (int i = 0; i < weatherIds.length; i++) {
+            checkShort("weather id", weatherIds[i]);
+            checkShort("high", highs[i]);
+            checkShort("low", lows[i]);
+        }
+        mFirstDay = firstDay;
+        mWeatherIds = weatherIds.clone();
+        mHighs = highs.clone();
+        mLows = lows.clone();
+    }
+
+    public int getFirstDay() {
+        return mFirstDay;
+    }
+
+    public int getDayCount() {
+        return mWeatherIds.length;
+    }
+
+    public int getWeatherId(int day) {
+        return mWeatherIds[day];
+    }
+
+    public int getHigh(int day) {
+        return mHighs[day];
+    }
+
+    public int getLow(int day) {
+        return mLows[day];
+    }
+
+    /**
+     * @return the index of the given day, or -1 if the payload doesn't cover it.
+     */
+    public int indexOfDay(int day) {
+        long index = (long) day - mFirstDay;
+        return index >= 0 && index < mWeatherIds.length ? (int) index : -1;
+    }
+
+    /**
+     * @return a CRC32 of the encoded payload, which both sides use to name a forecast.
+     */
+    public int checksum() {
+        CRC32 crc = new CRC32();
+        crc.update(encode());
+        return (int) crc.getValue();
+    }
+
+    public byte[] encode() {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + RECORD_SIZE * mWeatherIds.length);
+        buffer.put((byte) VERSION);
+        buffer.put((byte) RECORD_SIZE);
+        buffer.putInt(mFirstDay);
+        buffer.put((byte) mWeatherIds.length);
+        for (int i = 0; i < mWeatherIds.length; i++) {
+            buffer.putShort((short) mWeatherIds[i]);
+            buffer.putShort((short) mHighs[i]);
+            buffer.putShort((short) mLows[i]);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * @throws IllegalArgumentException if the bytes aren't a payload of a known version.
+     */
+    public static WeatherPayload decode(byte[] bytes) {
+        if (bytes.length < HEADER_SIZE) {
+            throw new IllegalArgumentException("Truncated header of " + bytes.length + " bytes");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        int version = buffer.get() & 0xff;
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unknown payload version " + version);
+        }
+        int recordSize = buffer.get() & 0xff;
+        if (recordSize < RECORD_SIZE) {
+            throw new IllegalArgumentException("Days of " + recordSize + " bytes are too short");
+        }
+        int firstDay = buffer.getInt();
+        int dayCount = buffer.get() & 0xff;
+        if (buffer.remaining() < dayCount * recordSize) {
+            throw new IllegalArgumentException("Truncated payload, " + dayCount + " days don't fit in "
+                    + bytes.length + " bytes");
+        }
+
+        int[] weatherIds = new int[dayCount];
+        int[] highs = new int[dayCount];
+        int[] lows = new int[dayCount];
+        for (int i = 0; i < dayCount; i++) {
+            int start = buffer.position();
+            weatherIds[i] = buffer.getShort();
+            highs[i] = buffer.getShort();
+            lows[i] = buffer.getShort();
+            // Skips fields added by later versions of the format
+            buffer.position(start + recordSize);
+        }
+        return new WeatherPayload(firstDay, weatherIds, highs, lows);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof WeatherPayload)) {
+            return false;
+        }
+        WeatherPayload other = (WeatherPayload) o;
+        return mFirstDay == other.mFirstDay && Arrays.equals(mWeatherIds, other.mWeatherIds)
+                && Arrays.equals(mHighs, other.mHighs) && Arrays.equals(mLows, other.mLows);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = mFirstDay;
+        result = 31 * result + Arrays.hashCode(mWeatherIds);
+        result = 31 * result + Arrays.hashCode(mHighs);
+        result = 31 * result + Arrays.hashCode(mLows);
+        return result;
+    }
+
+    private static void checkShort(String name, int value) {
+        if (value < Short.MIN_VALUE || value > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("The " + name + " " + value + " doesn't fit the payload");
+        }
+    }
+}
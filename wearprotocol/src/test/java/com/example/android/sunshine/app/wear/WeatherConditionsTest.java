@@ -0,0 +1,68 @@
+package com.example.android.sunshine.app.wear;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class WeatherConditionsTest {
+
+    @Test
+    public void groupsIdsByIcon() {
+        assertEquals("storm", WeatherConditions.getCondition(200));
+        assertEquals("light_rain", WeatherConditions.getCondition(321));
+        assertEquals("rain", WeatherConditions.getCondition(504));
+        assertEquals("snow", WeatherConditions.getCondition(511));
+        assertEquals("rain", WeatherConditions.getCondition(531));
+        assertEquals("snow", WeatherConditions.getCondition(622));
+        assertEquals("fog", WeatherConditions.getCondition(761));
+        assertEquals("storm", WeatherConditions.getCondition(781));
+        assertEquals("clear", WeatherConditions.getCondition(800));
+        assertEquals("light_clouds", WeatherConditions.getCondition(801));
+        assertEquals("cloudy", WeatherConditions.getCondition(804));
+    }
+
+    @Test
+    public void knowsNothingOfOtherIds() {
+        assertNull(WeatherConditions.getCondition(-1));
+        assertNull(WeatherConditions.getCondition(199));
+        assertNull(WeatherConditions.getCondition(505));
+        assertNull(WeatherConditions.getCondition(900));
+    }
+
+    @Test
+    public void matchesTheRangeChecksForEveryId() {
+        for (int weatherId = -1; weatherId <= 1000; weatherId++) {
+            assertEquals("Weather id " + weatherId,
+                    getConditionWithRangeChecks(weatherId), WeatherConditions.getCondition(weatherId));
+        }
+    }
+
+    // How getCondition mapped ids before the table
+    private static String getConditionWithRangeChecks(int weatherId) {
+        if (weatherId >= 200 && weatherId <= 232) {
+            return "storm";
+        } else if (weatherId >= 300 && weatherId <= 321) {
+            return "light_rain";
+        } else if (weatherId >= 500 && weatherId <= 504) {
+            return "rain";
+        } else if (weatherId == 511) {
+            return "snow";
+        } else if (weatherId >= 520 && weatherId <= 531) {
+            return "rain";
+        } else if (weatherId >= 600 && weatherId <= 622) {
+            return "snow";
+        } else if (weatherId >= 701 && weatherId <= 761) {
+            return "fog";
+        } else if (weatherId == 761 || weatherId == 781) {
+            return "storm";
+        } else if (weatherId == 800) {
+            return "clear";
+        } else if (weatherId == 801) {
+            return "light_clouds";
+        } else if (weatherId >= 802 && weatherId <= 804) {
+            return "cloudy";
+        }
+        return null;
+    }
+}
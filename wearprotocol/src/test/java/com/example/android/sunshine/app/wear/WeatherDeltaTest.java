@@ -0,0 +1,95 @@
+package com.example.android.sunshine.app.wear;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class WeatherDeltaTest {
+
+    private static final int FIRST_DAY = 17045;
+
+    private static final WeatherPayload BASE = new WeatherPayload(FIRST_DAY,
+            new int[] {800, 801, 802, 500, 501, 211, 600},
+            new int[] {25, 23, 21, 18, 17, 19, 2},
+            new int[] {12, 11, 10, 9, 8, 9, -3});
+
+    @Test
+    public void fullDeltaNeedsNoBase() {
+        byte[] delta = WeatherDelta.encode(null, BASE);
+        assertTrue(WeatherDelta.isFull(delta));
+        assertEquals(BASE, WeatherDelta.apply(null, delta));
+        assertEquals(BASE.checksum(), WeatherDelta.getTargetChecksum(delta));
+    }
+
+    @Test
+    public void unchangedForecastCostsOnlyTheHeader() {
+        byte[] delta = WeatherDelta.encode(BASE, BASE);
+        assertFalse(WeatherDelta.isFull(delta));
+        assertEquals(15 + 1, delta.length);
+        assertEquals(BASE, WeatherDelta.apply(BASE, delta));
+    }
+
+    @Test
+    public void movedWindowCostsOnlyTheNewDay() {
+        // The next day: the first day is gone and one was added at the end
+        WeatherPayload target = new WeatherPayload(FIRST_DAY + 1,
+                new int[] {801, 802, 500, 501, 211, 600, 741},
+                new int[] {23, 21, 18, 17, 19, 2, 9},
+                new int[] {11, 10, 9, 8, 9, -3, 2});
+        byte[] delta = WeatherDelta.encode(BASE, target);
+        assertEquals(15 + 1 + 6, delta.length);
+        assertEquals(BASE.checksum(), WeatherDelta.getBaseChecksum(delta));
+        assertEquals(target, WeatherDelta.apply(BASE, delta));
+    }
+
+    @Test
+    public void changedDaysAreIncluded() {
+        WeatherPayload target = new WeatherPayload(FIRST_DAY,
+                new int[] {800, 801, 802, 500, 501, 211, 600},
+                new int[] {25, 24, 21, 18, 17, 19, 2},
+                new int[] {12, 11, 10, 9, 7, 9, -3});
+        byte[] delta = WeatherDelta.encode(BASE, target);
+        assertEquals(15 + 1 + 2 * 6, delta.length);
+        assertEquals(target, WeatherDelta.apply(BASE, delta));
+    }
+
+    @Test
+    public void rejectsAnotherBase() {
+        WeatherPayload other = new WeatherPayload(FIRST_DAY, new int[] {800}, new int[] {1},
+                new int[] {0});
+        byte[] delta = WeatherDelta.encode(BASE, BASE);
+        assertRejected(other, delta);
+        assertRejected(null, delta);
+    }
+
+    @Test
+    public void rejectsTruncatedDeltas() {
+        WeatherPayload target = new WeatherPayload(FIRST_DAY + 2, new int[] {802, 900},
+                new int[] {21, 30}, new int[] {10, 20});
+        byte[] delta = WeatherDelta.encode(BASE, target);
+        for (int length = 0; length < delta.length; length++) {
+            assertRejected(BASE, Arrays.copyOf(delta, length));
+        }
+    }
+
+    @Test
+    public void acksRoundTrip() {
+        byte[] ack = WearProtocol.encodeAck(WearProtocol.ACK_NEEDS_FULL, BASE.checksum());
+        assertEquals(WearProtocol.ACK_NEEDS_FULL, WearProtocol.getAckStatus(ack));
+        assertEquals(BASE.checksum(), WearProtocol.getAckChecksum(ack));
+    }
+
+    private static void assertRejected(WeatherPayload base, byte[] delta) {
+        try {
+            WeatherDelta.apply(base, delta);
+            fail("Error: " + Arrays.toString(delta) + " was applied");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+}
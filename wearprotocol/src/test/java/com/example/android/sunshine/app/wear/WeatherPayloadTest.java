@@ -0,0 +1,99 @@
+package com.example.android.sunshine.app.wear;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class WeatherPayloadTest {
+
+    // 2016-09-01
+    private static final int FIRST_DAY = 17045;
+
+    @Test
+    public void roundTripsAFortnight() {
+        WeatherPayload payload = new WeatherPayload(FIRST_DAY,
+                new int[] {800, 801, 802, 500, 501, 211, 600, 741, 804, 300, 800, 800, 511, 781},
+                new int[] {25, 23, 21, 18, 17, 19, 2, 9, 12, 14, 30, 31, 1, -5},
+                new int[] {12, 11, 10, 9, 8, 9, -3, 2, 5, 6, 18, 20, -2, -12});
+        byte[] bytes = payload.encode();
+
+        assertEquals(7 + 14 * 6, bytes.length);
+        assertEquals(payload, WeatherPayload.decode(bytes));
+        assertArrayEquals(bytes, WeatherPayload.decode(bytes).encode());
+    }
+
+    @Test
+    public void roundTripsExtremes() {
+        Random random = new Random(17);
+        for (int days = 0; days <= WeatherPayload.MAX_DAYS; days += 15) {
+            int[] weatherIds = new int[days];
+            int[] highs = new int[days];
+            int[] lows = new int[days];
+            for (int i = 0; i < days; i++) {
+                weatherIds[i] = random.nextInt(Short.MAX_VALUE + 1);
+                highs[i] = random.nextInt(1 << 16) + Short.MIN_VALUE;
+                lows[i] = random.nextInt(1 << 16) + Short.MIN_VALUE;
+            }
+            int firstDay = random.nextBoolean() ? Integer.MIN_VALUE : Integer.MAX_VALUE;
+            WeatherPayload payload = new WeatherPayload(firstDay, weatherIds, highs, lows);
+            assertEquals("Error: " + days + " days didn't round trip",
+                    payload, WeatherPayload.decode(payload.encode()));
+        }
+    }
+
+    @Test
+    public void skipsFieldsOfLaterVersions() {
+        // A day with two more bytes, as a compatible later version would write it
+        ByteBuffer buffer = ByteBuffer.allocate(7 + 2 * 8);
+        buffer.put((byte) WeatherPayload.VERSION).put((byte) 8).putInt(FIRST_DAY).put((byte) 2);
+        buffer.putShort((short) 800).putShort((short) 20).putShort((short) 10).putShort((short) -1);
+        buffer.putShort((short) 500).putShort((short) 15).putShort((short) 5).putShort((short) -1);
+
+        WeatherPayload payload = WeatherPayload.decode(buffer.array());
+        assertEquals(new WeatherPayload(FIRST_DAY, new int[] {800, 500}, new int[] {20, 15},
+                new int[] {10, 5}), payload);
+    }
+
+    @Test
+    public void rejectsUnknownVersions() {
+        byte[] bytes = new WeatherPayload(FIRST_DAY, new int[] {800}, new int[] {20}, new int[] {10})
+                .encode();
+        bytes[0] = (byte) (WeatherPayload.VERSION + 1);
+        assertRejected(bytes);
+    }
+
+    @Test
+    public void rejectsTruncatedPayloads() {
+        byte[] bytes = new WeatherPayload(FIRST_DAY, new int[] {800, 801}, new int[] {20, 21},
+                new int[] {10, 11}).encode();
+        for (int length = 0; length < bytes.length; length++) {
+            assertRejected(Arrays.copyOf(bytes, length));
+        }
+    }
+
+    @Test
+    public void rejectsValuesThatDontFit() {
+        try {
+            new WeatherPayload(FIRST_DAY, new int[] {800}, new int[] {Short.MAX_VALUE + 1},
+                    new int[] {10});
+            fail("Error: A high that doesn't fit in a short was accepted");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    private static void assertRejected(byte[] bytes) {
+        try {
+            WeatherPayload.decode(bytes);
+            fail("Error: " + Arrays.toString(bytes) + " was decoded");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+}